@@ -0,0 +1,311 @@
+package net.ghetu.customviews;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Decodes background images at the size they are displayed at, instead of their native resolution. The image is
+ * subsampled while decoding ({@code inSampleSize}), optionally in RGB_565, on a background thread.
+ * </p>
+ * <p>
+ * Decoded bitmaps are kept in a process-wide LRU cache keyed by the resource, the target size and the config, so that
+ * several views showing the same background, or a view recreated after a rotation, get the same bitmap back without
+ * decoding it again. Bitmaps which are neither cached nor displayed anymore are kept (softly) so that their memory can
+ * be reused by later decodes through {@code inBitmap}.
+ * </p>
+ * <p>
+ * Every method must be called on the main thread, and callbacks are delivered on it.
+ * </p>
+ */
+public final class BackgroundLoader {
+    private static final int MAX_REUSABLE_BITMAPS = 4;
+
+    private static BackgroundLoader sInstance;
+
+    public interface Callback {
+        void onBackgroundLoaded(Bitmap bitmap);
+    }
+
+    /**
+     * Bookkeeping of a decoded bitmap: its memory can only be reused once no view displays it and the cache dropped
+     * it.
+     */
+    private static class Usage {
+        int users;
+        boolean cached;
+    }
+
+    private final LruCache<String, Bitmap> mCache;
+    private final Map<Bitmap, Usage> mUsages = new IdentityHashMap<Bitmap, Usage>();
+
+    // Callbacks waiting for a decode, by key, so that concurrent requests for the same bitmap only decode it once
+    private final Map<String, List<Callback>> mPending = new HashMap<String, List<Callback>>();
+
+    // Accessed from the decoding thread, guarded by itself
+    private final List<SoftReference<Bitmap>> mReusable = new ArrayList<SoftReference<Bitmap>>();
+
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public static BackgroundLoader getInstance() {
+        if (sInstance == null) {
+            sInstance = new BackgroundLoader();
+        }
+
+        return sInstance;
+    }
+
+    private BackgroundLoader() {
+        // An eighth of the heap, in kilobytes
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+
+        mCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldBitmap, Bitmap newBitmap) {
+                Usage usage = mUsages.get(oldBitmap);
+                if (usage != null) {
+                    usage.cached = false;
+                    reuseIfUnused(oldBitmap, usage);
+                }
+            }
+        };
+
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "BackgroundLoader");
+            }
+        });
+    }
+
+    /**
+     * Loads the given resource for a view of the given size. If the bitmap is cached, the callback is called right
+     * away; otherwise it is called once the bitmap has been decoded, unless {@link #cancel(Callback)} is called
+     * first. Either way, the bitmap passed to the callback must be given back with {@link #release(Bitmap)} once it
+     * isn't displayed anymore.
+     *
+     * @param resources
+     * @param resId     drawable resource of the image
+     * @param width     of the view, in pixels
+     * @param height    of the view, in pixels
+     * @param rgb565    decode without alpha, using half the memory
+     * @param callback
+     */
+    public void load(final Resources resources, final int resId, final int width, final int height,
+                     final boolean rgb565, Callback callback) {
+        final String key = resId + ":" + width + "x" + height + (rgb565 ? ":565" : ":8888");
+
+        Bitmap cached = mCache.get(key);
+        if (cached != null) {
+            acquire(cached);
+            callback.onBackgroundLoaded(cached);
+            return;
+        }
+
+        List<Callback> callbacks = mPending.get(key);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+
+        callbacks = new ArrayList<Callback>();
+        callbacks.add(callback);
+        mPending.put(key, callbacks);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = decode(resources, resId, width, height, rgb565);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(key, bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the given callback from being called for the loads it is waiting for. The decodes still complete and
+     * their bitmaps are cached.
+     *
+     * @param callback
+     */
+    public void cancel(Callback callback) {
+        for (List<Callback> callbacks : mPending.values()) {
+            callbacks.remove(callback);
+        }
+    }
+
+    /**
+     * Gives back a bitmap received from {@link #load(Resources, int, int, int, boolean, Callback)}.
+     *
+     * @param bitmap
+     */
+    public void release(Bitmap bitmap) {
+        Usage usage = mUsages.get(bitmap);
+        if (usage != null) {
+            usage.users--;
+            reuseIfUnused(bitmap, usage);
+        }
+    }
+
+    /**
+     * Drops the cached bitmaps when the process is running low on memory. Bitmaps which are still displayed are not
+     * affected.
+     *
+     * @param level as passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mCache.evictAll();
+
+            synchronized (mReusable) {
+                mReusable.clear();
+            }
+        }
+    }
+
+    private void deliver(String key, Bitmap bitmap) {
+        List<Callback> callbacks = mPending.remove(key);
+        if (bitmap == null) return;
+
+        Usage usage = new Usage();
+        usage.cached = true;
+        mUsages.put(bitmap, usage);
+        mCache.put(key, bitmap);
+
+        for (Callback callback : callbacks) {
+            acquire(bitmap);
+            callback.onBackgroundLoaded(bitmap);
+        }
+    }
+
+    private void acquire(Bitmap bitmap) {
+        mUsages.get(bitmap).users++;
+    }
+
+    private void reuseIfUnused(Bitmap bitmap, Usage usage) {
+        if (usage.users > 0 || usage.cached) return;
+
+        mUsages.remove(bitmap);
+
+        synchronized (mReusable) {
+            if (mReusable.size() < MAX_REUSABLE_BITMAPS) {
+                mReusable.add(new SoftReference<Bitmap>(bitmap));
+            }
+        }
+    }
+
+    /**
+     * Runs on the decoding thread.
+     */
+    private Bitmap decode(Resources resources, int resId, int width, int height, boolean rgb565) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        // The image is sized against the view, so the density of the resource folder doesn't matter
+        options.inScaled = false;
+        BitmapFactory.decodeResource(resources, resId, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inPreferredConfig = rgb565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        // Only mutable bitmaps can be reused later on
+        options.inMutable = true;
+        options.inBitmap = takeReusable(options);
+
+        try {
+            return BitmapFactory.decodeResource(resources, resId, options);
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap didn't fit after all, decode into a new one
+            options.inBitmap = null;
+            return BitmapFactory.decodeResource(resources, resId, options);
+        }
+    }
+
+    /**
+     * Returns the largest power of 2 by which the image can be subsampled while still covering the view in both
+     * dimensions, since the view crops it.
+     */
+    static int calculateInSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int inSampleSize = 1;
+
+        while (imageWidth / (inSampleSize * 2) >= width && imageHeight / (inSampleSize * 2) >= height) {
+            inSampleSize *= 2;
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     * Removes and returns a bitmap whose memory can hold the image described by the options, if any.
+     */
+    private Bitmap takeReusable(BitmapFactory.Options options) {
+        synchronized (mReusable) {
+            Iterator<SoftReference<Bitmap>> iterator = mReusable.iterator();
+
+            while (iterator.hasNext()) {
+                Bitmap candidate = iterator.next().get();
+
+                if (candidate == null || candidate.isRecycled() || !candidate.isMutable()) {
+                    iterator.remove();
+                } else if (canReuse(candidate, options)) {
+                    iterator.remove();
+                    return candidate;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean canReuse(Bitmap candidate, BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap which is large enough can be reconfigured
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+
+            return width * height * bytesPerPixel <= candidate.getAllocationByteCount();
+        }
+
+        // Before KitKat, only bitmaps of the same size and config can be reused, without subsampling
+        return options.inSampleSize == 1
+                && candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight
+                && candidate.getConfig() == options.inPreferredConfig;
+    }
+}
@@ -1,19 +1,55 @@
 package net.ghetu.customviews;
 
-import android.animation.AnimatorSet;
-import android.animation.ValueAnimator;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.Process;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.ScaleGestureDetector.SimpleOnScaleGestureListener;
 import android.view.View;
-import android.view.animation.LinearInterpolator;
 import android.widget.ImageView;
 
-import java.util.ArrayList;
+import net.ghetu.customviews.core.AnimationTimeline;
+import net.ghetu.customviews.core.DetailLevels;
+import net.ghetu.customviews.core.DirtyRegion;
+import net.ghetu.customviews.core.DrawBuffers;
+import net.ghetu.customviews.core.Evaluators;
+import net.ghetu.customviews.core.PointClusters;
+import net.ghetu.customviews.core.PointCoalescer;
+import net.ghetu.customviews.core.PointQueue;
+import net.ghetu.customviews.core.RouteAnimation;
+import net.ghetu.customviews.core.RouteCuller;
+import net.ghetu.customviews.core.RouteIndex;
+import net.ghetu.customviews.core.RouteStore;
+import net.ghetu.customviews.core.RouteWindow;
+import net.ghetu.customviews.core.StrokeSimplifier;
+import net.ghetu.customviews.core.Style;
+import net.ghetu.customviews.core.StyleRegistry;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>
@@ -24,32 +60,260 @@ import java.util.ArrayList;
  * <p>
  * The view animates 2 things: the pathway from one point to another and a point around each circle once the
  * pathway reaches is. Animation speeds are customizable, as well as colors for the points and pathways. Because the
- * view extends from {@link ImageView}, the background can be set regularly, as well as the scale type.
+ * view extends from {@link ImageView}, the background can be set regularly, as well as the scale type. Large
+ * backgrounds should rather be set with map_background (see {@link #setMapBackground(int)}), which decodes them at
+ * the size of the view.
+ * </p>
+ * <p>
+ * Points are kept in a {@link RouteStore} (primitive coordinate arrays) and are animated by a single
+ * {@link RouteAnimation}, so no object is created per point or per pathway.
+ * </p>
+ * <p>
+ * Points can have their own colors, and those of the pathways leaving them, through styles registered with
+ * {@link #registerStyle(int, int, int)}. Styles are interned: points only hold a style id and everything of the same
+ * style is drawn with the same paints, in batches of consecutive points of that style.
+ * </p>
+ * <p>
+ * The map can be zoomed by pinching and panned by dragging. Points keep the coordinates they were touched at with
+ * the initial zoom, and are drawn through the {@link Viewport}.
  * </p>
  */
-public class MapPointsView extends ImageView {
+public class MapPointsView extends ImageView implements Choreographer.FrameCallback {
     private static final String TAG = "MapPointsView";
 
+    private static final long NANOS_PER_MILLI = 1000000L;
+
     /**
      * Points between which the pathways are formed
      */
-    private ArrayList<AnimatedPoint> mPoints;
+    private RouteStore mRoute;
+
+    /**
+     * Animates the pathways (aka lines) between the points of mRoute, as well as the circles around the points
+     */
+    private RouteAnimation mRouteAnimation;
+
+    /**
+     * Packed coordinates of the route, so that the lines and the fixed points can each be drawn with a single call
+     */
+    private DrawBuffers mDrawBuffers;
+
+    /**
+     * Optional layer into which the completed pathways are rasterised once, so that each frame only draws the layer
+     * plus the part of the route which is still animating
+     */
+    private boolean mCacheCompletedRoute = false;
+    private Bitmap mRouteCache;
+    private Canvas mRouteCacheCanvas;
+    private int mCachedSegments;
+
+    /**
+     * Image drawn behind the route, decoded by the {@link BackgroundLoader} at the size of the view rather than at
+     * its native resolution
+     */
+    private int mMapBackground = 0;
+    private boolean mMapBackgroundRgb565 = false;
+    private Bitmap mMapBackgroundBitmap;
+
+    /**
+     * With map_background_tiled, the background is drawn by a {@link TiledBackground} instead, which only decodes
+     * the visible tiles at the resolution they are displayed at. This allows for images much larger than the memory
+     * available to the app
+     */
+    private static final int BACKGROUND_TILE_SIZE = 256;
+    private boolean mMapBackgroundTiled = false;
+    private boolean mMapBackgroundDiskCache = false;
+    private TiledBackground mTiledBackground;
+    // Transform from the pixels of the tiled image to the pixels of the view
+    private final Matrix mTiledBackgroundMatrix = new Matrix();
+    private final TiledBackground.Listener mTiledBackgroundListener = new TiledBackground.Listener() {
+        @Override
+        public void onBackgroundChanged() {
+            updateTiledBackgroundMatrix();
+            postInvalidateOnAnimation();
+        }
+    };
+    private final BackgroundLoader.Callback mBackgroundCallback = new BackgroundLoader.Callback() {
+        @Override
+        public void onBackgroundLoaded(Bitmap bitmap) {
+            showMapBackground(bitmap);
+        }
+    };
+
+    /**
+     * Zoom and pan of the map. The route and the background are drawn through it, and touched points are converted
+     * back to the coordinates of the route
+     */
+    private final Viewport mViewport = new Viewport();
+    private boolean mZoomable = true;
+    private ScaleGestureDetector mScaleDetector;
+    private GestureDetector mGestureDetector;
+    // Transform of the tiled background, including the viewport
+    private final Matrix mTiledBackgroundDrawMatrix = new Matrix();
+
+    /**
+     * Points and pathways of the route by position, to find what is under a tap
+     */
+    private final RouteIndex mRouteIndex = new RouteIndex();
+    private OnRouteTapListener mOnRouteTapListener;
+    // In dp, how far from a point or a pathway a tap still hits it
+    private float mTapTolerance = 24;
+
+    /**
+     * Skips the pathways and points which are outside of the clip, found through a grid of the route
+     */
+    private static final float CULLING_CELL_SIZE = 128;
+    private final RouteCuller mCuller = new RouteCuller(CULLING_CELL_SIZE);
+    private final Rect mClipBounds = new Rect();
+    // Visible part of the route on the current frame, in route coordinates
+    private float mVisibleLeft, mVisibleTop, mVisibleRight, mVisibleBottom;
+    private int mCulledCount;
+
+    /**
+     * Simplified versions of dense routes, built off the UI thread once the points are set. The completed pathways
+     * are drawn from the level matching the current zoom, which keeps their number bounded by the resolution of the
+     * view rather than by the number of points
+     */
+    private static final int SIMPLIFICATION_MIN_POINTS = 256;
+    private static Executor sSimplificationExecutor;
+    private DetailLevels mDetailLevels;
+    // Incremented whenever the points are replaced, so that levels built for older points are discarded
+    private int mDetailLevelsGeneration;
+    // In pixels, how far the simplified pathways may stray from the actual route
+    private float mSimplificationTolerance = 0.5f;
+
+    /**
+     * Optionally, points which are close to each other at the current zoom are drawn as one marker with their count
+     * instead of overlapping circles. The clusters of the maximum zoom are computed off the UI thread, by several
+     * threads for large routes, and the ones of the lower zooms are merged from them
+     */
+    private boolean mClusterPoints = false;
+    // In dp, the size of the cells of the grid which groups the points
+    private float mClusterSize = 48;
+    private PointClusters mClusters;
+    private static ExecutorService sClusteringExecutor;
+    // Incremented whenever the points are replaced, so that clusters computed for older points are discarded
+    private int mClustersGeneration;
+    private boolean mClustersPending;
+    // Number of clusters of the level selected for the current frame
+    private int mClusterCount;
+    // Points which are alone in their cluster, drawn in one batch
+    private float[] mSingletons = new float[0];
+    // Digits of the count of a cluster, written from the end
+    private final char[] mClusterLabel = new char[10];
+
+    /**
+     * Points appended from another thread (see {@link #appendPoint(float, float)}), handed over to the UI thread
+     * through a lock-free queue which is drained into mRoute once per frame. Before being appended, the samples of
+     * a frame are coalesced according to the ingestion policy, so that a high rate source doesn't produce more
+     * pathways than can be animated
+     */
+    private static final int STREAM_CAPACITY = 4096;
+    private final PointQueue mStream = new PointQueue(STREAM_CAPACITY);
+    private final float[] mStreamSamples = new float[STREAM_CAPACITY * 2];
+    private final PointCoalescer mCoalescer = new PointCoalescer();
+    // In dp and degrees, thresholds of the decimating policies
+    private float mDecimationDistance = 4;
+    private float mDecimationAngle = 15;
+    // Set by the producer when it asks for a frame, cleared by the frame which drains the queue
+    private final AtomicBoolean mStreamFrameRequested = new AtomicBoolean();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mStreamFrameRequest = new Runnable() {
+        @Override
+        public void run() {
+            // While the view can't be seen, the points wait in the queue and the flag stays set, so that the
+            // producer doesn't post again. updatePlayback() drains them once the view can be seen
+            if (canBeSeen()) {
+                scheduleFrame();
+            }
+        }
+    };
+
+    /**
+     * Optionally, only the latest points of the route are kept (see {@link #setRouteWindow(int, int)}), for routes
+     * which grow forever. They are then kept and drawn by the window instead of mRoute, the oldest ones fading out
+     * until they are evicted
+     */
+    private RouteWindow mRouteWindow;
+    private int mWindowMaxPoints = 0;
+    private int mWindowMaxAge = 0;
+    // Opacities the fading pathways and points are drawn with, so that they still go in a few batches
+    private static final int WINDOW_FADE_STEPS = 8;
+    private float[] mWindowSegments;
+    private float[] mWindowPoints;
+
+    /**
+     * Region of the view which changed between the last two frames
+     */
+    private final DirtyRegion mDirtyRegion = new DirtyRegion();
+
+    /**
+     * Clock which drives the animations, once per frame
+     */
+    private AnimationTimeline mTimeline;
+    private boolean mFrameScheduled = false;
+    // True if the scheduled frame is a delayed one, which only updates the fading points of the window
+    private boolean mFrameDelayed = false;
+    private boolean mAttached = false;
 
     /**
-     * Pathways (aka lines) between points
+     * Releases the caches of the view when the system runs low on memory or the UI gets hidden
      */
-    private ArrayList<AnimatedLine> mLines;
+    private final ComponentCallbacks2 mMemoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_LOW
+                    || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                releaseMemory();
+            }
+
+            BackgroundLoader.getInstance().trimMemory(level);
+
+            if (level >= TRIM_MEMORY_UI_HIDDEN && mTiledBackground != null) {
+                mTiledBackground.trimMemory();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            releaseMemory();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
 
     private boolean mSelectPointsByTouching = true;
     private int mMaxPoints = 5;
 
+    /**
+     * Optionally, touched points are drawn freehand: dragging captures every sample of the move events, simplified
+     * as they arrive, instead of one point per tap
+     */
+    private boolean mFreehandCapture = false;
+    // In dp, how far the captured points may stray from the finger
+    private float mFreehandTolerance = 2;
+    private final StrokeSimplifier mStroke = new StrokeSimplifier(0);
+
     // Line options - apply to all
     private Paint linePaint;
     private int lineAnimationDuration = 500;
+    // In dp per second. When set (greater than 0), it replaces lineAnimationDuration
+    private float lineAnimationVelocity = 0;
     private int lineColor = Color.GRAY;
     private float lineThickness = 3f;
 
     // Circle options - apply to all (if instantiating from XML or not setting them explicitly)
+    private Paint staticCirclePaint;
+    private Paint animatedCirclePaint;
+    private Paint clusterTextPaint;
+
+    /**
+     * Styles of the points, the default one being made of the colors above, and their shared paints
+     */
+    private StyleRegistry mStyles;
+    private StylePaints mStylePaints;
     private int staticCircleColor = Color.WHITE;
     private int animatedCircleColor = Color.WHITE;
     private int animatedCircleSizeMin = 16;
@@ -58,6 +322,26 @@ public class MapPointsView extends ImageView {
     private int animatedCircleAlphaExpanded = 0;
     private int animatedCircleAnimationDuration = 500;
 
+    /**
+     * Interface definition for callbacks invoked when an existing point or pathway of the route is tapped.
+     */
+    public interface OnRouteTapListener {
+        /**
+         * @param view
+         * @param index of the point in the route
+         * @return true if the tap was handled. Otherwise, the pathways are checked next, then the tap is handled as
+         * usual (e.g. by adding a point)
+         */
+        boolean onPointTapped(MapPointsView view, int index);
+
+        /**
+         * @param view
+         * @param index of the pathway, i.e. of the point it starts from
+         * @return true if the tap was handled
+         */
+        boolean onPathwayTapped(MapPointsView view, int index);
+    }
+
     public MapPointsView(Context context) {
         super(context);
         init();
@@ -77,592 +361,2001 @@ public class MapPointsView extends ImageView {
 
     @Override
     protected void onDraw(Canvas canvas) {
-        // Ensure that the view behaves like an ImageView
-        super.onDraw(canvas);
-
-        boolean needsInvalidate = false;
-
-        for (AnimatedLine l : mLines) {
-            // If the pathway is currently being animated, getCurrentPoint is different from the destination as well
-            // as the origin
-            canvas.drawLine(l.getOrigin().X, l.getOrigin().Y, l.getCurrentPoint().X, l.getCurrentPoint().Y, l
-                    .getPaint());
-
-            if (l.getAnimator().isRunning())
-                needsInvalidate = true;
+        // Ensure that the view behaves like an ImageView, the image being zoomed along with the route
+        if (mViewport.isIdentity()) {
+            super.onDraw(canvas);
+        } else {
+            int saveCount = canvas.save();
+            canvas.concat(mViewport.getMatrix());
+            super.onDraw(canvas);
+            canvas.restoreToCount(saveCount);
         }
 
-        for (AnimatedPoint p : mPoints) {
-            // Draw the fixed points
-            canvas.drawCircle(p.X, p.Y, p.getInitialDiameter() / 2, p.getStaticPaint());
-
-            // Draw the animating circles that surround the points
-            if (p.getAnimatorSet().isRunning()) {
-                canvas.drawCircle(p.X, p.Y, p.getCurrentDiameter() / 2, p.getAnimatedCirclePaint());
-                needsInvalidate = true;
-            }
+        if (mTiledBackground != null) {
+            mTiledBackground.draw(canvas, mTiledBackgroundDrawMatrix, getWidth(), getHeight());
         }
 
-        // If an ongoing animation was detected, the view should probably drawn again to make sure that no frames are
-        // skipped
-        if (needsInvalidate) invalidate();
-    }
+        if (mRouteWindow != null) {
+            drawRouteWindow(canvas);
+            drawStrokePreview(canvas);
+            return;
+        }
 
-    /**
-     * Pulls attributes from XML. When XML is used for defining the view, points can only be chosen dynamically by
-     * the user. Furthermore, point colors can not be different from each other.
-     */
-    private void pullAttributes(Context context, AttributeSet attrs) {
-        TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.MapPointsView);
+        Viewport viewport = mViewport;
 
-        // Try to pull out a value from XML. If there is no value there, stick to the one defined already
-        mMaxPoints = ta.getInt(R.styleable.MapPointsView_max_points, mMaxPoints);
+        float[] xs = mRoute.getXs();
+        float[] ys = mRoute.getYs();
+        int count = mRoute.size();
 
-        staticCircleColor = ta.getColor(R.styleable.MapPointsView_static_circle_color, staticCircleColor);
-        animatedCircleColor = ta.getColor(R.styleable.MapPointsView_animated_circle_color, animatedCircleColor);
-        animatedCircleSizeMin = ta.getInt(R.styleable.MapPointsView_animated_circle_size_min, animatedCircleSizeMin);
-        animatedCircleSizeMax = ta.getInt(R.styleable.MapPointsView_animated_circle_size_max, animatedCircleSizeMax);
-        animatedCircleAlphaInitial = ta.getInt(R.styleable.MapPointsView_animated_circle_alpha_initial,
-                animatedCircleAlphaInitial);
-        animatedCircleAlphaExpanded = ta.getInt(R.styleable.MapPointsView_animated_circle_alpha_initial,
-                animatedCircleAlphaExpanded);
-        animatedCircleAnimationDuration = ta.getInt(R.styleable.MapPointsView_animated_circle_animation_duration,
-                animatedCircleAnimationDuration);
+        int completed = mRouteAnimation.getCompletedSegments();
+        int firstLivePoint = 0;
+        int liveSegments = completed;
 
-        lineColor = ta.getColor(R.styleable.MapPointsView_animated_line_color, lineColor);
-        lineThickness = ta.getFloat(R.styleable.MapPointsView_animated_line_thickness, lineThickness);
-        lineAnimationDuration = ta.getInteger(R.styleable.MapPointsView_animated_line_animation_duration,
-                lineAnimationDuration);
+        if (mCacheCompletedRoute && updateRouteCache(completed)) {
+            // Pathways which have been fully animated, along with their origin points, never change again. They are
+            // rasterised into the cache only once
+            canvas.drawBitmap(mRouteCache, 0, 0, null);
+            firstLivePoint = completed;
+            liveSegments = 0;
+        }
 
-        ta.recycle();
-    }
+        updateVisibleBounds(canvas);
 
-    /**
-     * Sets up the members, as well as callbacks for the animations (to determine the precedence of animation between
-     * the pathways and points).
-     */
-    private void init() {
-        // TODO: Implement state saving when view gets destroyed and created again
-        setSaveEnabled(true);
+        // Clusters stand for the points. Until they are computed, the points are drawn as usual, all of them since
+        // the cache leaves them out while clustering
+        boolean clustered = mClusterPoints && selectClusters();
+        if (mClusterPoints) {
+            firstLivePoint = clustered ? count : 0;
+        }
 
-        mPoints = new ArrayList<>();
-        mLines = new ArrayList<>();
+        // When a pixel spans many points, the pathways are drawn from a simplified route which strays from the
+        // actual one by less than the simplification tolerance. Its visible segments are gathered right away
+        int level = liveSegments > 0 ? getDetailLevel() : -1;
+        float[] segments;
+        // Index of the point each segment (or point) of the buffers starts from, or null if they all are in order
+        int[] segmentOrigins = null;
+        int[] pointOrigins = null;
+        if (level >= 0) {
+            liveSegments = mDetailLevels.gather(level, mRoute, liveSegments, mVisibleLeft, mVisibleTop,
+                    mVisibleRight, mVisibleBottom);
+            segments = viewport.mapSegmentsInPlace(mDetailLevels.getSegments(), liveSegments);
+            segmentOrigins = mDetailLevels.getOrigins();
+        } else {
+            segments = viewport.mapSegments(mDrawBuffers.packSegments(mRoute, liveSegments), liveSegments);
+        }
 
-        if (mSelectPointsByTouching) {
-            this.setOnTouchListener(new OnTouchListener() {
-                @Override
-                public boolean onTouch(View view, MotionEvent motionEvent) {
+        float[] points = viewport.mapPoints(mDrawBuffers.packPoints(mRoute, count), count);
+        int pointOffset = firstLivePoint;
+        int pointCount = count - firstLivePoint;
+
+        // Only keep what intersects the clip, unless the whole route is visible anyway. Clustered points are
+        // culled along with their clusters instead
+        if (mCuller.cull(mRoute, mVisibleLeft, mVisibleTop, mVisibleRight, mVisibleBottom, segments,
+                level >= 0 ? 0 : liveSegments, points, firstLivePoint)) {
+            if (level < 0) {
+                segments = mCuller.getSegments();
+                segmentOrigins = mCuller.getSegmentOrigins();
+                liveSegments = mCuller.getSegmentCount();
+            }
+            points = mCuller.getPoints();
+            pointOrigins = mCuller.getPointOrigins();
+            pointOffset = 0;
+            pointCount = mCuller.getPointCount();
+        }
+        mCulledCount = mCuller.getCulledCount();
 
-                    if (motionEvent.getAction() == MotionEvent.ACTION_DOWN)
-                        // Propagate the event to ACTION_UP
-                        return true;
+        // Pathways which have been fully animated already are drawn in one batch per style
+        if (liveSegments > 0) {
+            drawBatches(canvas, segments, segmentOrigins, 0, liveSegments, false);
+        }
 
-                    if (motionEvent.getAction() == MotionEvent.ACTION_UP) {
+        // The pathway which is currently being animated grows from its origin towards its destination
+        if (mRouteAnimation.isHeadGrowing()) {
+            canvas.drawLine(viewport.toViewX(xs[completed]), viewport.toViewY(ys[completed]),
+                    viewport.toViewX(mRouteAnimation.getHeadX()), viewport.toViewY(mRouteAnimation.getHeadY()),
+                    mStylePaints.getLinePaint(mRoute.getStyle(completed)));
+        }
 
-                        // Don't allow the input of new points after the maximum defined number is reached
-                        if (mPoints.size() < mMaxPoints) {
-                            final AnimatedPoint newPoint = new AnimatedPoint(motionEvent
-                                    .getX(), motionEvent.getY());
-                            mPoints.add(newPoint);
-                            newPoint.setCallback(getPointCallback(newPoint));
+        // Draw the fixed points in batches as well; their round caps make them circles
+        if (clustered) {
+            drawClusters(canvas);
+        } else if (pointCount > 0) {
+            drawBatches(canvas, points, pointOrigins, pointOffset, pointCount, true);
+        }
 
-                            if (mPoints.size() >= 2) {
-                                int numberOfPoints = mPoints.size();
+        // Draw the animating circles that surround the points
+        int lastPulse = mRouteAnimation.getLastPulse();
+        float pulseMargin = getPulseRadius() / viewport.getScale();
+        for (int i = mRouteAnimation.getFirstPulse(); i <= lastPulse; i++) {
+            if (xs[i] < mVisibleLeft - pulseMargin || xs[i] > mVisibleRight + pulseMargin
+                    || ys[i] < mVisibleTop - pulseMargin || ys[i] > mVisibleBottom + pulseMargin) {
+                mCulledCount++;
+                continue;
+            }
 
-                                // Add a new pathway between the last 2 points
-                                final AnimatedLine newLine = new AnimatedLine(mPoints.get(numberOfPoints - 2),
-                                        mPoints.get(numberOfPoints - 1));
-                                mLines.add(newLine);
-                                newLine.setCallback(getLineCallback(newLine));
-                            }
+            // A cluster marker stands for all of its points, which don't pulse on their own
+            if (clustered && mClusters.getSize(mClusters.indexOf(xs[i], ys[i])) > 1) continue;
 
-                            if (mPoints.size() == mMaxPoints) {
-                                mPoints.get(0).startAnimation();
-                            }
+            float fraction = mRouteAnimation.getPulseFraction(i);
+            float diameter = Evaluators.evaluate(fraction, (float) animatedCircleSizeMin, animatedCircleSizeMax);
 
-                            // New points were added, an animation might have been started. Time to redraw the view to
-                            // reflect these changes!
-                            invalidate();
-                        }
+            // The paint is shared by every point of the style, so the alpha of this circle is applied right away
+            Paint paint = mStylePaints.getAnimatedCirclePaint(mRoute.getStyle(i));
+            paint.setAlpha(Evaluators.evaluate(fraction, animatedCircleAlphaInitial, animatedCircleAlphaExpanded));
+            canvas.drawCircle(viewport.toViewX(xs[i]), viewport.toViewY(ys[i]), diameter / 2, paint);
+        }
 
-                        // Don't propagate the event further
-                        return false;
-                    }
+        drawStrokePreview(canvas);
+    }
 
-                    return false;
-                }
-            });
+    /**
+     * Draws the window of the route: every pathway and point it keeps, with the oldest ones fading out. The window is
+     * bounded, so this costs the same however long the route has been running. Pathways and points are drawn in one
+     * batch per opacity step.
+     */
+    private void drawRouteWindow(Canvas canvas) {
+        RouteWindow window = mRouteWindow;
+        Viewport viewport = mViewport;
+
+        int segments = window.packSegments(mWindowSegments);
+        int points = window.packPoints(mWindowPoints);
+        viewport.mapSegmentsInPlace(mWindowSegments, segments);
+        viewport.mapPointsInPlace(mWindowPoints, points);
+
+        drawFaded(canvas, mWindowSegments, segments, false, linePaint);
+        if (window.isHeadGrowing()) {
+            int origin = window.getReached() - 1;
+            int alpha = linePaint.getAlpha();
+            linePaint.setAlpha(Math.round(alpha * getWindowOpacity(origin)));
+            canvas.drawLine(viewport.toViewX(window.getX(origin)), viewport.toViewY(window.getY(origin)),
+                    viewport.toViewX(window.getHeadX()), viewport.toViewY(window.getHeadY()), linePaint);
+            linePaint.setAlpha(alpha);
         }
-    }
 
-    @Override
-    protected void onWindowVisibilityChanged(int visibility) {
-        super.onWindowVisibilityChanged(visibility);
+        drawFaded(canvas, mWindowPoints, points, true, staticCirclePaint);
 
-        // If the the points were not chosen dynamically by the user by touching, animate the path automatically when
-        // the view becomes visible
-        if (visibility == View.VISIBLE && !mSelectPointsByTouching) {
-            startAnimatingLines();
+        for (int i = window.getFirstPulse(); i < window.getReached(); i++) {
+            float fraction = window.getPulseFraction(i);
+            float diameter = Evaluators.evaluate(fraction, (float) animatedCircleSizeMin, animatedCircleSizeMax);
+            int alpha = Evaluators.evaluate(fraction, animatedCircleAlphaInitial, animatedCircleAlphaExpanded);
+
+            animatedCirclePaint.setAlpha(Math.round(alpha * getWindowOpacity(i)));
+            canvas.drawCircle(viewport.toViewX(window.getX(i)), viewport.toViewY(window.getY(i)), diameter / 2,
+                    animatedCirclePaint);
         }
     }
 
     /**
-     * Returns a {@link net.ghetu.customviews.MapPointsView.AnimatedObjectCallback} so that once the point begins its
-     * animation, the next line on the path begins its animation as well.
-     *
-     * @param newPoint
-     * @return
+     * Draws packed segments or points of the window, one call per run of entries of the same opacity step. Opacity
+     * only grows from the oldest entry to the newest, so there are at most {@value #WINDOW_FADE_STEPS} calls.
      */
-    private AnimatedObjectCallback getPointCallback(final AnimatedPoint newPoint) {
-        return new AnimatedObjectCallback() {
-            @Override
-            public void animationStarted() {
-                // When the outer circle of the point starts its animation, start animating the outgoing
-                // path as well (if there is one)
-                int index = mPoints.indexOf(newPoint);
+    private void drawFaded(Canvas canvas, float[] buffer, int count, boolean points, Paint paint) {
+        int stride = points ? 2 : 4;
+        int alpha = paint.getAlpha();
+        int start = 0;
+
+        while (start < count) {
+            float opacity = getWindowOpacity(start);
+            int end = start + 1;
+            while (end < count && getWindowOpacity(end) == opacity) {
+                end++;
+            }
 
-                if (index < mPoints.size() - 1) {
-                    mLines.get(index).startAnimation();
+            if (opacity > 0) {
+                paint.setAlpha(Math.round(alpha * opacity));
+                if (points) {
+                    canvas.drawPoints(buffer, start * stride, (end - start) * stride, paint);
+                } else {
+                    canvas.drawLines(buffer, start * stride, (end - start) * stride, paint);
                 }
             }
+            start = end;
+        }
 
-            @Override
-            public void animationEnded() {
-            }
-        };
+        paint.setAlpha(alpha);
     }
 
     /**
-     * Returns a {@link net.ghetu.customviews.MapPointsView.AnimatedObjectCallback} so that once the line finishes
-     * its animation, the next point on the path begins its animation.
-     *
-     * @param newLine
-     * @return
+     * @return the opacity of the given point of the window, rounded down to a step
      */
-    private AnimatedObjectCallback getLineCallback(final AnimatedLine newLine) {
-        return new AnimatedObjectCallback() {
-            @Override
-            public void animationStarted() {
+    private float getWindowOpacity(int position) {
+        return (float) Math.floor(mRouteWindow.getOpacity(position) * WINDOW_FADE_STEPS) / WINDOW_FADE_STEPS;
+    }
 
+    /**
+     * Draws packed segments or points with the paints of their style, one call per run of consecutive entries of the
+     * same style. A route of a single style is drawn in one call.
+     *
+     * @param buffer  packed segments (4 floats each) or points (2 floats each)
+     * @param origins index of the point of each entry, in increasing order. If null, the buffer holds every entry
+     *                in order, from the first one, and only the ones from {@code first} are drawn
+     * @param first   index of the point of the first entry to draw, when origins is null
+     * @param count   number of entries to draw
+     * @param points  true if the buffer holds points rather than segments
+     */
+    private void drawBatches(Canvas canvas, float[] buffer, int[] origins, int first, int count, boolean points) {
+        int stride = points ? 2 : 4;
+        int start = 0;
+
+        while (start < count) {
+            int origin = origins != null ? origins[start] : first + start;
+            int run = mRoute.getRunAt(origin);
+            int runEnd = mRoute.getRunEnd(run);
+
+            // Entries up to the end of the run share its style
+            int end;
+            if (origins == null) {
+                end = Math.min(count, runEnd - first);
+            } else {
+                end = start + 1;
+                while (end < count && origins[end] < runEnd) {
+                    end++;
+                }
             }
 
-            @Override
-            public void animationEnded() {
-                // When the animation of the pathway has ended, start animating the next point
-                int index = mLines.indexOf(newLine);
+            int offset = (origins != null ? start : first + start) * stride;
+            int style = mRoute.getRunStyle(run);
 
-                mPoints.get(index + 1).startAnimation();
+            if (points) {
+                canvas.drawPoints(buffer, offset, (end - start) * stride, mStylePaints.getStaticCirclePaint(style));
+            } else {
+                canvas.drawLines(buffer, offset, (end - start) * stride, mStylePaints.getLinePaint(style));
             }
-        };
+
+            start = end;
+        }
     }
 
-    /*
-    private Bitmap getScaledBackground() {
-        Bitmap unscaled = BitmapFactory.decodeResource(getResources(), R.drawable.world);
+    /**
+     * Draws the points as the clusters of the current zoom: the points which are alone in their cluster as usual, in
+     * one batch, and the others as one larger circle per cluster, labelled with its number of points.
+     */
+    private void drawClusters(Canvas canvas) {
+        Viewport viewport = mViewport;
+        int clusters = mClusterCount;
 
-        float ratio = (float) unscaled.getWidth() / (float) unscaled.getHeight();
+        if (mSingletons.length < clusters * 2) {
+            mSingletons = new float[clusters * 2];
+        }
 
-        if (getWidth() > getHeight()) {
-            Bitmap scaledX;
-            if (ratio < 1) {
-                scaledX = Bitmap.createScaledBitmap(unscaled, getWidth(), (int) (getWidth() * ratio), true);
-            } else {
-                scaledX = Bitmap.createScaledBitmap(unscaled, getWidth(), (int) (getWidth() / ratio), true);
-            }
+        float maxRadius = dipToPx(mClusterSize) / 2f;
+        float baseRadius = Math.max(animatedCircleSizeMin / 2f, clusterTextPaint.getTextSize());
+        float margin = maxRadius / viewport.getScale();
+        float textOffset = -(clusterTextPaint.ascent() + clusterTextPaint.descent()) / 2;
+        int singletons = 0;
 
-            Bitmap croppedY = scaledX;
-            if (scaledX.getHeight() > getHeight()) {
-                int yOffset = (scaledX.getHeight() - getHeight()) / 2;
-                croppedY = Bitmap.createBitmap(scaledX, 0, yOffset, scaledX.getWidth(), getHeight());
-            }
+        for (int i = 0; i < clusters; i++) {
+            float x = mClusters.getX(i);
+            float y = mClusters.getY(i);
 
-            return croppedY;
-        } else {
-            Bitmap scaledY;
-            if (ratio < 1) {
-                scaledY = Bitmap.createScaledBitmap(unscaled, (int) (getHeight() / ratio), getHeight(), false);
-            } else {
-                scaledY = Bitmap.createScaledBitmap(unscaled, (int) (getHeight() * ratio), getHeight(), false);
+            if (x < mVisibleLeft - margin || x > mVisibleRight + margin || y < mVisibleTop - margin
+                    || y > mVisibleBottom + margin) {
+                mCulledCount++;
+                continue;
             }
 
-            Bitmap croppedX = scaledY;
-            if (scaledY.getWidth() > getWidth()) {
-                int xOffset = (scaledY.getWidth() - getWidth()) / 2;
-                croppedX = Bitmap.createBitmap(scaledY, xOffset, 0, getWidth(), scaledY.getHeight());
+            int size = mClusters.getSize(i);
+            if (size == 1) {
+                mSingletons[singletons * 2] = viewport.toViewX(x);
+                mSingletons[singletons * 2 + 1] = viewport.toViewY(y);
+                singletons++;
+                continue;
             }
 
-            return croppedX;
+            // Larger clusters get slightly larger circles, within their cell
+            float radius = Math.min(baseRadius * (1 + 0.25f * (float) Math.log10(size)), maxRadius);
+            float viewX = viewport.toViewX(x);
+            float viewY = viewport.toViewY(y);
+            int length = formatClusterLabel(size);
+
+            canvas.drawCircle(viewX, viewY, radius, staticCirclePaint);
+            canvas.drawText(mClusterLabel, mClusterLabel.length - length, length, viewX, viewY + textOffset,
+                    clusterTextPaint);
+        }
+
+        if (singletons > 0) {
+            canvas.drawPoints(mSingletons, 0, singletons * 2, staticCirclePaint);
         }
     }
-    */
 
     /**
-     * Start animating the pathway. Should be used when getSelectPointsByTouching is false to start up the animation.
+     * Writes the digits of the given count at the end of mClusterLabel, without creating a String.
+     *
+     * @return the number of digits
      */
-    private void startAnimatingLines() {
-        mPoints.get(0).startAnimation();
-    }
+    private int formatClusterLabel(int count) {
+        int length = 0;
 
-    public ArrayList<AnimatedPoint> getPoints() {
-        return mPoints;
-    }
+        do {
+            mClusterLabel[mClusterLabel.length - ++length] = (char) ('0' + count % 10);
+            count /= 10;
+        } while (count > 0);
 
-    public ArrayList<AnimatedLine> getLines() {
-        return mLines;
+        return length;
     }
 
-    public boolean getSelectPointsByTouching() {
-        return mSelectPointsByTouching;
-    }
+    /**
+     * Selects the clusters of the current zoom. The levels of the lower zooms are merged from the one of the maximum
+     * zoom, the first time they are needed; that one is computed off the UI thread.
+     *
+     * @return false if the clusters are not computed yet, in which case the points are drawn as usual
+     */
+    private boolean selectClusters() {
+        if (mClusters == null) {
+            mClusters = createClusters();
+        }
 
-    public int getMaxPoints() {
-        return mMaxPoints;
+        int finest = mClusters.getFinestLevel();
+        if (finest < 0) {
+            computeClusters();
+            return false;
+        }
+
+        // Levels finer than the computed one would go over the points, so the computed one is used instead
+        int level = Math.min(PointClusters.getLevel(mViewport.getScale()), finest);
+        mClusterCount = mClusters.select(mRoute, level, finest);
+        return true;
     }
 
     /**
-     * This only works if getSelectPointsByTouching == true. After maxPoints have been chosen by the user, the
-     * animation starts and no other points can be inputted.
-     *
-     * @param mMaxPoints
+     * Clusters a copy of the points at the level of the maximum zoom on a background thread, unless it is already
+     * being done. Points appended afterwards are added to the clusters once they are delivered.
      */
-    public void setMaxPoints(int mMaxPoints) {
-        this.mMaxPoints = mMaxPoints;
+    private void computeClusters() {
+        if (mClustersPending) return;
+        mClustersPending = true;
+
+        final int generation = mClustersGeneration;
+        final PointClusters clusters = mClusters;
+        final int count = mRoute.size();
+        final float[] xs = Arrays.copyOf(mRoute.getXs(), count);
+        final float[] ys = Arrays.copyOf(mRoute.getYs(), count);
+        final int level = PointClusters.getLevel(mViewport.getMaxScale());
+
+        getSimplificationExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final PointClusters.Level first = clusters.computeLevel(xs, ys, count, level);
+
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mClustersGeneration) {
+                            clusters.setFirstLevel(first);
+                            mClustersPending = false;
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private PointClusters createClusters() {
+        PointClusters clusters = new PointClusters(dipToPx(mClusterSize));
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        if (cores > 1) {
+            clusters.setExecutor(getClusteringExecutor(cores), cores);
+        }
+
+        return clusters;
     }
 
     /**
-     * If the parameter of this method is true, the user will have to select the points dynamically by touching the
-     * view. Otherwise, the points must be set via setPoints or via XML.
-     *
-     * @param mSelectPointsByTouching
+     * @return the threads which cluster the points of large routes for all the views. The background thread
+     * computing the clusters waits for them, so they keep the default priority
      */
-    public void setSelectPointsByTouching(boolean mSelectPointsByTouching) {
-        this.mSelectPointsByTouching = mSelectPointsByTouching;
+    private static ExecutorService getClusteringExecutor(int threads) {
+        if (sClusteringExecutor == null) {
+            sClusteringExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "MapPointsView-clustering");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sClusteringExecutor;
     }
 
     /**
-     * Sets the points from the pathway. The pathway will be animated sequentially between the points of the array.
+     * Brings the cache of completed geometry up to date by drawing only the pathways (and their origin points) which
+     * have completed since the last frame. The cache is created lazily, once the view has a size.
      *
-     * @param mPoints
+     * @param completed number of pathways which have been fully animated
+     * @return false if the cache can not be used (yet)
      */
-    public void setPoints(ArrayList<AnimatedPoint> mPoints) {
-        this.mPoints = mPoints;
+    private boolean updateRouteCache(int completed) {
+        if (getWidth() <= 0 || getHeight() <= 0) return false;
 
-
-        // If the points have already been selected in a static manner, just describe how the path should be
-        // animated by setting the proper callbacks
-        for (AnimatedPoint p : mPoints) {
-            p.setCallback(getPointCallback(p));
+        if (mRouteCache == null) {
+            mRouteCache = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            mRouteCacheCanvas = new Canvas(mRouteCache);
+            mCachedSegments = 0;
         }
 
-        for (int i = 0; i < mPoints.size() - 1; i++) {
-            // Add a new pathway between the last 2 points
-            final AnimatedLine newLine = new AnimatedLine(mPoints.get(i),
-                    mPoints.get(i + 1));
-            mLines.add(newLine);
-            newLine.setCallback(getLineCallback(newLine));
+        if (completed < mCachedSegments) {
+            // The playback was restarted, so the cache contains pathways which should not be visible anymore
+            clearRouteCache();
         }
-    }
 
-    public void setLinePaint(Paint mLinePaint) {
-        this.linePaint = mLinePaint;
-    }
+        if (completed > mCachedSegments) {
+            int newSegments = completed - mCachedSegments;
 
-    public void setLineAnimationDuration(int mLineAnimationDuration) {
-        this.lineAnimationDuration = mLineAnimationDuration;
-    }
+            // Pathways first, so that the points are drawn on top of them
+            drawBatches(mRouteCacheCanvas, mViewport.mapSegments(mDrawBuffers.packSegments(mRoute, completed),
+                    completed), null, mCachedSegments, newSegments, false);
+            if (!mClusterPoints) {
+                drawBatches(mRouteCacheCanvas, mViewport.mapPoints(mDrawBuffers.packPoints(mRoute, completed),
+                        completed), null, mCachedSegments, newSegments, true);
+            }
 
-    public Paint getLinePaint() {
-        return this.linePaint;
+            mCachedSegments = completed;
+        }
+
+        return true;
     }
 
     /**
-     * Provides callbacks for the start and end of an animation.
+     * Erases the cache of completed geometry, e.g. because the points or the paints have changed.
      */
-    private interface AnimatedObjectCallback {
-
-        /**
-         * Called when the animation has started.
-         */
-        void animationStarted();
+    private void clearRouteCache() {
+        if (mRouteCache != null) {
+            mRouteCache.eraseColor(Color.TRANSPARENT);
+        }
 
-        /**
-         * Called when the animation has ended.
-         */
-        void animationEnded();
+        mCachedSegments = 0;
     }
 
     /**
-     * Simple representation of a point
+     * Drops the cache of completed geometry, e.g. because the size of the view has changed. It will be recreated
+     * lazily on the next frame.
      */
-    public class Point {
-        float X, Y;
-
-        public Point() {
-            this.X = 0;
-            this.Y = 0;
+    private void releaseRouteCache() {
+        if (mRouteCache != null) {
+            mRouteCache.recycle();
+            mRouteCache = null;
+            mRouteCacheCanvas = null;
         }
 
-        public Point(float X, float Y) {
-            this.X = X;
-            this.Y = Y;
+        mCachedSegments = 0;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        releaseRouteCache();
+        if (mViewport.setSize(w, h)) {
+            onViewportChanged();
         }
+        loadMapBackground();
     }
 
     /**
-     * A point on the pathway. The animation consists of a circle around the point that expands and becomes gradually
-     * transparent.
+     * Called by the {@link Choreographer} once per vsync while animations are running. The whole route is evaluated
+     * against this single frame time, after which the view is redrawn.
+     *
+     * @param frameTimeNanos
      */
-    public class AnimatedPoint extends Point {
-        // Alpha and diameter are animated in parallel, so an {@link AnimatorSet} is necessary
-        AnimatorSet mAnimatorSet;
-        ValueAnimator mAnimatorDiameter;
-        ValueAnimator mAnimatorAlpha;
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        mFrameDelayed = false;
 
-        // AnimatedCircle options
-        private Integer mDiameterInitial = animatedCircleSizeMin;
-        private Integer mDiameterExpanded = animatedCircleSizeMax;
-        private Integer mAlphaInitial = animatedCircleAlphaInitial;
-        private Integer mAlphaExpanded = animatedCircleAlphaExpanded;
-        private Integer mCircleAnimationDuration = animatedCircleAnimationDuration;
-        private Paint mStaticCirclePaint;
-        // The alpha value of this member is animated
-        Paint mAnimatedCirclePaint;
+        long frameTime = frameTimeNanos / NANOS_PER_MILLI;
+        boolean appended = drainStream(frameTime);
 
-        // This member is animated
-        int mCurrentDiameter;
+        if (mRouteWindow != null) {
+            // Evaluated on every frame, including the delayed ones which only fade or evict points
+            mTimeline.start(mRouteWindow);
+        }
 
-        AnimatedObjectCallback mCallback;
+        if (mTimeline.tick(frameTime)) {
+            scheduleFrame();
+        } else if (mRouteWindow != null) {
+            scheduleWindowChange(frameTime);
+        }
 
-        public AnimatedPoint(float X, float Y) {
-            super(X, Y);
+        // This already runs on the vsync, so the invalidation below is redrawn within the same frame. Only the part
+        // of the route which changed since the last frame is invalidated, not the whole background
+        // The stroke of the pathways and the fixed circles drawn at their ends may exceed the points themselves
+        // These are view pixels, while the region is computed in the coordinates of the route
+        float scale = mViewport.getScale();
+        float pointMargin = getPointMargin() / scale;
+        float pulseRadius = getPulseRadius() / scale;
+
+        // New points are drawn as soon as they arrive, wherever they are
+        if (!appended && mRouteWindow == null
+                && mDirtyRegion.update(mRoute, mRouteAnimation, pointMargin, pulseRadius)) {
+            invalidate((int) Math.floor(mViewport.toViewX(mDirtyRegion.getLeft())),
+                    (int) Math.floor(mViewport.toViewY(mDirtyRegion.getTop())),
+                    (int) Math.ceil(mViewport.toViewX(mDirtyRegion.getRight())),
+                    (int) Math.ceil(mViewport.toViewY(mDirtyRegion.getBottom())));
+        } else {
+            invalidate();
+        }
+    }
 
-            mAnimatorSet = new AnimatorSet();
+    /**
+     * Moves the points appended from other threads since the last frame into the route, and continues the playback
+     * over them.
+     *
+     * @param frameTime at which the points are considered to have arrived
+     * @return true if any point was appended
+     */
+    private boolean drainStream(long frameTime) {
+        // Cleared first, so that points offered while draining ask for another frame
+        mStreamFrameRequested.set(false);
 
-            initDiameterAnimator();
-            initAlphaAnimator();
+        int count = mCoalescer.coalesce(mStreamSamples, mStream.drainTo(mStreamSamples));
+        if (count == 0) return false;
 
-            mAnimatorSet.setDuration(mCircleAnimationDuration);
-            mAnimatorSet.playTogether(mAnimatorAlpha, mAnimatorDiameter);
+        float[] samples = mStreamSamples;
+        // A batch is animated as a single step: the pathways up to its last sample appear at once
+        boolean batch = mCoalescer.getPolicy() == PointCoalescer.POLICY_BATCH;
 
-            mStaticCirclePaint = new Paint();
-            mStaticCirclePaint.setAntiAlias(true);
-            mStaticCirclePaint.setColor(staticCircleColor);
+        if (mRouteWindow != null) {
+            for (int i = 0; i < count; i++) {
+                mRouteWindow.add(samples[i * 2], samples[i * 2 + 1], frameTime, !batch || i == count - 1);
+            }
 
-            mAnimatedCirclePaint = new Paint();
-            mAnimatedCirclePaint.setAntiAlias(true);
-            mAnimatedCirclePaint.setColor(animatedCircleColor);
+            // Evaluated right away, as the timeline was possibly idle
+            mRouteWindow.evaluate(frameTime);
+            animateRouteWindow();
+            return true;
         }
 
-        /**
-         * Sets up the way in which the circle that surrounds the point expands
-         */
-        private void initDiameterAnimator() {
-            // Animate between these two values
-            mAnimatorDiameter = ValueAnimator.ofInt(mDiameterInitial, mDiameterExpanded);
-            mAnimatorDiameter.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator valueAnimator) {
-                    if (mCurrentDiameter == mDiameterInitial)
-                        mCallback.animationStarted();
-
-                    // Animate the outer circle's diameter
-                    mCurrentDiameter = (int) valueAnimator.getAnimatedValue();
-
-                    if (mCurrentDiameter == mDiameterExpanded)
-                        mCallback.animationEnded();
-                }
-            });
+        // The instant pathways take no time in the schedule, so however many points a batch holds, it only delays
+        // the playback by one pathway
+        int previousCount = mRoute.size();
+        for (int i = 0; i < count; i++) {
+            mRoute.add(samples[i * 2], samples[i * 2 + 1], 0, !batch || i == count - 1);
         }
+        continuePlayback(previousCount);
 
-        /**
-         * Sets up the way in which the circle that surrounds the point changes its transparency
-         */
-        private void initAlphaAnimator() {
-            // Animate between these two values
-            mAnimatorAlpha = ValueAnimator.ofInt(mAlphaInitial, mAlphaExpanded);
-            mAnimatorAlpha.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+        mDirtyRegion.reset();
+        return true;
+    }
+
+    /**
+     * Continues the playback over the points appended to the route, starting it if it didn't start yet.
+     *
+     * @param previousCount number of points of the route before the new ones were appended
+     */
+    private void continuePlayback(int previousCount) {
+        mDrawBuffers.ensureCapacity(mRoute.size());
+
+        if (!mRouteAnimation.isStarted()) {
+            startAnimatingLines();
+            updatePlayback();
+        } else if (mRouteAnimation.onPointsAppended(previousCount)) {
+            if (canBeSeen()) {
+                mTimeline.start(mRouteAnimation);
+                scheduleFrame();
+            } else {
+                // Kept paused, so that updatePlayback() resumes it once the view can be seen
+                mRouteAnimation.pause();
+            }
+        }
+    }
+
+    /**
+     * @return how far the stroke of the pathways and the fixed circles drawn at their ends may exceed the points
+     * themselves, in view pixels
+     */
+    private float getPointMargin() {
+        return linePaint.getStrokeWidth() / 2 + animatedCircleSizeMin / 2f + 1;
+    }
+
+    /**
+     * @return the maximum radius of the animated circles, in view pixels
+     */
+    private float getPulseRadius() {
+        return Math.max(animatedCircleSizeMax, animatedCircleSizeMin) / 2f + 1;
+    }
+
+    /**
+     * Computes the part of the route which may be visible on this frame: the clip of the canvas, converted to the
+     * coordinates of the route and grown by the margin of the fixed points.
+     */
+    private void updateVisibleBounds(Canvas canvas) {
+        if (!canvas.getClipBounds(mClipBounds)) {
+            mClipBounds.set(0, 0, getWidth(), getHeight());
+        }
+
+        float margin = getPointMargin() / mViewport.getScale();
+        mVisibleLeft = mViewport.toContentX(mClipBounds.left) - margin;
+        mVisibleTop = mViewport.toContentY(mClipBounds.top) - margin;
+        mVisibleRight = mViewport.toContentX(mClipBounds.right) + margin;
+        mVisibleBottom = mViewport.toContentY(mClipBounds.bottom) + margin;
+    }
+
+    /**
+     * @return the level of detail to draw the completed pathways with at the current zoom, or -1 to draw every
+     * point
+     */
+    private int getDetailLevel() {
+        if (mDetailLevels == null || mRoute.size() < mDetailLevels.getPointCount()) return -1;
+
+        return mDetailLevels.getLevel(mSimplificationTolerance / mViewport.getScale());
+    }
+
+    /**
+     * Simplifies a copy of the points on a background thread. Until the levels are delivered, the route is drawn in
+     * full; points appended afterwards are drawn in full as well.
+     */
+    private void buildDetailLevels() {
+        final int generation = ++mDetailLevelsGeneration;
+        mDetailLevels = null;
+
+        final int count = mRoute.size();
+        if (mSimplificationTolerance <= 0 || count < SIMPLIFICATION_MIN_POINTS) return;
+
+        final float[] xs = Arrays.copyOf(mRoute.getXs(), count);
+        final float[] ys = Arrays.copyOf(mRoute.getYs(), count);
+        // Every level keeps the points where the style changes, so that simplified pathways have a single style
+        final int[] breaks = Arrays.copyOf(mRoute.getRunStarts(), mRoute.getRunCount());
+        // At the initial zoom, route coordinates are view pixels
+        final float tolerance = mSimplificationTolerance;
+
+        getSimplificationExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final DetailLevels levels = DetailLevels.build(xs, ys, count, tolerance, breaks,
+                        breaks.length);
+
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mDetailLevelsGeneration) {
+                            mDetailLevels = levels;
+                            invalidate();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the single low priority thread which simplifies the routes and computes the clusters of all the views
+     */
+    private static Executor getSimplificationExecutor() {
+        if (sSimplificationExecutor == null) {
+            sSimplificationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
                 @Override
-                public void onAnimationUpdate(ValueAnimator valueAnimator) {
-                    // Animate the Paint object's alpha value
-                    mAnimatedCirclePaint.setAlpha((int) valueAnimator.getAnimatedValue());
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "MapPointsView-simplification");
                 }
             });
         }
 
-        public void startAnimation() {
-            mAnimatorSet.start();
-        }
+        return sSimplificationExecutor;
+    }
 
-        public int getInitialDiameter() {
-            return mDiameterInitial;
+    /**
+     * Makes sure that the timeline gets ticked on the next vsync. Calling this multiple times before the frame
+     * arrives has no additional effect.
+     */
+    private void scheduleFrame() {
+        if (mFrameDelayed) {
+            // The window needs this frame sooner than the next step of its fading
+            cancelFrame();
         }
 
-        public int getCurrentDiameter() {
-            return mCurrentDiameter;
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
         }
+    }
 
-        public Paint getStaticPaint() {
-            return mStaticCirclePaint;
+    /**
+     * Removes the pending frame callback, if any.
+     */
+    private void cancelFrame() {
+        if (mFrameScheduled) {
+            mFrameScheduled = false;
+            mFrameDelayed = false;
+            Choreographer.getInstance().removeFrameCallback(this);
         }
+    }
+
+    /**
+     * Once the window stops growing and pulsing, its points only change when one of them gets to its next step of
+     * opacity or gets evicted. A single frame is scheduled for then, rather than one on every vsync.
+     *
+     * @param frameTime of the current frame, in milliseconds
+     */
+    private void scheduleWindowChange(long frameTime) {
+        long next = mRouteWindow.getNextChangeTime(WINDOW_FADE_STEPS);
+        if (next == Long.MAX_VALUE || mFrameScheduled || !canBeSeen()) return;
+
+        mFrameScheduled = true;
+        mFrameDelayed = true;
+        Choreographer.getInstance().postFrameCallbackDelayed(this, Math.max(next - frameTime, 0));
+    }
+
+    /**
+     * Pulls attributes from XML. When XML is used for defining the view, points can only be chosen dynamically by
+     * the user. Furthermore, point colors can not be different from each other.
+     */
+    private void pullAttributes(Context context, AttributeSet attrs) {
+        TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.MapPointsView);
+
+        // Try to pull out a value from XML. If there is no value there, stick to the one defined already
+        mMaxPoints = ta.getInt(R.styleable.MapPointsView_max_points, mMaxPoints);
+        mCacheCompletedRoute = ta.getBoolean(R.styleable.MapPointsView_cache_completed_route, mCacheCompletedRoute);
+
+        staticCircleColor = ta.getColor(R.styleable.MapPointsView_static_circle_color, staticCircleColor);
+        animatedCircleColor = ta.getColor(R.styleable.MapPointsView_animated_circle_color, animatedCircleColor);
+        animatedCircleSizeMin = ta.getInt(R.styleable.MapPointsView_animated_circle_size_min, animatedCircleSizeMin);
+        animatedCircleSizeMax = ta.getInt(R.styleable.MapPointsView_animated_circle_size_max, animatedCircleSizeMax);
+        animatedCircleAlphaInitial = ta.getInt(R.styleable.MapPointsView_animated_circle_alpha_initial,
+                animatedCircleAlphaInitial);
+        animatedCircleAlphaExpanded = ta.getInt(R.styleable.MapPointsView_animated_circle_alpha_initial,
+                animatedCircleAlphaExpanded);
+        animatedCircleAnimationDuration = ta.getInt(R.styleable.MapPointsView_animated_circle_animation_duration,
+                animatedCircleAnimationDuration);
+
+        lineColor = ta.getColor(R.styleable.MapPointsView_animated_line_color, lineColor);
+        lineThickness = ta.getFloat(R.styleable.MapPointsView_animated_line_thickness, lineThickness);
+        lineAnimationDuration = ta.getInteger(R.styleable.MapPointsView_animated_line_animation_duration,
+                lineAnimationDuration);
+        lineAnimationVelocity = ta.getFloat(R.styleable.MapPointsView_animated_line_velocity, lineAnimationVelocity);
+
+        mMapBackground = ta.getResourceId(R.styleable.MapPointsView_map_background, mMapBackground);
+        mMapBackgroundRgb565 = ta.getBoolean(R.styleable.MapPointsView_map_background_rgb_565, mMapBackgroundRgb565);
+        mMapBackgroundTiled = ta.getBoolean(R.styleable.MapPointsView_map_background_tiled, mMapBackgroundTiled);
+        mMapBackgroundDiskCache = ta.getBoolean(R.styleable.MapPointsView_map_background_disk_cache,
+                mMapBackgroundDiskCache);
+        mZoomable = ta.getBoolean(R.styleable.MapPointsView_zoomable, mZoomable);
+        float maxZoom = ta.getFloat(R.styleable.MapPointsView_max_zoom, 8);
+        mViewport.setScaleRange(1, maxZoom);
+        mTapTolerance = ta.getFloat(R.styleable.MapPointsView_tap_tolerance, mTapTolerance);
+        mSimplificationTolerance = ta.getFloat(R.styleable.MapPointsView_simplification_tolerance,
+                mSimplificationTolerance);
+        mClusterPoints = ta.getBoolean(R.styleable.MapPointsView_cluster_points, mClusterPoints);
+        mClusterSize = ta.getFloat(R.styleable.MapPointsView_cluster_size, mClusterSize);
+        mWindowMaxPoints = ta.getInt(R.styleable.MapPointsView_window_max_points, mWindowMaxPoints);
+        mWindowMaxAge = ta.getInt(R.styleable.MapPointsView_window_max_age, mWindowMaxAge);
+        mFreehandCapture = ta.getBoolean(R.styleable.MapPointsView_freehand_capture, mFreehandCapture);
+        mFreehandTolerance = ta.getFloat(R.styleable.MapPointsView_freehand_tolerance, mFreehandTolerance);
+        mCoalescer.setPolicy(ta.getInt(R.styleable.MapPointsView_ingestion_policy, mCoalescer.getPolicy()));
+        mDecimationDistance = ta.getFloat(R.styleable.MapPointsView_decimation_distance, mDecimationDistance);
+        mDecimationAngle = ta.getFloat(R.styleable.MapPointsView_decimation_angle, mDecimationAngle);
+
+        ta.recycle();
+    }
+
+    /**
+     * Sets up the members, as well as the animation of the pathway (to determine the precedence of animation between
+     * the pathways and points).
+     */
+    private void init() {
+        // The points and the position of the playback survive configuration changes, see onSaveInstanceState
+        setSaveEnabled(true);
 
-        public AnimatorSet getAnimatorSet() {
-            return mAnimatorSet;
+        mRoute = new RouteStore();
+        mRouteAnimation = new RouteAnimation(mRoute, lineAnimationDuration, animatedCircleAnimationDuration);
+        mRouteAnimation.setVelocity(lineAnimationVelocity * getResources().getDisplayMetrics().density);
+        mTimeline = new AnimationTimeline();
+        mDrawBuffers = new DrawBuffers();
+
+        linePaint = new Paint();
+        linePaint.setAntiAlias(true);
+        linePaint.setStrokeWidth(lineThickness);
+        linePaint.setColor(lineColor);
+
+        staticCirclePaint = new Paint();
+        staticCirclePaint.setAntiAlias(true);
+        staticCirclePaint.setColor(staticCircleColor);
+        staticCirclePaint.setStrokeCap(Paint.Cap.ROUND);
+        staticCirclePaint.setStrokeWidth(animatedCircleSizeMin);
+
+        animatedCirclePaint = new Paint();
+        animatedCirclePaint.setAntiAlias(true);
+        animatedCirclePaint.setColor(animatedCircleColor);
+
+        clusterTextPaint = new Paint();
+        clusterTextPaint.setAntiAlias(true);
+        clusterTextPaint.setColor(lineColor);
+        clusterTextPaint.setTextAlign(Paint.Align.CENTER);
+        clusterTextPaint.setTextSize(dipToPx(12));
+
+        mStyles = new StyleRegistry(new Style(lineColor, staticCircleColor, animatedCircleColor));
+        mStylePaints = new StylePaints(mStyles);
+        mStylePaints.setTemplates(linePaint, staticCirclePaint, animatedCirclePaint);
+
+        // At the initial zoom, route coordinates are view pixels
+        mCoalescer.setDistance(dipToPx(mDecimationDistance));
+        mCoalescer.setAngle(mDecimationAngle);
+
+        if (mWindowMaxPoints > 0) {
+            createRouteWindow();
         }
 
-        public void setCallback(AnimatedObjectCallback callback) {
-            this.mCallback = callback;
+        ScaleGestureDetector.OnScaleGestureListener scaleListener = new SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                if (mViewport.zoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY())) {
+                    onViewportChanged();
+                }
+                return true;
+            }
+        };
+        mScaleDetector = new ScaleGestureDetector(getContext(), scaleListener);
+
+        mGestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                // Propagate the event to the end of the gesture
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (mZoomable && mViewport.pan(-distanceX, -distanceY)) {
+                    onViewportChanged();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                if (mOnRouteTapListener != null && dispatchRouteTap(e.getX(), e.getY())) return true;
+
+                if (mSelectPointsByTouching) {
+                    addTouchedPoint(e.getX(), e.getY());
+                }
+                return true;
+            }
+        });
+
+        this.setOnTouchListener(new OnTouchListener() {
+            @Override
+            public boolean onTouch(View view, MotionEvent motionEvent) {
+                if (!mSelectPointsByTouching && !mZoomable && mOnRouteTapListener == null) return false;
+
+                if (mZoomable) {
+                    mScaleDetector.onTouchEvent(motionEvent);
+                }
+
+                // Dragging draws instead of panning, while pinching still zooms
+                if (mFreehandCapture && mSelectPointsByTouching) {
+                    captureFreehand(motionEvent);
+                } else if (!mScaleDetector.isInProgress()) {
+                    // A pinch is not a tap nor a pan
+                    mGestureDetector.onTouchEvent(motionEvent);
+                }
+
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Feeds the samples of a freehand stroke to the simplifier, appending the points it keeps to the route. Move
+     * events carry every sample since the previous event as history, which is replayed in order before the latest
+     * one.
+     */
+    private void captureFreehand(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // The tolerance is in view pixels, whatever the zoom
+                mStroke.setTolerance(dipToPx(mFreehandTolerance) / mViewport.getScale());
+                if (mStroke.begin(mViewport.toContentX(event.getX()), mViewport.toContentY(event.getY()))) {
+                    addCapturedPoint(mStroke.getKeyX(), mStroke.getKeyY());
+                }
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (!mStroke.isCapturing()) break;
+
+                for (int h = 0; h < event.getHistorySize(); h++) {
+                    addStrokeSample(event.getHistoricalX(h), event.getHistoricalY(h));
+                }
+                addStrokeSample(event.getX(), event.getY());
+                break;
+            case MotionEvent.ACTION_UP:
+                addStrokeSample(event.getX(), event.getY());
+                endStroke();
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                // A second finger starts a pinch, which ends the stroke
+            case MotionEvent.ACTION_CANCEL:
+                endStroke();
+                break;
         }
 
-        public int getCircleAlphaExpanded() {
-            return mAlphaExpanded;
+        postInvalidateOnAnimation();
+    }
+
+    private void addStrokeSample(float x, float y) {
+        if (mStroke.add(mViewport.toContentX(x), mViewport.toContentY(y))) {
+            addCapturedPoint(mStroke.getKeyX(), mStroke.getKeyY());
         }
+    }
 
-        public void setCircleAlphaExpanded(int mAlphaExpanded) {
-            this.mAlphaExpanded = mAlphaExpanded;
+    private void endStroke() {
+        if (mStroke.end()) {
+            addCapturedPoint(mStroke.getKeyX(), mStroke.getKeyY());
         }
+    }
 
-        public int getCircleAlphaInitial() {
-            return mAlphaInitial;
+    /**
+     * Appends a point kept from a freehand stroke, which the playback then animates like any other point.
+     *
+     * @param x in route coordinates
+     * @param y in route coordinates
+     */
+    private void addCapturedPoint(float x, float y) {
+        if (mRouteWindow != null) {
+            mRouteWindow.add(x, y, System.nanoTime() / NANOS_PER_MILLI);
+            animateRouteWindow();
+            return;
         }
 
-        public void setCircleAlphaInitial(int mAlphaInitial) {
-            this.mAlphaInitial = mAlphaInitial;
+        int previousCount = mRoute.size();
+        mRoute.add(x, y);
+        continuePlayback(previousCount);
+        mDirtyRegion.reset();
+    }
+
+    /**
+     * While a freehand stroke is being drawn, draws its part which has no point yet, from the last point kept to the
+     * finger.
+     */
+    private void drawStrokePreview(Canvas canvas) {
+        if (!mStroke.isCapturing()) return;
+
+        canvas.drawLine(mViewport.toViewX(mStroke.getKeyX()), mViewport.toViewY(mStroke.getKeyY()),
+                mViewport.toViewX(mStroke.getLastX()), mViewport.toViewY(mStroke.getLastY()), linePaint);
+    }
+
+    /**
+     * Adds a point where the view was tapped, unless the maximum number of points is reached.
+     *
+     * @param x in view coordinates
+     * @param y in view coordinates
+     */
+    private void addTouchedPoint(float x, float y) {
+        if (mRouteWindow != null) {
+            // The window is bounded anyway, so points can be added for as long as the user wants
+            mRouteWindow.add(mViewport.toContentX(x), mViewport.toContentY(y), System.nanoTime() / NANOS_PER_MILLI);
+            animateRouteWindow();
+            postInvalidateOnAnimation();
+            return;
         }
 
-        public int getCircleDiameterExpanded() {
-            return mDiameterExpanded;
+        // Don't allow the input of new points after the maximum defined number is reached
+        if (mRoute.size() >= mMaxPoints) return;
+
+        mRoute.add(mViewport.toContentX(x), mViewport.toContentY(y));
+        mDrawBuffers.ensureCapacity(mRoute.size());
+
+        if (mRoute.size() == mMaxPoints) {
+            startAnimatingLines();
         }
 
-        public void setCircleDiameterExpanded(int mDiameterExpanded) {
-            this.mDiameterExpanded = mDiameterExpanded;
+        // New points were added, an animation might have been started. Time to redraw the view to reflect these
+        // changes!
+        postInvalidateOnAnimation();
+    }
+
+    /**
+     * Lets the listener handle a tap on an existing point or, failing that, on a pathway.
+     *
+     * @return true if the listener handled the tap
+     */
+    private boolean dispatchRouteTap(float x, float y) {
+        int point = findPointAt(x, y);
+        if (point >= 0 && mOnRouteTapListener.onPointTapped(this, point)) return true;
+
+        int pathway = findPathwayAt(x, y);
+        return pathway >= 0 && mOnRouteTapListener.onPathwayTapped(this, pathway);
+    }
+
+    /**
+     * Called whenever the zoom or the pan changed. Whatever was computed in view coordinates is out of date.
+     */
+    private void onViewportChanged() {
+        clearRouteCache();
+        mDirtyRegion.reset();
+        updateTiledBackgroundMatrix();
+
+        postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+
+        updatePlayback();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+
+        updatePlayback();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        mAttached = true;
+        getContext().registerComponentCallbacks(mMemoryCallbacks);
+        updatePlayback();
+
+        if (mMapBackgroundBitmap == null && mTiledBackground == null) {
+            loadMapBackground();
         }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mAttached = false;
+        updatePlayback();
+
+        // Nothing will be drawn until the view gets attached again, at which point the cache is recreated lazily
+        getContext().unregisterComponentCallbacks(mMemoryCallbacks);
+        releaseRouteCache();
+        releaseMapBackground();
+
+        super.onDetachedFromWindow();
+    }
 
-        public int getCircleDiameterInitial() {
-            return mDiameterInitial;
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        state.points = mRoute.toPackedArray();
+        state.styleRuns = mRoute.toPackedRuns();
+        // Without them, the saved time would land on an earlier point of the restored route
+        state.instantRuns = mRoute.toPackedInstantRuns();
+        state.styles = mStyles.toPackedArray();
+        state.elapsed = mRouteAnimation.getElapsed();
+        state.started = mRouteAnimation.isStarted();
+        state.playing = mRouteAnimation.isRunning() || mRouteAnimation.isPaused();
+
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable parcelable) {
+        if (!(parcelable instanceof SavedState)) {
+            super.onRestoreInstanceState(parcelable);
+            return;
         }
 
-        public void setCircleDiameterInitial(int mDiameterInitial) {
-            this.mDiameterInitial = mDiameterInitial;
+        SavedState state = (SavedState) parcelable;
+        super.onRestoreInstanceState(state.getSuperState());
+
+        mRoute.setPacked(state.points);
+        mCoalescer.reset();
+        mStyles.addPacked(state.styles);
+        mRoute.setPackedRuns(state.styleRuns);
+        mRoute.setPackedInstantRuns(state.instantRuns);
+        mRouteAnimation.reset();
+        mDrawBuffers.invalidate();
+        mDrawBuffers.ensureCapacity(mRoute.size());
+        mViewport.invalidate();
+        mCuller.invalidate();
+        // Indexed right away rather than on the first tap, so that taps are answered without delay
+        mRouteIndex.clear();
+        mRouteIndex.update(mRoute);
+        buildDetailLevels();
+        clearClusters();
+        clearRouteCache();
+        mDirtyRegion.reset();
+
+        if (state.playing) {
+            // Continue from the saved position, without replaying what comes before it. The playback is paused
+            // first so that it only resumes once the view can be seen
+            mRouteAnimation.startAt(state.elapsed);
+            mRouteAnimation.pause();
+            updatePlayback();
+        } else if (state.started) {
+            mRouteAnimation.seekTo(state.elapsed);
         }
 
-        public int getCircleAnimationDuration() {
-            return mCircleAnimationDuration;
+        invalidate();
+    }
+
+    /**
+     * State of the view saved across configuration changes. The points are kept in one primitive array of
+     * interleaved coordinates, so a whole route is written with a single call instead of one object per point.
+     */
+    static class SavedState extends BaseSavedState {
+        float[] points;
+        int[] styleRuns;
+        int[] instantRuns;
+        int[] styles;
+        long elapsed;
+        boolean started;
+        boolean playing;
+
+        SavedState(Parcelable superState) {
+            super(superState);
         }
 
-        public void setCircleAnimationDuration(int mCircleAnimationDuration) {
-            this.mCircleAnimationDuration = mCircleAnimationDuration;
+        private SavedState(Parcel in) {
+            super(in);
+            points = in.createFloatArray();
+            styleRuns = in.createIntArray();
+            instantRuns = in.createIntArray();
+            styles = in.createIntArray();
+            elapsed = in.readLong();
+            started = in.readInt() != 0;
+            playing = in.readInt() != 0;
         }
 
-        public void setStaticCirclePaint(Paint mStaticCirclePaint) {
-            this.mStaticCirclePaint = mStaticCirclePaint;
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeFloatArray(points);
+            out.writeIntArray(styleRuns);
+            out.writeIntArray(instantRuns);
+            out.writeIntArray(styles);
+            out.writeLong(elapsed);
+            out.writeInt(started ? 1 : 0);
+            out.writeInt(playing ? 1 : 0);
         }
 
-        public Paint getAnimatedCirclePaint() {
-            return mAnimatedCirclePaint;
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    /**
+     * Pauses the playback when the view can't be seen (detached, hidden, or its window is hidden) and resumes it
+     * exactly where it left off once it can be seen again. While paused, no frame callback is pending, so the view
+     * neither gets invalidated nor stays referenced by the {@link Choreographer}.
+     */
+    private void updatePlayback() {
+        boolean visible = canBeSeen();
+
+        if (!visible) {
+            mRouteAnimation.pause();
+            cancelFrame();
+        } else if (mRouteAnimation.isPaused()) {
+            mRouteAnimation.resume();
+            mTimeline.start(mRouteAnimation);
+            scheduleFrame();
+        } else if (!mSelectPointsByTouching && !mRouteAnimation.isStarted()) {
+            // If the the points were not chosen dynamically by the user by touching, animate the path automatically
+            // when the view becomes visible
+            startAnimatingLines();
         }
 
-        public void setAnimatedCirclePaint(Paint mAnimatedCirclePaint) {
-            this.mAnimatedCirclePaint = mAnimatedCirclePaint;
+        // Points appended while hidden wait in the queue, whose frame may have been cancelled. The window keeps
+        // its own time, so it simply continues on the next frame
+        if (visible && (mStream.size() > 0 || mTimeline.isRunning() || mRouteWindow != null)) {
+            scheduleFrame();
         }
     }
 
     /**
-     * A line on the pathway. The animation consists of a line that starts off from just one pixel and gradually
-     * grows until it links 2 {@link net.ghetu.customviews.MapPointsView.AnimatedPoint}s.
+     * @return true if the view is attached, shown and in a visible window
      */
-    private class AnimatedLine {
-        /**
-         * Origin of the line
-         */
-        AnimatedPoint mOrigin;
+    private boolean canBeSeen() {
+        return mAttached && getWindowVisibility() == View.VISIBLE && isShown();
+    }
 
-        /**
-         * Destination of the line
-         */
-        AnimatedPoint mDestination;
+    /**
+     * Releases whatever can be recreated later: the cache of completed pathways and the draw buffers.
+     */
+    private void releaseMemory() {
+        releaseRouteCache();
+        mDrawBuffers.release();
+        mViewport.release();
+        mCuller.release();
+
+        if (mDetailLevels != null) {
+            mDetailLevels.release();
+        }
 
-        /**
-         * Current point in the animation. This point coincides with the origin at the beginning of the animation. By
-         * the end of the animation, it coincides with the destination. If the animation has started, while the view
-         * gets drawn again and again, the line will appear to grow from just one point (in the beginning) to a full
-         * line from origin to destination (in the end)
-         */
-        Point mCurrentPoint;
-        private ValueAnimator mAnimator;
+        clearClusters();
+    }
 
-        AnimatedObjectCallback mCallback;
+    /**
+     * Forgets the clusters, e.g. because the points were replaced. They are computed again when drawn.
+     */
+    private void clearClusters() {
+        mClustersGeneration++;
+        mClustersPending = false;
 
-        public AnimatedLine(AnimatedPoint origin, AnimatedPoint destination) {
-            this.mOrigin = origin;
-            this.mDestination = destination;
+        if (mClusters != null) {
+            mClusters.clear();
+        }
+    }
 
-            mCurrentPoint = new Point(mOrigin.X, mOrigin.Y);
+    /**
+     * Requests the background image at the size of the content of the view. Nothing happens until the view has been
+     * measured.
+     */
+    private void loadMapBackground() {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
 
-            initAnimator();
+        if (mMapBackground == 0) return;
 
-            linePaint = new Paint();
-            linePaint.setAntiAlias(true);
-            linePaint.setStrokeWidth(lineThickness);
-            linePaint.setColor(lineColor);
+        if (mMapBackgroundTiled) {
+            loadTiledBackground();
+            return;
         }
 
-        private void initAnimator() {
-            mAnimator = ValueAnimator.ofFloat(mOrigin.X, mDestination.X);
-            mAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator valueAnimator) {
-                    // If the X value of mCurrentPoint equals the one of mOrigin, then the animation has just begun
-                    if (mCurrentPoint.X == mOrigin.X) mCallback.animationStarted();
+        if (width <= 0 || height <= 0) return;
 
-                    mCurrentPoint.X = (float) valueAnimator.getAnimatedValue();
-                    mCurrentPoint.Y = computeYCoordinate(mCurrentPoint.X);
+        BackgroundLoader loader = BackgroundLoader.getInstance();
+        loader.cancel(mBackgroundCallback);
+        loader.load(getResources(), mMapBackground, width, height, mMapBackgroundRgb565, mBackgroundCallback);
+    }
 
-                    // If the X value of mCurrentPoint equals the one of mDestination, then the animation finished
-                    if (mCurrentPoint.X == mDestination.X) mCallback.animationEnded();
-                }
-            });
+    private void showMapBackground(Bitmap bitmap) {
+        Bitmap previous = mMapBackgroundBitmap;
 
-            mAnimator.setInterpolator(new LinearInterpolator());
-            mAnimator.setDuration(lineAnimationDuration);
-        }
+        mMapBackgroundBitmap = bitmap;
+        setImageBitmap(bitmap);
 
-        /**
-         * While the X value of the animated extremity of line varies between the origin's and the destination's, the
-         * Y value can be calculated using the two-point form of the equation of a straight line. This function
-         * returns the Y value for a given X value.
-         *
-         * @param X
-         * @return
-         */
-        public float computeYCoordinate(float X) {
-            // Line equation (x - xOrigin) / (xDestination - xOrigin) = (y - yOrigin) / (yDestination - yOrigin)
-            return ((mDestination.Y - mOrigin.Y) * (X - mOrigin.X) + mOrigin.Y * mDestination.X - mOrigin.Y * mOrigin
-                    .X) / (mDestination.X - mOrigin.X);
+        // Every load acquires the bitmap, even if the same one is shown again
+        if (previous != null) {
+            BackgroundLoader.getInstance().release(previous);
         }
+    }
 
-        public void startAnimation() {
-            mAnimator.start();
-        }
+    /**
+     * Opens the tiled background if needed. Tiles are only requested when drawing.
+     */
+    private void loadTiledBackground() {
+        if (mTiledBackground == null) {
+            File diskCache = null;
+            String diskCacheKey = null;
+
+            // Resource ids are only stable within a build: the tiles are stored under the name of the resource, and
+            // dropped whenever the app is updated. Tiles decoded with another config are kept apart
+            if (mMapBackgroundDiskCache) {
+                try {
+                    Context context = getContext();
+                    diskCacheKey = String.valueOf(context.getPackageManager()
+                            .getPackageInfo(context.getPackageName(), 0).lastUpdateTime);
+
+                    String name = "tiles/" + getResources().getResourceEntryName(mMapBackground)
+                            + (mMapBackgroundRgb565 ? "_565" : "");
+                    diskCache = new File(context.getCacheDir(), name);
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.w(TAG, "Could not find when the app was updated, the background tiles are not stored", e);
+                }
+            }
+
+            int memoryBudget = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
 
-        public void setCallback(AnimatedObjectCallback callback) {
-            this.mCallback = callback;
+            mTiledBackground = new TiledBackground(getResources(), mMapBackground, BACKGROUND_TILE_SIZE, memoryBudget,
+                    mMapBackgroundRgb565, diskCache, diskCacheKey, mTiledBackgroundListener);
         }
 
+        updateTiledBackgroundMatrix();
+    }
+
+    /**
+     * Scales the tiled image so that it fills the content of the view, cropping whatever exceeds it (like the
+     * CENTER_CROP scale type).
+     */
+    private void updateTiledBackgroundMatrix() {
+        if (mTiledBackground == null || !mTiledBackground.isOpened()) return;
+
+        float imageWidth = mTiledBackground.getImageWidth();
+        float imageHeight = mTiledBackground.getImageHeight();
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float scale = Math.max(width / imageWidth, height / imageHeight);
+
+        mTiledBackgroundMatrix.setScale(scale, scale);
+        mTiledBackgroundMatrix.postTranslate(getPaddingLeft() + (width - imageWidth * scale) / 2,
+                getPaddingTop() + (height - imageHeight * scale) / 2);
 
-        public AnimatedPoint getOrigin() {
-            return mOrigin;
+        mTiledBackgroundDrawMatrix.set(mTiledBackgroundMatrix);
+        mTiledBackgroundDrawMatrix.postConcat(mViewport.getMatrix());
+    }
+
+    private void releaseMapBackground() {
+        if (mTiledBackground != null) {
+            mTiledBackground.release();
+            mTiledBackground = null;
         }
 
-        public Paint getPaint() {
-            return linePaint;
+        BackgroundLoader loader = BackgroundLoader.getInstance();
+        loader.cancel(mBackgroundCallback);
+
+        if (mMapBackgroundBitmap != null) {
+            setImageDrawable(null);
+            loader.release(mMapBackgroundBitmap);
+            mMapBackgroundBitmap = null;
         }
+    }
 
-        public Point getCurrentPoint() {
-            return mCurrentPoint;
+    /**
+     * Makes the window of the route advance with the frames, as long as it changes and the view can be seen.
+     */
+    private void animateRouteWindow() {
+        mTimeline.start(mRouteWindow);
+
+        if (canBeSeen()) {
+            scheduleFrame();
         }
+    }
+
+    /**
+     * Start animating the pathway. Should be used when getSelectPointsByTouching is false to start up the animation.
+     */
+    private void startAnimatingLines() {
+        if (mRoute.isEmpty()) return;
+
+        mRouteAnimation.start();
+        mTimeline.start(mRouteAnimation);
+        scheduleFrame();
+    }
+
+    /**
+     * Jumps to the given position of the playback and shows the route as it is at that time: the pathways drawn so
+     * far, the partially grown one and the pulsing circles. If the route is being animated, the animation continues
+     * from there; otherwise the route stays at that position, which allows scrubbing it with a slider.
+     *
+     * @param time since the start of the playback, in milliseconds
+     */
+    public void seekTo(long time) {
+        mRouteAnimation.seekTo(time);
+        onPlaybackJumped();
+    }
 
-        public ValueAnimator getAnimator() {
-            return mAnimator;
+    /**
+     * Jumps to the given fraction of the whole playback. See {@link #seekTo(long)}.
+     *
+     * @param progress between 0 (first point) and 1 (the end of the animation of the last point)
+     */
+    public void setProgress(float progress) {
+        mRouteAnimation.setProgress(progress);
+        onPlaybackJumped();
+    }
+
+    /**
+     * @return how far the playback got, between 0 and 1
+     */
+    public float getProgress() {
+        return mRouteAnimation.getProgress();
+    }
+
+    /**
+     * @return the duration of the whole playback in milliseconds
+     */
+    public long getDuration() {
+        return (long) Math.ceil(mRouteAnimation.getDuration());
+    }
+
+    /**
+     * The route may look completely different after a seek, so the whole view is redrawn once.
+     */
+    private void onPlaybackJumped() {
+        mDirtyRegion.reset();
+
+        if (mRouteAnimation.isRunning()) {
+            scheduleFrame();
+        }
+
+        postInvalidateOnAnimation();
+    }
+
+    /**
+     * @return the points of the pathway, stored as primitive coordinate arrays
+     */
+    public RouteStore getRoute() {
+        return mRoute;
+    }
+
+    public boolean getSelectPointsByTouching() {
+        return mSelectPointsByTouching;
+    }
+
+    public int getMaxPoints() {
+        return mMaxPoints;
+    }
+
+    /**
+     * This only works if getSelectPointsByTouching == true. After maxPoints have been chosen by the user, the
+     * animation starts and no other points can be inputted.
+     *
+     * @param mMaxPoints
+     */
+    public void setMaxPoints(int mMaxPoints) {
+        this.mMaxPoints = mMaxPoints;
+    }
+
+    public boolean getFreehandCapture() {
+        return mFreehandCapture;
+    }
+
+    /**
+     * If true, and points are selected by touching, the route is drawn freehand: dragging a finger appends points
+     * along its path, as they are captured, instead of one point per tap. Every sample of the move events is used,
+     * and simplified as it arrives so that only the points needed to follow the drag within
+     * {@link #setFreehandTolerance(float)} are kept. Dragging then no longer pans the map nor reports taps, and the
+     * maximum number of points doesn't apply.
+     *
+     * @param freehandCapture
+     */
+    public void setFreehandCapture(boolean freehandCapture) {
+        mFreehandCapture = freehandCapture;
+        if (!freehandCapture) {
+            endStroke();
+        }
+    }
+
+    public float getFreehandTolerance() {
+        return mFreehandTolerance;
+    }
+
+    /**
+     * @param freehandTolerance in dp, how far the points kept from a freehand stroke may stray from the finger
+     */
+    public void setFreehandTolerance(float freehandTolerance) {
+        mFreehandTolerance = freehandTolerance;
+    }
+
+    /**
+     * If the parameter of this method is true, the user will have to select the points dynamically by touching the
+     * view. Otherwise, the points must be set via setPoints or via XML.
+     *
+     * @param mSelectPointsByTouching
+     */
+    public void setSelectPointsByTouching(boolean mSelectPointsByTouching) {
+        this.mSelectPointsByTouching = mSelectPointsByTouching;
+    }
+
+    /**
+     * Sets the points from the pathway. The pathway will be animated sequentially between the points of the arrays.
+     * The coordinates are copied into the view's {@link RouteStore}; no object is created per point.
+     *
+     * @param xs X offsets of the points
+     * @param ys Y offsets of the points, must have the same length as xs
+     */
+    public void setPoints(float[] xs, float[] ys) {
+        if (mRouteWindow != null) {
+            appendToRouteWindow(xs, ys);
+            return;
+        }
+
+        mRoute.set(xs, ys);
+        onPointsReplaced();
+    }
+
+    /**
+     * Sets the points from the pathway, along with their styles. Each point is drawn with the colors of its style,
+     * as well as the pathway leaving it.
+     *
+     * @param xs     X offsets of the points
+     * @param ys     Y offsets of the points, must have the same length as xs
+     * @param styles ids returned by {@link #registerStyle(int, int, int)}, must have the same length as xs
+     */
+    public void setPoints(float[] xs, float[] ys, int[] styles) {
+        for (int style : styles) {
+            if (style < 0 || style >= mStyles.size()) {
+                throw new IllegalArgumentException("Unknown style " + style);
+            }
+        }
+
+        if (mRouteWindow != null) {
+            appendToRouteWindow(xs, ys);
+            return;
+        }
+
+        mRoute.set(xs, ys, styles);
+        onPointsReplaced();
+    }
+
+    /**
+     * <p>
+     * Only keeps the latest points of the route, for routes which grow forever such as an always-on tracking
+     * screen. The points are kept in a ring of fixed size: appending a point evicts the oldest one in O(1) once the
+     * window is full, and with a maximum age, points are also evicted once they got too old. The oldest pathways
+     * and points fade out before being evicted, and new points are animated as they arrive.
+     * </p>
+     * <p>
+     * Memory and the cost of a frame are bounded by the size of the window, however long the route runs. Points
+     * given by {@link #setPoints(float[], float[])}, touched, or appended with {@link #appendPoint(float, float)}
+     * all go into the window, and the points of the route so far are carried over into it. Within a window, the
+     * pathways are timed with the line animation duration, drawn with the default style, and are not saved with
+     * the state of the view.
+     * </p>
+     *
+     * @param maxPoints number of points kept at most, or 0 to go back to keeping the whole route
+     * @param maxAge    in milliseconds, how long a point is kept after it was reached, or 0 for no limit
+     */
+    public void setRouteWindow(int maxPoints, int maxAge) {
+        mWindowMaxPoints = maxPoints;
+        mWindowMaxAge = maxAge;
+        createRouteWindow();
+    }
+
+    public int getRouteWindowMaxPoints() {
+        return mWindowMaxPoints;
+    }
+
+    public int getRouteWindowMaxAge() {
+        return mWindowMaxAge;
+    }
+
+    /**
+     * Replaces the window with one of the current size, carrying the points over from the previous window or from
+     * the route.
+     */
+    private void createRouteWindow() {
+        RouteWindow previous = mRouteWindow;
+        mRouteWindow = null;
+
+        if (mWindowMaxPoints < 2) {
+            mWindowSegments = null;
+            mWindowPoints = null;
+
+            // Without a window, the route starts from the latest points the window kept
+            if (previous != null) {
+                float[] xs = new float[previous.size()];
+                float[] ys = new float[previous.size()];
+                for (int i = 0; i < xs.length; i++) {
+                    xs[i] = previous.getX(i);
+                    ys[i] = previous.getY(i);
+                }
+                setPoints(xs, ys);
+            }
+
+            invalidate();
+            return;
+        }
+
+        mCoalescer.reset();
+        RouteWindow window = new RouteWindow(mWindowMaxPoints, mWindowMaxAge, lineAnimationDuration,
+                animatedCircleAnimationDuration);
+        mWindowSegments = new float[(mWindowMaxPoints - 1) * 4];
+        mWindowPoints = new float[mWindowMaxPoints * 2];
+
+        int count = previous != null ? previous.size() : mRoute.size();
+        long now = System.nanoTime() / NANOS_PER_MILLI;
+        // Dated so that the points carried over were all reached already, rather than played back again
+        long time = now - (long) lineAnimationDuration * count - animatedCircleAnimationDuration;
+
+        for (int i = 0; i < count; i++) {
+            if (previous != null) {
+                window.add(previous.getX(i), previous.getY(i), time);
+            } else {
+                window.add(mRoute.getX(i), mRoute.getY(i), time);
+            }
+        }
+
+        if (previous == null && count > 0) {
+            mRoute.clear();
+            onPointsReplaced();
+        }
+
+        mRouteWindow = window;
+        window.evaluate(now);
+        animateRouteWindow();
+        invalidate();
+    }
+
+    /**
+     * Appends points to the window, animated one after the other.
+     */
+    private void appendToRouteWindow(float[] xs, float[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Points need both coordinates");
+        }
+
+        long now = System.nanoTime() / NANOS_PER_MILLI;
+        for (int i = 0; i < xs.length; i++) {
+            mRouteWindow.add(xs[i], ys[i], now);
+        }
+
+        animateRouteWindow();
+        invalidate();
+    }
+
+    /**
+     * <p>
+     * Appends a point to the route, e.g. from a live location feed. Unlike the other methods of the view, this one
+     * can be called from any thread, as long as it is a single thread at a time (along with
+     * {@link #appendPoints(float[])}). It only stores the coordinates into a lock-free queue; the UI thread moves
+     * them into the route on the next frame, and the pathway grows towards the new point from there.
+     * </p>
+     * <p>
+     * Up to {@value #STREAM_CAPACITY} points can wait for the next frame; beyond that, points are refused. While
+     * the view can't be seen, no frame runs: the points wait until it can be seen again. The points of a frame may
+     * also be coalesced, see {@link #setIngestionPolicy(int)}.
+     * </p>
+     *
+     * @param x X offset of the point
+     * @param y Y offset of the point
+     * @return false if the point was refused because too many points are waiting
+     */
+    public boolean appendPoint(float x, float y) {
+        boolean accepted = mStream.offer(x, y);
+        requestStreamFrame();
+        return accepted;
+    }
+
+    /**
+     * Appends points to the route, as {@link #appendPoint(float, float)} does for a single one.
+     *
+     * @param points X and Y offsets of the points, interleaved
+     * @return the number of points appended, fewer than given if too many points are waiting
+     */
+    public int appendPoints(float[] points) {
+        int accepted = mStream.offer(points, 0, points.length / 2);
+        requestStreamFrame();
+        return accepted;
+    }
+
+    /**
+     * Sets how the points appended with {@link #appendPoint(float, float)} are coalesced, once per frame, when they
+     * arrive faster than they can be animated:
+     * <ul>
+     * <li>{@link PointCoalescer#POLICY_ALL} (the default) appends every point;</li>
+     * <li>{@link PointCoalescer#POLICY_LATEST} only appends the latest point of each frame;</li>
+     * <li>{@link PointCoalescer#POLICY_DISTANCE} only appends a point once it is at least
+     * {@link #setDecimationDistance(float)} away from the last one appended;</li>
+     * <li>{@link PointCoalescer#POLICY_ANGLE} only appends the points where the route turns by at least
+     * {@link #setDecimationAngle(float)}, and the latest point of each frame;</li>
+     * <li>{@link PointCoalescer#POLICY_BATCH} appends every point, but animates the points of a frame as a single
+     * step.</li>
+     * </ul>
+     * The points left out are reported by {@link #getDroppedPointCount()} and {@link #getMergedPointCount()}.
+     *
+     * @param policy one of the POLICY_ constants of {@link PointCoalescer}
+     */
+    public void setIngestionPolicy(int policy) {
+        mCoalescer.setPolicy(policy);
+    }
+
+    public int getIngestionPolicy() {
+        return mCoalescer.getPolicy();
+    }
+
+    public float getDecimationDistance() {
+        return mDecimationDistance;
+    }
+
+    /**
+     * @param decimationDistance in dp, minimum distance between appended points with
+     *                           {@link PointCoalescer#POLICY_DISTANCE}
+     */
+    public void setDecimationDistance(float decimationDistance) {
+        mDecimationDistance = decimationDistance;
+        mCoalescer.setDistance(dipToPx(decimationDistance));
+    }
+
+    public float getDecimationAngle() {
+        return mDecimationAngle;
+    }
+
+    /**
+     * @param decimationAngle in degrees, minimum turn for a point to be appended with
+     *                        {@link PointCoalescer#POLICY_ANGLE}
+     */
+    public void setDecimationAngle(float decimationAngle) {
+        mDecimationAngle = decimationAngle;
+        mCoalescer.setAngle(decimationAngle);
+    }
+
+    /**
+     * @return the number of appended points which were dropped so far: refused because too many points were waiting
+     * for the next frame, or left out by {@link PointCoalescer#POLICY_LATEST}. Must be called from the UI thread
+     */
+    public long getDroppedPointCount() {
+        return mStream.getRefusedCount() + mCoalescer.getDroppedCount();
+    }
+
+    /**
+     * @return the number of appended points which were merged so far: left out by the decimating policies, or
+     * animated along with the other points of their frame by {@link PointCoalescer#POLICY_BATCH}. Must be called
+     * from the UI thread
+     */
+    public long getMergedPointCount() {
+        return mCoalescer.getMergedCount();
+    }
+
+    /**
+     * Makes sure that a frame drains the queue of appended points. Only the first point since the last frame posts
+     * to the UI thread; the others only read a flag.
+     */
+    private void requestStreamFrame() {
+        if (!mStreamFrameRequested.get() && mStreamFrameRequested.compareAndSet(false, true)) {
+            mMainHandler.post(mStreamFrameRequest);
+        }
+    }
+
+    /**
+     * Registers the colors of a style, which points can then be given with {@link #setPoints(float[], float[],
+     * int[])}. Registering the same colors again returns the same id, so points with identical colors share their
+     * paints.
+     *
+     * @param lineColor           of the pathways leaving the points of the style
+     * @param staticCircleColor   of the points
+     * @param animatedCircleColor of the circles pulsing around the points
+     * @return the id of the style
+     */
+    public int registerStyle(int lineColor, int staticCircleColor, int animatedCircleColor) {
+        return mStyles.intern(new Style(lineColor, staticCircleColor, animatedCircleColor));
+    }
+
+    /**
+     * Brings everything which depends on the points up to date after they were replaced.
+     */
+    private void onPointsReplaced() {
+        mRouteAnimation.reset();
+        mCoalescer.reset();
+        mDrawBuffers.invalidate();
+        mDrawBuffers.ensureCapacity(mRoute.size());
+        mViewport.invalidate();
+        mCuller.invalidate();
+        // Indexed right away rather than on the first tap, so that taps are answered without delay
+        mRouteIndex.clear();
+        mRouteIndex.update(mRoute);
+        buildDetailLevels();
+        clearClusters();
+        clearRouteCache();
+
+        invalidate();
+    }
+
+    public void setLinePaint(Paint mLinePaint) {
+        this.linePaint = mLinePaint;
+        mStylePaints.setTemplates(linePaint, staticCirclePaint, animatedCirclePaint);
+        clearRouteCache();
+    }
+
+    public void setLineAnimationDuration(int mLineAnimationDuration) {
+        this.lineAnimationDuration = mLineAnimationDuration;
+        mRouteAnimation.setLineDuration(mLineAnimationDuration);
+        if (mRouteWindow != null) {
+            mRouteWindow.setLineDuration(mLineAnimationDuration);
+        }
+    }
+
+    public float getLineAnimationVelocity() {
+        return lineAnimationVelocity;
+    }
+
+    /**
+     * Makes the pathway grow at a constant speed along the whole route, so that long and short (or steep and
+     * shallow) lines are animated at the same on-screen speed. Setting this to 0 goes back to animating every line
+     * in lineAnimationDuration.
+     *
+     * @param lineAnimationVelocity in dp per second
+     */
+    public void setLineAnimationVelocity(float lineAnimationVelocity) {
+        this.lineAnimationVelocity = lineAnimationVelocity;
+        mRouteAnimation.setVelocity(lineAnimationVelocity * getResources().getDisplayMetrics().density);
+    }
+
+    public Paint getLinePaint() {
+        return this.linePaint;
+    }
+
+    public boolean getCacheCompletedRoute() {
+        return mCacheCompletedRoute;
+    }
+
+    /**
+     * If the parameter of this method is true, pathways which have been fully animated are rasterised once into an
+     * offscreen bitmap of the size of the view, instead of being drawn again on every frame. This makes the cost of
+     * a frame independent of the length of the route, at the expense of the memory used by the bitmap.
+     *
+     * @param cacheCompletedRoute
+     */
+    public void setCacheCompletedRoute(boolean cacheCompletedRoute) {
+        this.mCacheCompletedRoute = cacheCompletedRoute;
+
+        if (!cacheCompletedRoute) {
+            releaseRouteCache();
+        }
+
+        invalidate();
+    }
+
+    public int getMapBackground() {
+        return mMapBackground;
+    }
+
+    /**
+     * Sets the image drawn behind the route. Unlike setImageResource, the image is decoded on a background thread,
+     * subsampled to the size of the view, and shared with the other views showing it at the same size.
+     *
+     * @param resId drawable resource, or 0 to remove the background
+     */
+    public void setMapBackground(int resId) {
+        this.mMapBackground = resId;
+
+        releaseMapBackground();
+        loadMapBackground();
+    }
+
+    /**
+     * Registers a callback to be invoked when an existing point or pathway is tapped. Points have precedence over
+     * pathways.
+     *
+     * @param listener
+     */
+    public void setOnRouteTapListener(OnRouteTapListener listener) {
+        this.mOnRouteTapListener = listener;
+    }
+
+    /**
+     * Finds the point of the route closest to the given position of the view, within the tap tolerance.
+     *
+     * @param x in view coordinates
+     * @param y in view coordinates
+     * @return the index of the point, or -1 if there is none close enough
+     */
+    public int findPointAt(float x, float y) {
+        mRouteIndex.update(mRoute);
+
+        return mRouteIndex.findNearestPoint(mRoute, mViewport.toContentX(x), mViewport.toContentY(y),
+                dipToPx(mTapTolerance) / mViewport.getScale());
+    }
+
+    /**
+     * Finds the pathway closest to the given position of the view, within the tap tolerance.
+     *
+     * @param x in view coordinates
+     * @param y in view coordinates
+     * @return the index of the pathway (i.e. of the point it starts from), or -1 if there is none close enough
+     */
+    public int findPathwayAt(float x, float y) {
+        mRouteIndex.update(mRoute);
+
+        return mRouteIndex.findNearestSegment(mRoute, mViewport.toContentX(x), mViewport.toContentY(y),
+                dipToPx(mTapTolerance) / mViewport.getScale());
+    }
+
+    /**
+     * @param tapTolerance in dp, how far from a point or a pathway a tap still hits it
+     */
+    public void setTapTolerance(float tapTolerance) {
+        this.mTapTolerance = tapTolerance;
+    }
+
+    public float getSimplificationTolerance() {
+        return mSimplificationTolerance;
+    }
+
+    /**
+     * Routes of more than a few hundred points are simplified in the background, so that the completed pathways
+     * are drawn with about as many segments as the view can show at the current zoom. The simplified pathways
+     * never stray from the actual route by more than this tolerance.
+     *
+     * @param tolerance in pixels, or 0 to always draw every point
+     */
+    public void setSimplificationTolerance(float tolerance) {
+        this.mSimplificationTolerance = tolerance;
+
+        buildDetailLevels();
+        invalidate();
+    }
+
+    public boolean getClusterPoints() {
+        return mClusterPoints;
+    }
+
+    /**
+     * If the parameter of this method is true, points which are within a few dp of each other at the current zoom
+     * are grouped into a single marker showing their count, rather than drawn as overlapping circles. Grouped points
+     * don't pulse.
+     *
+     * @param clusterPoints
+     */
+    public void setClusterPoints(boolean clusterPoints) {
+        this.mClusterPoints = clusterPoints;
+
+        clearRouteCache();
+        invalidate();
+    }
+
+    /**
+     * @param clusterSize in dp, the size of the cells of the grid which groups the points into clusters
+     */
+    public void setClusterSize(float clusterSize) {
+        this.mClusterSize = clusterSize;
+        clearClusters();
+        mClusters = null;
+
+        invalidate();
+    }
+
+    /**
+     * @return the number of pathways, fixed points and animated circles which were outside of the clip, and thus not
+     * drawn, on the last frame
+     */
+    public int getCulledCount() {
+        return mCulledCount;
+    }
+
+    public boolean getZoomable() {
+        return mZoomable;
+    }
+
+    /**
+     * If the parameter of this method is true, the map (along with the route) can be zoomed by pinching and panned
+     * by dragging. Otherwise, the zoom goes back to the initial one.
+     *
+     * @param zoomable
+     */
+    public void setZoomable(boolean zoomable) {
+        this.mZoomable = zoomable;
+
+        if (!zoomable && mViewport.reset()) {
+            onViewportChanged();
+        }
+    }
+
+    /**
+     * @param maxZoom how far the map can be zoomed in, e.g. 8 shows it at 8 times its initial size
+     */
+    public void setMaxZoom(float maxZoom) {
+        mViewport.setScaleRange(1, maxZoom);
+        onViewportChanged();
+    }
+
+    public boolean getMapBackgroundTiled() {
+        return mMapBackgroundTiled;
+    }
+
+    /**
+     * If the parameter of this method is true, the background image is split into tiles which are decoded on
+     * demand, only where they are visible and at the resolution they are displayed at. Meant for very large images.
+     *
+     * @param tiled
+     */
+    public void setMapBackgroundTiled(boolean tiled) {
+        this.mMapBackgroundTiled = tiled;
+
+        releaseMapBackground();
+        loadMapBackground();
+    }
+
+    public boolean getMapBackgroundRgb565() {
+        return mMapBackgroundRgb565;
+    }
+
+    /**
+     * If the parameter of this method is true, the background image is decoded without alpha channel (RGB_565),
+     * which halves its memory. Suitable for opaque images such as maps.
+     *
+     * @param rgb565
+     */
+    public void setMapBackgroundRgb565(boolean rgb565) {
+        this.mMapBackgroundRgb565 = rgb565;
+
+        if (mTiledBackground != null) {
+            // The tiles which are already decoded can't be converted
+            releaseMapBackground();
+            loadMapBackground();
+        } else if (mMapBackgroundBitmap != null) {
+            loadMapBackground();
         }
     }
 
@@ -0,0 +1,104 @@
+package net.ghetu.customviews;
+
+import android.graphics.Paint;
+
+import net.ghetu.customviews.core.Style;
+import net.ghetu.customviews.core.StyleRegistry;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Paints of the styles of a {@link StyleRegistry}. There is one set of paints per style, shared by all the points
+ * and pathways of that style, however many there are. They are created the first time a style is drawn, as copies of
+ * the template paints of the view (stroke width, caps, anti-aliasing) with the colors of the style. The default
+ * style is drawn with the templates themselves.
+ * </p>
+ * <p>
+ * The alpha of the animated circles changes on every frame. It is set on the shared paint right before drawing each
+ * circle, rather than kept per point.
+ * </p>
+ */
+public class StylePaints {
+    private static final Paint[] NONE = new Paint[0];
+
+    private final StyleRegistry mRegistry;
+
+    private Paint mLineTemplate;
+    private Paint mStaticCircleTemplate;
+    private Paint mAnimatedCircleTemplate;
+
+    // By style id, null until the style is first drawn
+    private Paint[] mLinePaints = NONE;
+    private Paint[] mStaticCirclePaints = NONE;
+    private Paint[] mAnimatedCirclePaints = NONE;
+
+    public StylePaints(StyleRegistry registry) {
+        mRegistry = registry;
+    }
+
+    /**
+     * Sets the paints the styles are derived from, and which the default style is drawn with. The paints of the
+     * other styles are derived again when they are next drawn.
+     *
+     * @param line
+     * @param staticCircle
+     * @param animatedCircle
+     */
+    public void setTemplates(Paint line, Paint staticCircle, Paint animatedCircle) {
+        mLineTemplate = line;
+        mStaticCircleTemplate = staticCircle;
+        mAnimatedCircleTemplate = animatedCircle;
+
+        Arrays.fill(mLinePaints, null);
+        Arrays.fill(mStaticCirclePaints, null);
+        Arrays.fill(mAnimatedCirclePaints, null);
+    }
+
+    public Paint getLinePaint(int style) {
+        if (style == StyleRegistry.DEFAULT) return mLineTemplate;
+
+        mLinePaints = ensureCapacity(mLinePaints);
+        if (mLinePaints[style] == null) {
+            mLinePaints[style] = derive(mLineTemplate, mRegistry.get(style).getLineColor());
+        }
+
+        return mLinePaints[style];
+    }
+
+    public Paint getStaticCirclePaint(int style) {
+        if (style == StyleRegistry.DEFAULT) return mStaticCircleTemplate;
+
+        mStaticCirclePaints = ensureCapacity(mStaticCirclePaints);
+        if (mStaticCirclePaints[style] == null) {
+            mStaticCirclePaints[style] = derive(mStaticCircleTemplate, mRegistry.get(style).getStaticCircleColor());
+        }
+
+        return mStaticCirclePaints[style];
+    }
+
+    /**
+     * @return the paint of the pulsing circles of the given style. Its alpha is set by the caller before drawing
+     */
+    public Paint getAnimatedCirclePaint(int style) {
+        if (style == StyleRegistry.DEFAULT) return mAnimatedCircleTemplate;
+
+        mAnimatedCirclePaints = ensureCapacity(mAnimatedCirclePaints);
+        if (mAnimatedCirclePaints[style] == null) {
+            mAnimatedCirclePaints[style] = derive(mAnimatedCircleTemplate,
+                    mRegistry.get(style).getAnimatedCircleColor());
+        }
+
+        return mAnimatedCirclePaints[style];
+    }
+
+    private Paint[] ensureCapacity(Paint[] paints) {
+        return paints.length < mRegistry.size() ? Arrays.copyOf(paints, mRegistry.size()) : paints;
+    }
+
+    private static Paint derive(Paint template, int color) {
+        Paint paint = new Paint(template);
+        paint.setColor(color);
+        return paint;
+    }
+}
@@ -0,0 +1,438 @@
+package net.ghetu.customviews;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import net.ghetu.customviews.core.TilePyramid;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Draws a background image of any size (up to gigapixel images) within a fixed memory budget. The image is split
+ * into a {@link TilePyramid}, and only the tiles which are visible at the current zoom level are decoded, each one with
+ * {@link BitmapRegionDecoder} at the resolution it is displayed at.
+ * </p>
+ * <p>
+ * Tiles are decoded on a small pool of worker threads and kept in an LRU cache bounded by the memory budget.
+ * Optionally, decoded tiles are also written to a directory so that they don't have to be decoded from the (usually
+ * much slower to read) source image again. That directory is emptied whenever the image or the tile size changes.
+ * While the tiles of the current level are loading, the coarsest level,
+ * which is a single tile, is drawn in their place.
+ * </p>
+ * <p>
+ * Except for the decoding itself, everything happens on the main thread.
+ * </p>
+ */
+public class TiledBackground {
+    private static final String TAG = "TiledBackground";
+
+    private static final int WORKER_THREADS = 2;
+    // Name of the file of the disk cache which records what its tiles were decoded from
+    private static final String DISK_CACHE_KEY_FILE = "key";
+
+    public interface Listener {
+        /**
+         * Called on the main thread once the image has been opened, or a tile has been loaded, i.e. whenever the
+         * background should be drawn again.
+         */
+        void onBackgroundChanged();
+    }
+
+    // Source of the image: either a resource or a file
+    private final Resources mResources;
+    private final int mResId;
+    private final String mPath;
+    private final int mTileSize;
+    private final boolean mRgb565;
+    private final File mDiskCacheDir;
+    private final String mDiskCacheKey;
+    private final Listener mListener;
+
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Only accessed by the workers once it has been opened
+    private volatile BitmapRegionDecoder mDecoder;
+    private TilePyramid mPyramid;
+
+    private final LruCache<Long, Bitmap> mTiles;
+    private final Set<Long> mRequested = new HashSet<Long>();
+    // Level drawn on the last frame. Requests for other levels which are not started yet are dropped
+    private volatile int mLevel;
+    private volatile boolean mReleased = false;
+
+    // Reused on every frame
+    private final Matrix mViewToImage = new Matrix();
+    private final float[] mMatrixValues = new float[9];
+    private final RectF mVisible = new RectF();
+    private final RectF mTileBounds = new RectF();
+    private final int[] mRange = new int[4];
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * @param resources
+     * @param resId        resource of the image, in a format supported by {@link BitmapRegionDecoder} (JPEG or PNG).
+     *                     The decoder keeps a copy of the compressed resource in memory
+     * @param tileSize     in pixels, once decoded
+     * @param memoryBudget maximum number of bytes used by the decoded tiles
+     * @param rgb565       decode the tiles without alpha, using half the memory
+     * @param diskCacheDir directory to store the decoded tiles in, or null to keep them in memory only
+     * @param diskCacheKey changes whenever the content of the image may have changed, e.g. the time the app was last
+     *                     updated for a resource. Tiles stored under another key are deleted
+     * @param listener
+     */
+    public TiledBackground(Resources resources, int resId, int tileSize, int memoryBudget, boolean rgb565,
+                           File diskCacheDir, String diskCacheKey, Listener listener) {
+        this(resources, resId, null, tileSize, memoryBudget, rgb565, diskCacheDir, diskCacheKey, listener);
+    }
+
+    /**
+     * Same as {@link #TiledBackground(Resources, int, int, int, boolean, File, String, Listener)}, for an image
+     * file. The file is read on demand, so even the compressed image doesn't have to fit in memory. The disk cache
+     * key would typically be the time the file was last modified.
+     */
+    public TiledBackground(String path, int tileSize, int memoryBudget, boolean rgb565, File diskCacheDir,
+                           String diskCacheKey, Listener listener) {
+        this(null, 0, path, tileSize, memoryBudget, rgb565, diskCacheDir, diskCacheKey, listener);
+    }
+
+    private TiledBackground(Resources resources, int resId, String path, int tileSize, int memoryBudget,
+                            boolean rgb565, File diskCacheDir, String diskCacheKey, Listener listener) {
+        mResources = resources;
+        mResId = resId;
+        mPath = path;
+        mTileSize = tileSize;
+        mRgb565 = rgb565;
+        mDiskCacheDir = diskCacheDir;
+        // Tiles of another size are cut differently
+        mDiskCacheKey = diskCacheKey + "_" + tileSize;
+        mListener = listener;
+
+        mTiles = new LruCache<Long, Bitmap>(memoryBudget) {
+            @Override
+            protected int sizeOf(Long key, Bitmap tile) {
+                return tile.getByteCount();
+            }
+        };
+
+        mExecutor = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG);
+            }
+        });
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * @return true once the size of the image is known
+     */
+    public boolean isOpened() {
+        return mPyramid != null;
+    }
+
+    public int getImageWidth() {
+        return mPyramid != null ? mPyramid.getImageWidth() : 0;
+    }
+
+    public int getImageHeight() {
+        return mPyramid != null ? mPyramid.getImageHeight() : 0;
+    }
+
+    /**
+     * Draws the part of the image which is visible in the view, and requests the tiles which are missing.
+     *
+     * @param canvas
+     * @param imageToView transform from the pixels of the full resolution image to the pixels of the view. Only
+     *                    scaling and translation are supported
+     * @param width       of the view
+     * @param height      of the view
+     */
+    public void draw(Canvas canvas, Matrix imageToView, int width, int height) {
+        if (mPyramid == null || !imageToView.invert(mViewToImage)) return;
+
+        mVisible.set(0, 0, width, height);
+        mViewToImage.mapRect(mVisible);
+
+        imageToView.getValues(mMatrixValues);
+        int level = mPyramid.getLevel(mMatrixValues[Matrix.MSCALE_X]);
+        int maxLevel = mPyramid.getMaxLevel();
+        mLevel = level;
+
+        canvas.save();
+        canvas.concat(imageToView);
+
+        // The single tile of the coarsest level stands in for the tiles which are still loading
+        if (level != maxLevel) {
+            drawTiles(canvas, maxLevel);
+        }
+        drawTiles(canvas, level);
+
+        canvas.restore();
+    }
+
+    private void drawTiles(Canvas canvas, int level) {
+        mPyramid.getVisibleTiles(level, mVisible.left, mVisible.top, mVisible.right, mVisible.bottom, mRange);
+
+        for (int row = mRange[1]; row <= mRange[3]; row++) {
+            for (int column = mRange[0]; column <= mRange[2]; column++) {
+                long key = TilePyramid.getKey(level, column, row);
+                Bitmap tile = mTiles.get(key);
+
+                if (tile == null) {
+                    requestTile(level, column, row, key);
+                    continue;
+                }
+
+                mTileBounds.set(mPyramid.getTileLeft(level, column), mPyramid.getTileTop(level, row),
+                        mPyramid.getTileRight(level, column), mPyramid.getTileBottom(level, row));
+                canvas.drawBitmap(tile, null, mTileBounds, mPaint);
+            }
+        }
+    }
+
+    private void requestTile(final int level, final int column, final int row, final long key) {
+        if (!mRequested.add(key)) return;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Skip the tiles of a level which isn't displayed anymore, e.g. while zooming quickly
+                final Bitmap tile = isWanted(level) ? loadTile(level, column, row) : null;
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRequested.remove(key);
+
+                        if (tile != null && !mReleased) {
+                            mTiles.put(key, tile);
+                            mListener.onBackgroundChanged();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean isWanted(int level) {
+        return !mReleased && (level == mLevel || level == mPyramid.getMaxLevel());
+    }
+
+    /**
+     * Stops the workers and drops the tiles. The background can't be drawn anymore afterwards.
+     */
+    public void release() {
+        mReleased = true;
+        mExecutor.shutdownNow();
+        mTiles.evictAll();
+        mRequested.clear();
+
+        // A tile which is being decoded right now either completes first or fails, see loadTile
+        if (mDecoder != null) {
+            mDecoder.recycle();
+        }
+    }
+
+    /**
+     * Drops the tiles kept in memory, e.g. because the system is running low on memory. Visible tiles are loaded
+     * again (from the disk cache, if any) on the next frame.
+     */
+    public void trimMemory() {
+        mTiles.evictAll();
+    }
+
+    /**
+     * Runs on a worker.
+     */
+    private void open() {
+        InputStream input = null;
+
+        // Tiles are only requested once the image is opened, so none is read from the disk cache before this
+        if (mDiskCacheDir != null) {
+            checkDiskCache();
+        }
+
+        try {
+            final BitmapRegionDecoder decoder;
+            if (mPath != null) {
+                decoder = BitmapRegionDecoder.newInstance(mPath, false);
+            } else {
+                input = mResources.openRawResource(mResId);
+                decoder = BitmapRegionDecoder.newInstance(input, false);
+            }
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mReleased) {
+                        decoder.recycle();
+                        return;
+                    }
+
+                    mDecoder = decoder;
+                    mPyramid = new TilePyramid(decoder.getWidth(), decoder.getHeight(), mTileSize);
+                    mListener.onBackgroundChanged();
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open the background image", e);
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Runs on a worker. Empties the disk cache if its tiles were stored under another key, then records the current
+     * one.
+     */
+    private void checkDiskCache() {
+        File keyFile = new File(mDiskCacheDir, DISK_CACHE_KEY_FILE);
+        if (mDiskCacheKey.equals(readKey(keyFile))) return;
+
+        File[] files = mDiskCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) return;
+
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new FileOutputStream(keyFile));
+            output.writeUTF(mDiskCacheKey);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the key of the disk cache", e);
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    /**
+     * @return the key recorded in the file, or null if there is none
+     */
+    private static String readKey(File keyFile) {
+        if (!keyFile.exists()) return null;
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(keyFile));
+            return input.readUTF();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Runs on a worker.
+     */
+    private Bitmap loadTile(int level, int column, int row) {
+        File file = mDiskCacheDir != null ? new File(mDiskCacheDir, level + "_" + column + "_" + row) : null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = mRgb565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        if (file != null && file.exists()) {
+            Bitmap tile = BitmapFactory.decodeFile(file.getPath(), options);
+            if (tile != null) return tile;
+        }
+
+        Rect region = new Rect(mPyramid.getTileLeft(level, column), mPyramid.getTileTop(level, row),
+                mPyramid.getTileRight(level, column), mPyramid.getTileBottom(level, row));
+        options.inSampleSize = mPyramid.getSampleSize(level);
+
+        Bitmap tile;
+        try {
+            tile = mDecoder.decodeRegion(region, options);
+        } catch (IllegalStateException e) {
+            // The decoder was recycled in the meantime
+            return null;
+        }
+
+        if (tile != null && file != null) {
+            writeTile(tile, file);
+        }
+
+        return tile;
+    }
+
+    /**
+     * Runs on a worker.
+     */
+    private void writeTile(Bitmap tile, File file) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) return;
+
+        // Written next to the final file first, so that a partial file is never read
+        File partial = new File(file.getPath() + ".tmp");
+        OutputStream output = null;
+
+        try {
+            output = new FileOutputStream(partial);
+
+            // Tiles without alpha are opaque, JPEG is much smaller and faster to decode for them
+            tile.compress(mRgb565 ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG, 90, output);
+            output.close();
+            output = null;
+
+            if (!partial.renameTo(file)) {
+                partial.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write a tile to the disk cache", e);
+            partial.delete();
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package net.ghetu.customviews;
+
+import android.graphics.Matrix;
+
+/**
+ * <p>
+ * Zoom and pan of {@link MapPointsView}: a single {@link Matrix} which maps the coordinates of the content (the
+ * route, as touched at the initial zoom level) to the pixels of the view. Only scaling and translation are used, and
+ * the content always covers the whole view.
+ * </p>
+ * <p>
+ * The view draws the route from packed coordinate buffers (see {@code DrawBuffers}). The viewport keeps a copy of
+ * these buffers in view coordinates, mapped in batches with {@link Matrix#mapPoints(float[], int, float[], int, int)}.
+ * The copies are only remapped entirely when the transform changes; otherwise, only the coordinates appended since
+ * the last frame are mapped. While the viewport is the identity, the buffers are used as they are.
+ * </p>
+ */
+public class Viewport {
+    private static final float[] EMPTY = new float[0];
+
+    private final Matrix mMatrix = new Matrix();
+
+    // Components of mMatrix, kept to map single points without going through the matrix
+    private float mScale = 1;
+    private float mTranslateX = 0;
+    private float mTranslateY = 0;
+
+    private float mMinScale = 1;
+    private float mMaxScale = 8;
+
+    private int mWidth;
+    private int mHeight;
+
+    // View coordinates of the packed segments and points, and how many of them are up to date
+    private float[] mSegments = EMPTY;
+    private float[] mPoints = EMPTY;
+    private int mMappedSegments;
+    private int mMappedPoints;
+
+    /**
+     * Sets the size of the view, so that panning can be kept within the content.
+     *
+     * @param width
+     * @param height
+     * @return true if the transform changed to fit the new size
+     */
+    public boolean setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+
+        return update(mScale, mTranslateX, mTranslateY);
+    }
+
+    /**
+     * Zooms by the given factor, keeping the given point of the view in place.
+     *
+     * @param factor
+     * @param focusX in view coordinates
+     * @param focusY in view coordinates
+     * @return true if the transform changed
+     */
+    public boolean zoom(float factor, float focusX, float focusY) {
+        float scale = Math.max(mMinScale, Math.min(mMaxScale, mScale * factor));
+        float applied = scale / mScale;
+
+        return update(scale, focusX - (focusX - mTranslateX) * applied, focusY - (focusY - mTranslateY) * applied);
+    }
+
+    /**
+     * Moves the content by the given distance.
+     *
+     * @param dx in view pixels
+     * @param dy in view pixels
+     * @return true if the transform changed
+     */
+    public boolean pan(float dx, float dy) {
+        return update(mScale, mTranslateX + dx, mTranslateY + dy);
+    }
+
+    /**
+     * Goes back to showing the content at its initial size.
+     *
+     * @return true if the transform changed
+     */
+    public boolean reset() {
+        return update(1, 0, 0);
+    }
+
+    /**
+     * Applies a new transform, after keeping the content over the whole view.
+     */
+    private boolean update(float scale, float translateX, float translateY) {
+        translateX = Math.max(mWidth - mWidth * scale, Math.min(0, translateX));
+        translateY = Math.max(mHeight - mHeight * scale, Math.min(0, translateY));
+
+        if (scale == mScale && translateX == mTranslateX && translateY == mTranslateY) return false;
+
+        mScale = scale;
+        mTranslateX = translateX;
+        mTranslateY = translateY;
+
+        mMatrix.setScale(scale, scale);
+        mMatrix.postTranslate(translateX, translateY);
+
+        invalidate();
+        return true;
+    }
+
+    public boolean isIdentity() {
+        return mScale == 1 && mTranslateX == 0 && mTranslateY == 0;
+    }
+
+    /**
+     * @return the transform from content to view coordinates. Must not be modified
+     */
+    public Matrix getMatrix() {
+        return mMatrix;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    public float getMaxScale() {
+        return mMaxScale;
+    }
+
+    public float toViewX(float x) {
+        return x * mScale + mTranslateX;
+    }
+
+    public float toViewY(float y) {
+        return y * mScale + mTranslateY;
+    }
+
+    public float toContentX(float x) {
+        return (x - mTranslateX) / mScale;
+    }
+
+    public float toContentY(float y) {
+        return (y - mTranslateY) / mScale;
+    }
+
+    public void setScaleRange(float minScale, float maxScale) {
+        mMinScale = Math.max(minScale, 1);
+        mMaxScale = Math.max(maxScale, mMinScale);
+
+        update(mScale, mTranslateX, mTranslateY);
+    }
+
+    /**
+     * Returns the first {@code count} packed segments (4 floats each) in view coordinates.
+     *
+     * @param packed segments in content coordinates, as returned by {@code DrawBuffers.packSegments}
+     * @param count
+     * @return
+     */
+    public float[] mapSegments(float[] packed, int count) {
+        if (isIdentity()) return packed;
+
+        if (mSegments.length < packed.length) {
+            mSegments = new float[packed.length];
+            mMappedSegments = 0;
+        }
+
+        if (count > mMappedSegments) {
+            mMatrix.mapPoints(mSegments, mMappedSegments * 4, packed, mMappedSegments * 4,
+                    (count - mMappedSegments) * 2);
+            mMappedSegments = count;
+        }
+
+        return mSegments;
+    }
+
+    /**
+     * Returns the first {@code count} packed points (2 floats each) in view coordinates.
+     *
+     * @param packed points in content coordinates, as returned by {@code DrawBuffers.packPoints}
+     * @param count
+     * @return
+     */
+    public float[] mapPoints(float[] packed, int count) {
+        if (isIdentity()) return packed;
+
+        if (mPoints.length < packed.length) {
+            mPoints = new float[packed.length];
+            mMappedPoints = 0;
+        }
+
+        if (count > mMappedPoints) {
+            mMatrix.mapPoints(mPoints, mMappedPoints * 2, packed, mMappedPoints * 2, count - mMappedPoints);
+            mMappedPoints = count;
+        }
+
+        return mPoints;
+    }
+
+    /**
+     * Maps segments (4 floats each) to view coordinates within the given buffer, for geometry which changes from
+     * one frame to the next and thus can't be cached.
+     *
+     * @param segments in content coordinates, replaced by their view coordinates
+     * @param count
+     * @return the same buffer
+     */
+    public float[] mapSegmentsInPlace(float[] segments, int count) {
+        if (!isIdentity()) {
+            mMatrix.mapPoints(segments, 0, segments, 0, count * 2);
+        }
+
+        return segments;
+    }
+
+    /**
+     * Maps points (2 floats each) to view coordinates within the given buffer, as
+     * {@link #mapSegmentsInPlace(float[], int)} does for segments.
+     *
+     * @param points in content coordinates, replaced by their view coordinates
+     * @param count
+     * @return the same buffer
+     */
+    public float[] mapPointsInPlace(float[] points, int count) {
+        if (!isIdentity()) {
+            mMatrix.mapPoints(points, 0, points, 0, count);
+        }
+
+        return points;
+    }
+
+    /**
+     * Marks the mapped buffers as out of date, e.g. because the points of the route changed.
+     */
+    public void invalidate() {
+        mMappedSegments = 0;
+        mMappedPoints = 0;
+    }
+
+    /**
+     * Drops the mapped buffers to free their memory.
+     */
+    public void release() {
+        mSegments = EMPTY;
+        mPoints = EMPTY;
+        invalidate();
+    }
+}
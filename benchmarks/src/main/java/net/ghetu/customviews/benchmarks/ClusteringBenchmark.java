@@ -0,0 +1,81 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.PointClusters;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PointClusters}: clustering a whole route from its points, on one thread or split across the
+ * cores, and deriving the level of a lower zoom from one which is already computed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusteringBenchmark {
+    private static final float CLUSTER_SIZE = 48;
+    private static final int FINEST_LEVEL = 3;
+
+    @Param({"10000", "100000"})
+    public int points;
+
+    private RouteStore mRoute;
+    private ExecutorService mExecutor;
+    private int mCores;
+
+    @Setup
+    public void setUp() {
+        mRoute = Routes.randomWalk(points);
+        mCores = Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(mCores);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public int sequential() {
+        PointClusters clusters = new PointClusters(CLUSTER_SIZE);
+        clusters.setFirstLevel(clusters.computeLevel(mRoute.getXs(), mRoute.getYs(), mRoute.size(), FINEST_LEVEL));
+        return clusters.select(mRoute, FINEST_LEVEL, FINEST_LEVEL);
+    }
+
+    @Benchmark
+    public int parallel() {
+        PointClusters clusters = new PointClusters(CLUSTER_SIZE);
+        clusters.setExecutor(mExecutor, mCores);
+        clusters.setFirstLevel(clusters.computeLevel(mRoute.getXs(), mRoute.getYs(), mRoute.size(), FINEST_LEVEL));
+        return clusters.select(mRoute, FINEST_LEVEL, FINEST_LEVEL);
+    }
+
+    /**
+     * Zooming all the way out after the finest level was computed: every level in between is merged from the finer
+     * one, without going through the points.
+     */
+    @Benchmark
+    public int zoomOut() {
+        PointClusters clusters = new PointClusters(CLUSTER_SIZE);
+        clusters.select(mRoute, FINEST_LEVEL, FINEST_LEVEL);
+        return clusters.select(mRoute, 0, FINEST_LEVEL);
+    }
+}
@@ -0,0 +1,74 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.DrawBuffers;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the preparation of the buffers passed to {@code Canvas.drawLines} and {@code Canvas.drawPoints}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawBuffersBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int points;
+
+    private RouteStore mRoute;
+    private DrawBuffers mBuffers;
+    private int mCompleted;
+
+    @Setup
+    public void setUp() {
+        mRoute = Routes.randomWalk(points);
+        mBuffers = new DrawBuffers();
+        mBuffers.ensureCapacity(points);
+    }
+
+    /**
+     * A regular frame of the playback: one more segment completed since the previous frame, every point drawn.
+     */
+    @Benchmark
+    public int packFrame() {
+        if (mCompleted >= points - 1) {
+            mCompleted = 0;
+            mBuffers.invalidate();
+        }
+
+        mCompleted++;
+        float[] segments = mBuffers.packSegments(mRoute, Math.min(mCompleted, points - 1));
+        float[] pointBuffer = mBuffers.packPoints(mRoute, points);
+
+        return segments.length + pointBuffer.length;
+    }
+
+    /**
+     * Packing the whole route from scratch, as happens on the first frame after the points were replaced. One op
+     * packs every segment and every point of the route.
+     */
+    @Benchmark
+    public int packWholeRoute() {
+        mBuffers.invalidate();
+        float[] segments = mBuffers.packSegments(mRoute, points - 1);
+        float[] pointBuffer = mBuffers.packPoints(mRoute, points);
+
+        return segments.length + pointBuffer.length;
+    }
+}
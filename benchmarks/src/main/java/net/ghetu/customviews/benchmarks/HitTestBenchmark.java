@@ -0,0 +1,69 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.RouteIndex;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a tap costs: finding the point and the pathway under it with the {@link RouteIndex}. Taps land on
+ * random points of the route, slightly off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HitTestBenchmark {
+    private static final float TOLERANCE = 24;
+
+    @Param({"1000", "100000"})
+    public int points;
+
+    private RouteStore mRoute;
+    private RouteIndex mIndex;
+    private Routes.XorShift mRandom;
+
+    @Setup
+    public void setUp() {
+        mRoute = Routes.randomWalk(points);
+        mIndex = new RouteIndex();
+        mIndex.update(mRoute);
+        mRandom = new Routes.XorShift(7);
+    }
+
+    @Benchmark
+    public int nearestPoint() {
+        int i = (int) ((mRandom.nextLong() >>> 1) % points);
+        return mIndex.findNearestPoint(mRoute, mRoute.getX(i) + 5, mRoute.getY(i) - 5, TOLERANCE);
+    }
+
+    @Benchmark
+    public int nearestSegment() {
+        int i = (int) ((mRandom.nextLong() >>> 1) % points);
+        return mIndex.findNearestSegment(mRoute, mRoute.getX(i) + 5, mRoute.getY(i) - 5, TOLERANCE);
+    }
+
+    /**
+     * Indexing the whole route, as happens when the points are replaced.
+     */
+    @Benchmark
+    public RouteIndex build() {
+        RouteIndex index = new RouteIndex();
+        index.update(mRoute);
+        return index;
+    }
+}
@@ -0,0 +1,69 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.DrawBuffers;
+import net.ghetu.customviews.core.RouteAnimation;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a whole playback, frame by frame, the same way the view does. Each op plays the route from its first
+ * point to the end of the last pulse, so its cost should grow linearly with the number of points: about 4 times
+ * more for 4 times more points, where a quadratic playback would take 16 times more.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaybackBenchmark {
+    private static final int LINE_DURATION = 16;
+    private static final int PULSE_DURATION = 48;
+    private static final int FRAME_DURATION = 16;
+
+    @Param({"10000", "40000"})
+    public int points;
+
+    private RouteStore mRoute;
+    private DrawBuffers mBuffers;
+
+    @Setup
+    public void setUp() {
+        mRoute = Routes.randomWalk(points);
+        mBuffers = new DrawBuffers();
+        mBuffers.ensureCapacity(points);
+    }
+
+    @Benchmark
+    public float play() {
+        RouteAnimation animation = new RouteAnimation(mRoute, LINE_DURATION, PULSE_DURATION);
+        float pulses = 0;
+        long frameTime = 0;
+
+        mBuffers.invalidate();
+        animation.start();
+        while (animation.onFrame(frameTime)) {
+            mBuffers.packSegments(mRoute, animation.getCompletedSegments());
+            for (int i = animation.getFirstPulse(); i <= animation.getLastPulse(); i++) {
+                pulses += animation.getPulseFraction(i);
+            }
+
+            frameTime += FRAME_DURATION;
+        }
+
+        return pulses;
+    }
+}
@@ -0,0 +1,102 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.AnimationTimeline;
+import net.ghetu.customviews.core.DirtyRegion;
+import net.ghetu.customviews.core.Evaluators;
+import net.ghetu.customviews.core.RouteAnimation;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of evaluating one frame of a route playback: ticking the timeline, advancing the point/line
+ * sequencing, interpolating the growing segment and computing the dirty region. Each op is one frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteEvaluationBenchmark {
+    private static final int FRAME_DURATION = 16;
+    private static final int PULSE_DURATION = 500;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int points;
+
+    /**
+     * Duration of a line. Lines shorter than a frame make the sequencing advance several segments per frame.
+     */
+    @Param({"1", "500"})
+    public int lineDuration;
+
+    /**
+     * Speed of the growing extremity in units per second. When greater than 0, it replaces lineDuration and the
+     * position of the extremity is found with a binary search over the cumulative distances.
+     */
+    @Param({"0", "300"})
+    public float velocity;
+
+    private RouteStore mRoute;
+    private AnimationTimeline mTimeline;
+    private RouteAnimation mAnimation;
+    private DirtyRegion mDirtyRegion;
+    private Routes.XorShift mRandom;
+    private long mFrameTime;
+
+    @Setup
+    public void setUp() {
+        mRoute = Routes.randomWalk(points);
+        mTimeline = new AnimationTimeline();
+        mAnimation = new RouteAnimation(mRoute, lineDuration, PULSE_DURATION);
+        mAnimation.setVelocity(velocity);
+        mDirtyRegion = new DirtyRegion();
+        mRandom = new Routes.XorShift(points);
+
+        mAnimation.start();
+        mTimeline.start(mAnimation);
+    }
+
+    /**
+     * One frame of the playback, as done by the view's Choreographer callback before drawing.
+     */
+    @Benchmark
+    public boolean frame() {
+        mFrameTime += FRAME_DURATION;
+
+        if (!mTimeline.tick(mFrameTime)) {
+            // Loop the playback so that long runs keep measuring frames in the middle of the route
+            mAnimation.start();
+            mTimeline.start(mAnimation);
+        }
+
+        return mDirtyRegion.update(mRoute, mAnimation, 10, 61);
+    }
+
+    /**
+     * Interpolation of the growing extremity within a random segment of the route.
+     */
+    @Benchmark
+    public float interpolateSegment() {
+        int i = mRandom.nextInt(Math.max(points - 1, 1));
+        int j = Math.min(i + 1, points - 1);
+        float fraction = mRandom.nextFloat();
+        float[] xs = mRoute.getXs();
+        float[] ys = mRoute.getYs();
+
+        return Evaluators.evaluate(fraction, xs[i], xs[j]) + Evaluators.evaluate(fraction, ys[i], ys[j]);
+    }
+}
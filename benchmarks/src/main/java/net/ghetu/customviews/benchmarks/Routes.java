@@ -0,0 +1,59 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.RouteStore;
+
+/**
+ * Route fixtures shared by the benchmarks.
+ */
+final class Routes {
+
+    private Routes() {
+    }
+
+    /**
+     * Creates a route resembling a GPS trace: a slow random walk, with segments of varying length and direction.
+     * The same count always produces the same route.
+     *
+     * @param count
+     * @return
+     */
+    static RouteStore randomWalk(int count) {
+        RouteStore route = new RouteStore(count);
+        XorShift random = new XorShift(count);
+        float x = 0, y = 0;
+
+        for (int i = 0; i < count; i++) {
+            x += random.nextFloat() * 8 - 3;
+            y += random.nextFloat() * 8 - 4;
+            route.add(x, y);
+        }
+
+        return route;
+    }
+
+    /**
+     * Tiny allocation-free pseudo random generator, so that picking random inputs doesn't skew the measurements.
+     */
+    static final class XorShift {
+        private long mState;
+
+        XorShift(long seed) {
+            mState = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+        }
+
+        long nextLong() {
+            mState ^= mState << 13;
+            mState ^= mState >>> 7;
+            mState ^= mState << 17;
+            return mState;
+        }
+
+        int nextInt(int bound) {
+            return (int) ((nextLong() >>> 1) % bound);
+        }
+
+        float nextFloat() {
+            return (nextLong() >>> 40) / (float) (1 << 24);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.DetailLevels;
+import net.ghetu.customviews.core.DrawBuffers;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link DetailLevels} of a dense route: building them, which happens off the UI thread, and gathering
+ * the segments of a level on a frame, compared to packing every segment of the route.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimplificationBenchmark {
+    private static final float TOLERANCE = 0.5f;
+
+    @Param({"10000", "100000"})
+    public int points;
+
+    @Param({"1", "8"})
+    public float scale;
+
+    private RouteStore mRoute;
+    private DetailLevels mLevels;
+    private int mLevel;
+
+    @Setup
+    public void setUp() {
+        mRoute = Routes.randomWalk(points);
+        mLevels = DetailLevels.build(mRoute.getXs(), mRoute.getYs(), points, TOLERANCE);
+        mLevel = mLevels.getLevel(TOLERANCE / scale);
+    }
+
+    @Benchmark
+    public DetailLevels build() {
+        return DetailLevels.build(mRoute.getXs(), mRoute.getYs(), points, TOLERANCE);
+    }
+
+    /**
+     * The segments of the level matching the zoom, or the whole route if every level is too coarse.
+     */
+    @Benchmark
+    public int gatherLevel() {
+        if (mLevel < 0) return packAll();
+
+        return mLevels.gather(mLevel, mRoute, points - 1, -Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE,
+                Float.MAX_VALUE);
+    }
+
+    /**
+     * Every segment, as drawn without simplification. A new buffer is packed each time, as the view does when the
+     * transform changes.
+     */
+    @Benchmark
+    public int packAll() {
+        DrawBuffers buffers = new DrawBuffers();
+        return buffers.packSegments(mRoute, points - 1).length;
+    }
+}
@@ -0,0 +1,70 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.RouteAnimation;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the view does on a configuration change: packing the route into the array written to the saved
+ * state, and rebuilding the route and the playback position from it. Writing the array into the {@code Parcel} is a
+ * single bulk copy on Android and is not part of the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateRestoreBenchmark {
+    private static final int LINE_DURATION = 500;
+    private static final int PULSE_DURATION = 1000;
+
+    @Param({"10000"})
+    public int points;
+
+    private RouteStore mRoute;
+    private float[] mPacked;
+    private long mElapsed;
+
+    private RouteStore mRestored;
+    private RouteAnimation mAnimation;
+
+    @Setup
+    public void setUp() {
+        mRoute = Routes.randomWalk(points);
+        mPacked = mRoute.toPackedArray();
+
+        // Half way through the playback
+        mElapsed = (long) (points / 2) * LINE_DURATION + LINE_DURATION / 2;
+
+        mRestored = new RouteStore(points);
+        mAnimation = new RouteAnimation(mRestored, LINE_DURATION, PULSE_DURATION);
+    }
+
+    @Benchmark
+    public float[] save() {
+        return mRoute.toPackedArray();
+    }
+
+    @Benchmark
+    public int restore() {
+        mRestored.setPacked(mPacked);
+        mAnimation.reset();
+        mAnimation.startAt(mElapsed);
+
+        return mAnimation.getCompletedSegments();
+    }
+}
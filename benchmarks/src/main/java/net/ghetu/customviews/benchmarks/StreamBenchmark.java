@@ -0,0 +1,63 @@
+package net.ghetu.customviews.benchmarks;
+
+import net.ghetu.customviews.core.PointQueue;
+import net.ghetu.customviews.core.RouteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what appending a point from a background thread costs the producer, while the UI thread drains the
+ * {@link PointQueue} into the route concurrently. The route is emptied whenever it gets large, as a view would
+ * replace its points.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+    private static final int MAX_ROUTE = 100000;
+
+    private PointQueue mQueue;
+    private RouteStore mRoute;
+    private float mX;
+
+    @Setup
+    public void setUp() {
+        mQueue = new PointQueue(4096);
+        mRoute = new RouteStore(MAX_ROUTE);
+    }
+
+    @Benchmark
+    @Group("stream")
+    @GroupThreads(1)
+    public boolean offer() {
+        mX += 1;
+        return mQueue.offer(mX, -mX);
+    }
+
+    @Benchmark
+    @Group("stream")
+    @GroupThreads(1)
+    public int drain() {
+        if (mRoute.size() > MAX_ROUTE) {
+            mRoute.clear();
+        }
+
+        return mQueue.drainTo(mRoute);
+    }
+}
@@ -0,0 +1,78 @@
+package net.ghetu.customviews.core;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * Single clock shared by every animated object of a view. Instead of each point and line owning its own animator,
+ * the view ticks the timeline once per frame (e.g. from a {@code Choreographer} callback) and every running object
+ * is evaluated against the same frame time.
+ * </p>
+ * <p>
+ * Objects may be started from within a tick (e.g. when a line finishes and starts the next point). They are
+ * evaluated during that same tick, so chained animations never lag one frame behind each other.
+ * </p>
+ */
+public class AnimationTimeline {
+
+    /**
+     * An object that can be driven by the timeline.
+     */
+    public interface Animation {
+
+        /**
+         * Evaluates the animation for the given frame time (in milliseconds).
+         *
+         * @param frameTime
+         * @return true if the animation is still running after this frame, false once it has finished
+         */
+        boolean onFrame(long frameTime);
+    }
+
+    /**
+     * Animations which still need to be evaluated on the next frame
+     */
+    private final ArrayList<Animation> mRunning = new ArrayList<>();
+
+    /**
+     * Adds an animation to the timeline. It will be evaluated starting with the next (or current) tick. Starting an
+     * animation which is already on the timeline has no effect.
+     *
+     * @param animation
+     */
+    public void start(Animation animation) {
+        if (!mRunning.contains(animation)) {
+            mRunning.add(animation);
+        }
+    }
+
+    /**
+     * Evaluates every running animation for the given frame time and drops the ones which have finished.
+     *
+     * @param frameTime
+     * @return true if at least one animation is still running
+     */
+    public boolean tick(long frameTime) {
+        int kept = 0;
+
+        // Animations started during this loop are appended to the list, so they get evaluated in this same tick
+        for (int i = 0; i < mRunning.size(); i++) {
+            Animation animation = mRunning.get(i);
+
+            if (animation.onFrame(frameTime)) {
+                mRunning.set(kept++, animation);
+            }
+        }
+
+        // Drop the finished animations from the tail without reallocating the list
+        for (int i = mRunning.size() - 1; i >= kept; i--) {
+            mRunning.remove(i);
+        }
+
+        return kept > 0;
+    }
+
+    public boolean isRunning() {
+        return !mRunning.isEmpty();
+    }
+}
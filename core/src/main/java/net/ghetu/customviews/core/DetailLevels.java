@@ -0,0 +1,313 @@
+package net.ghetu.customviews.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Levels of detail of a route, simplified with the Douglas-Peucker algorithm at tolerances halving from one level to
+ * the next. A dense route (e.g. a GPS trace with many points per pixel) can then be drawn from the level whose
+ * tolerance matches the current pixel size, so that the number of segments drawn depends on the resolution of the
+ * screen rather than on the number of points.
+ * </p>
+ * <p>
+ * The simplification runs once for all the levels: every point gets the largest tolerance at which Douglas-Peucker
+ * still keeps it (bounded by the one of the point which split its range), and the points of a level are the ones
+ * above its tolerance. Building is O(n log n) for usual routes and meant to be done off the UI thread, on a copy of
+ * the coordinates. The levels are immutable afterwards, except for the buffer filled by
+ * {@link #gather(int, RouteStore, int, float, float, float, float)}, which must only be used from one thread.
+ * </p>
+ * <p>
+ * Levels only go as fine as keeping half of the points; below that, the route should be drawn in full.
+ * </p>
+ * <p>
+ * The points where the style of the route changes can be given as breaks, which every level keeps, so that each
+ * simplified segment spans points of a single style.
+ * </p>
+ */
+public class DetailLevels {
+    private static final float[] EMPTY = new float[0];
+    private static final int[] NONE = new int[0];
+    private static final int MAX_LEVELS = 12;
+
+    private final int mPointCount;
+    private final float[] mTolerances;
+    // Indices of the points kept by each level, in increasing order. The first and last points are always kept
+    private final int[][] mIndices;
+
+    private float[] mSegments = EMPTY;
+    private int[] mOrigins = NONE;
+
+    private DetailLevels(int pointCount, float[] tolerances, int[][] indices) {
+        mPointCount = pointCount;
+        mTolerances = tolerances;
+        mIndices = indices;
+    }
+
+    /**
+     * Simplifies a route at tolerances going from the given one down, halving at every level.
+     *
+     * @param xs           X coordinates of the points
+     * @param ys           Y coordinates of the points
+     * @param count        number of points to simplify
+     * @param maxTolerance tolerance of the coarsest level, in the units of the coordinates
+     * @return
+     */
+    public static DetailLevels build(float[] xs, float[] ys, int count, float maxTolerance) {
+        return build(xs, ys, count, maxTolerance, NONE, 0);
+    }
+
+    /**
+     * Simplifies a route as {@link #build(float[], float[], int, float)} does, always keeping the given points.
+     *
+     * @param xs           X coordinates of the points
+     * @param ys           Y coordinates of the points
+     * @param count        number of points to simplify
+     * @param maxTolerance tolerance of the coarsest level, in the units of the coordinates
+     * @param breaks       indices of the points to keep, in increasing order, e.g. the first points of the runs of
+     *                     styles
+     * @param breakCount   number of breaks
+     * @return
+     */
+    public static DetailLevels build(float[] xs, float[] ys, int count, float maxTolerance, int[] breaks,
+                                     int breakCount) {
+        float[] significance = computeSignificance(xs, ys, count, breaks, breakCount);
+
+        float[] tolerances = new float[MAX_LEVELS];
+        int[][] indices = new int[MAX_LEVELS][];
+        int levels = 0;
+        float tolerance = maxTolerance;
+
+        while (levels < MAX_LEVELS && count > 2 && tolerance > 0) {
+            int[] kept = select(significance, count, tolerance * tolerance);
+
+            // Finer levels would barely save anything over the full route
+            if (kept.length * 2 > count) break;
+
+            tolerances[levels] = tolerance;
+            indices[levels] = kept;
+            levels++;
+            tolerance /= 2;
+        }
+
+        return new DetailLevels(count, Arrays.copyOf(tolerances, levels), Arrays.copyOf(indices, levels));
+    }
+
+    /**
+     * Runs Douglas-Peucker once with a tolerance of 0, iteratively, recording for every point the squared distance
+     * at which it gets kept. A point is never more significant than the one which split its range, so the points
+     * above any tolerance are exactly the ones Douglas-Peucker keeps with that tolerance.
+     */
+    private static float[] computeSignificance(float[] xs, float[] ys, int count, int[] breaks, int breakCount) {
+        float[] significance = new float[count];
+        if (count == 0) return significance;
+
+        significance[0] = Float.POSITIVE_INFINITY;
+        significance[count - 1] = Float.POSITIVE_INFINITY;
+
+        // Ranges still to split: first point, last point, and the significance of the point which produced them
+        int[] ranges = new int[Math.max(64, (breakCount + 1) * 4)];
+        float[] bounds = new float[ranges.length / 2];
+        int depth = 0;
+
+        // Breaks split the route into ranges which are simplified independently
+        int start = 0;
+        for (int b = 0; b <= breakCount; b++) {
+            int end = b < breakCount ? Math.min(breaks[b], count - 1) : count - 1;
+            if (end <= start) continue;
+
+            significance[end] = Float.POSITIVE_INFINITY;
+
+            if (end - start > 1) {
+                ranges[depth * 2] = start;
+                ranges[depth * 2 + 1] = end;
+                bounds[depth++] = Float.POSITIVE_INFINITY;
+            }
+            start = end;
+        }
+
+        while (depth > 0) {
+            depth--;
+            int first = ranges[depth * 2];
+            int last = ranges[depth * 2 + 1];
+            float bound = bounds[depth];
+
+            int farthest = -1;
+            float farthestDistance = -1;
+
+            for (int i = first + 1; i < last; i++) {
+                float distance = RouteIndex.getSquaredDistance(xs[i], ys[i], xs[first], ys[first], xs[last],
+                        ys[last]);
+
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+
+            float split = Math.min(farthestDistance, bound);
+            significance[farthest] = split;
+
+            if (depth + 2 > bounds.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+
+            if (farthest - first > 1) {
+                ranges[depth * 2] = first;
+                ranges[depth * 2 + 1] = farthest;
+                bounds[depth++] = split;
+            }
+
+            if (last - farthest > 1) {
+                ranges[depth * 2] = farthest;
+                ranges[depth * 2 + 1] = last;
+                bounds[depth++] = split;
+            }
+        }
+
+        return significance;
+    }
+
+    private static int[] select(float[] significance, int count, float squaredTolerance) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (significance[i] > squaredTolerance) kept++;
+        }
+
+        int[] indices = new int[kept];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (significance[i] > squaredTolerance) indices[j++] = i;
+        }
+
+        return indices;
+    }
+
+    /**
+     * @return the number of points of the route the levels were built for
+     */
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    public int getLevelCount() {
+        return mTolerances.length;
+    }
+
+    public float getTolerance(int level) {
+        return mTolerances[level];
+    }
+
+    /**
+     * @return the indices of the points kept by the level, in increasing order
+     */
+    public int[] getIndices(int level) {
+        return mIndices[level];
+    }
+
+    /**
+     * Finds the coarsest level which doesn't stray from the route by more than the given distance.
+     *
+     * @param tolerance in the units of the coordinates, e.g. the size of a pixel of the view
+     * @return the level, or -1 if all of them are too coarse and the route should be drawn in full
+     */
+    public int getLevel(float tolerance) {
+        for (int level = 0; level < mTolerances.length; level++) {
+            if (mTolerances[level] <= tolerance) return level;
+        }
+
+        return -1;
+    }
+
+    /**
+     * <p>
+     * Gathers the segments of the level, up to the given point, which intersect the visible area. They are then
+     * returned by {@link #getSegments()}, 4 floats each, in the coordinates of the route.
+     * </p>
+     * <p>
+     * The last segment ends exactly at point {@code completed}, so that it connects to whatever is drawn from there.
+     * Points appended to the route after the levels were built are not simplified.
+     * </p>
+     *
+     * @param level
+     * @param route     the route the levels were built for, possibly with points appended since
+     * @param completed number of completed segments, i.e. the last point to reach
+     * @param left      of the visible area, in route coordinates
+     * @param top
+     * @param right
+     * @param bottom
+     * @return the number of segments gathered
+     */
+    public int gather(int level, RouteStore route, int completed, float left, float top, float right, float bottom) {
+        int[] indices = mIndices[level];
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+        int end = Math.max(completed - mPointCount + 1, 0);
+
+        // At most every segment of the level, one more reaching the last point, and the appended ones
+        if (mSegments.length < (indices.length + end + 1) * 4) {
+            mSegments = new float[(indices.length + end + 1) * 4];
+            mOrigins = new int[indices.length + end + 1];
+        }
+
+        int count = 0;
+        int from = 0;
+
+        for (int j = 1; j < indices.length && indices[j] <= completed; j++) {
+            count = add(count, xs, ys, from, indices[j], left, top, right, bottom);
+            from = indices[j];
+        }
+
+        if (completed < mPointCount) {
+            // Chord from the last point of the level towards the last point to reach
+            if (from < completed) {
+                count = add(count, xs, ys, from, completed, left, top, right, bottom);
+            }
+        } else {
+            for (int i = mPointCount; i <= completed; i++) {
+                count = add(count, xs, ys, i - 1, i, left, top, right, bottom);
+            }
+        }
+
+        return count;
+    }
+
+    private int add(int count, float[] xs, float[] ys, int from, int to, float left, float top, float right,
+                    float bottom) {
+        float x0 = xs[from], y0 = ys[from], x1 = xs[to], y1 = ys[to];
+
+        if (Math.max(x0, x1) < left || Math.min(x0, x1) > right || Math.max(y0, y1) < top
+                || Math.min(y0, y1) > bottom) {
+            return count;
+        }
+
+        int j = count * 4;
+        mSegments[j] = x0;
+        mSegments[j + 1] = y0;
+        mSegments[j + 2] = x1;
+        mSegments[j + 3] = y1;
+        mOrigins[count] = from;
+        return count + 1;
+    }
+
+    /**
+     * @return the segments gathered by the last call to {@link #gather}, 4 floats each
+     */
+    public float[] getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * @return the index of the point each gathered segment starts from, in increasing order
+     */
+    public int[] getOrigins() {
+        return mOrigins;
+    }
+
+    /**
+     * Drops the gathered segments to free their memory.
+     */
+    public void release() {
+        mSegments = EMPTY;
+        mOrigins = NONE;
+    }
+}
@@ -0,0 +1,155 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * Tracks the region which changed between two frames of a {@link RouteAnimation}: the pathways which grew (including
+ * the one which is currently growing) and the circles around the pulsing points, at their maximum size. The region
+ * of the previous frame is included as well, so that whatever was drawn there and is gone now gets erased, but not
+ * the ones before it: the region stays as small as what changes from one frame to the next.
+ * </p>
+ * <p>
+ * Bounds are exposed as floats in the coordinate space of the route; the renderer rounds them out to pixels.
+ * </p>
+ */
+public class DirtyRegion {
+    // Region to redraw: the one of this frame, along with the one of the previous frame
+    private float mLeft, mTop, mRight, mBottom;
+    private boolean mEmpty = true;
+
+    // What this frame draws which may change by the next one
+    private float mCurrentLeft, mCurrentTop, mCurrentRight, mCurrentBottom;
+    private boolean mCurrentEmpty = true;
+
+    private float mLastLeft, mLastTop, mLastRight, mLastBottom;
+    private boolean mLastEmpty = true;
+
+    // Number of completed pathways the last region was computed for
+    private int mLastCompleted;
+
+    /**
+     * Computes the region which changed since the last call.
+     *
+     * @param route
+     * @param animation
+     * @param pointMargin distance around the points and the growing head which may be drawn on (stroke and fixed
+     *                    circles)
+     * @param pulseRadius maximum radius of the circles around the pulsing points
+     * @return false if the whole view should be redrawn instead, e.g. because the playback was restarted
+     */
+    public boolean update(RouteStore route, RouteAnimation animation, float pointMargin, float pulseRadius) {
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+        int completed = animation.getCompletedSegments();
+
+        if (completed < mLastCompleted) {
+            // The playback was restarted, everything that was drawn so far is gone
+            mLastCompleted = completed;
+            mLastEmpty = true;
+            return false;
+        }
+
+        mCurrentEmpty = true;
+
+        // Every point reached since the last frame, as well as the head of the pathway which is growing now
+        int lastReached = Math.min(completed, route.size() - 1);
+        for (int i = mLastCompleted; i <= lastReached; i++) {
+            union(xs[i], ys[i], pointMargin);
+        }
+
+        if (animation.isHeadGrowing()) {
+            union(animation.getHeadX(), animation.getHeadY(), pointMargin);
+        }
+
+        int lastPulse = animation.getLastPulse();
+        for (int i = animation.getFirstPulse(); i <= lastPulse; i++) {
+            union(xs[i], ys[i], pulseRadius);
+        }
+
+        mLeft = mCurrentLeft;
+        mTop = mCurrentTop;
+        mRight = mCurrentRight;
+        mBottom = mCurrentBottom;
+        mEmpty = mCurrentEmpty;
+
+        // Whatever the previous frame drew may be gone now
+        if (!mLastEmpty) {
+            union(mLastLeft, mLastTop, mLastRight, mLastBottom);
+        }
+
+        // Only what is dirty on this frame must be redrawn on the next one as well, in case it disappears by then.
+        // Pathways completed before it never change again, so the region doesn't grow along with the route
+        mLastLeft = mCurrentLeft;
+        mLastTop = mCurrentTop;
+        mLastRight = mCurrentRight;
+        mLastBottom = mCurrentBottom;
+        mLastEmpty = mCurrentEmpty;
+        mLastCompleted = completed;
+
+        return !mEmpty;
+    }
+
+    /**
+     * Forgets the previous frames, e.g. because the playback jumped to another position. The next call to
+     * {@link #update(RouteStore, RouteAnimation, float, float)} then asks for the whole view to be redrawn.
+     */
+    public void reset() {
+        mLastCompleted = Integer.MAX_VALUE;
+        mLastEmpty = true;
+    }
+
+    /**
+     * Grows the region of this frame so that it contains the square of the given radius around a point.
+     */
+    private void union(float x, float y, float radius) {
+        if (mCurrentEmpty) {
+            mCurrentLeft = x - radius;
+            mCurrentTop = y - radius;
+            mCurrentRight = x + radius;
+            mCurrentBottom = y + radius;
+            mCurrentEmpty = false;
+        } else {
+            mCurrentLeft = Math.min(mCurrentLeft, x - radius);
+            mCurrentTop = Math.min(mCurrentTop, y - radius);
+            mCurrentRight = Math.max(mCurrentRight, x + radius);
+            mCurrentBottom = Math.max(mCurrentBottom, y + radius);
+        }
+    }
+
+    /**
+     * Grows the region to redraw so that it contains the given rectangle.
+     */
+    private void union(float left, float top, float right, float bottom) {
+        if (mEmpty) {
+            mLeft = left;
+            mTop = top;
+            mRight = right;
+            mBottom = bottom;
+            mEmpty = false;
+        } else {
+            mLeft = Math.min(mLeft, left);
+            mTop = Math.min(mTop, top);
+            mRight = Math.max(mRight, right);
+            mBottom = Math.max(mBottom, bottom);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mEmpty;
+    }
+
+    public float getLeft() {
+        return mLeft;
+    }
+
+    public float getTop() {
+        return mTop;
+    }
+
+    public float getRight() {
+        return mRight;
+    }
+
+    public float getBottom() {
+        return mBottom;
+    }
+}
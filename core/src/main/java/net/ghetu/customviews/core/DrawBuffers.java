@@ -0,0 +1,120 @@
+package net.ghetu.customviews.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reusable float buffers holding the geometry of a {@link RouteStore} in the layout expected by
+ * {@code Canvas.drawLines(float[], int, int, Paint)} (4 floats per segment) and
+ * {@code Canvas.drawPoints(float[], int, int, Paint)} (2 floats per point). This lets the view draw any number of
+ * segments or points with a single call.
+ * </p>
+ * <p>
+ * The buffers are filled incrementally: segments and points which were packed on a previous frame are not packed
+ * again, since points can only be appended to a route. {@link #invalidate()} must be called whenever existing
+ * points change.
+ * </p>
+ * <p>
+ * Packing never allocates as long as {@link #ensureCapacity(int)} was called for the size of the route beforehand,
+ * so it can be done on every frame without producing garbage.
+ * </p>
+ */
+public class DrawBuffers {
+    private static final float[] EMPTY = new float[0];
+
+    private float[] mSegments = EMPTY;
+    private float[] mPoints = EMPTY;
+
+    // Number of segments / points which are already packed into the buffers
+    private int mPackedSegments;
+    private int mPackedPoints;
+
+    /**
+     * Makes sure that the first {@code count} segments of the route are packed and returns the buffer. The segments
+     * occupy the first {@code count * 4} values.
+     *
+     * @param route
+     * @param count
+     * @return
+     */
+    public float[] packSegments(RouteStore route, int count) {
+        if (count > mPackedSegments) {
+            ensureCapacity(count + 1);
+
+            float[] xs = route.getXs();
+            float[] ys = route.getYs();
+
+            for (int i = mPackedSegments, j = i * 4; i < count; i++, j += 4) {
+                mSegments[j] = xs[i];
+                mSegments[j + 1] = ys[i];
+                mSegments[j + 2] = xs[i + 1];
+                mSegments[j + 3] = ys[i + 1];
+            }
+
+            mPackedSegments = count;
+        }
+
+        return mSegments;
+    }
+
+    /**
+     * Makes sure that the first {@code count} points of the route are packed and returns the buffer. The points
+     * occupy the first {@code count * 2} values.
+     *
+     * @param route
+     * @param count
+     * @return
+     */
+    public float[] packPoints(RouteStore route, int count) {
+        if (count > mPackedPoints) {
+            ensureCapacity(count);
+
+            float[] xs = route.getXs();
+            float[] ys = route.getYs();
+
+            for (int i = mPackedPoints, j = i * 2; i < count; i++, j += 2) {
+                mPoints[j] = xs[i];
+                mPoints[j + 1] = ys[i];
+            }
+
+            mPackedPoints = count;
+        }
+
+        return mPoints;
+    }
+
+    /**
+     * Grows the buffers so that a route of the given number of points can be packed without allocating. Should be
+     * called whenever points are added, outside of the drawing path.
+     *
+     * @param points
+     */
+    public void ensureCapacity(int points) {
+        int segments = Math.max(points - 1, 0);
+
+        if (segments * 4 > mSegments.length) {
+            mSegments = Arrays.copyOf(mSegments, Math.max(segments * 4, mSegments.length * 2));
+        }
+
+        if (points * 2 > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, Math.max(points * 2, mPoints.length * 2));
+        }
+    }
+
+    /**
+     * Forgets everything that was packed, e.g. because the points of the route were replaced.
+     */
+    public void invalidate() {
+        mPackedSegments = 0;
+        mPackedPoints = 0;
+    }
+
+    /**
+     * Drops the buffers to free their memory. They are grown (and packed) again the next time they are needed.
+     */
+    public void release() {
+        mSegments = EMPTY;
+        mPoints = EMPTY;
+        invalidate();
+    }
+}
@@ -0,0 +1,25 @@
+package net.ghetu.customviews.core;
+
+/**
+ * Primitive counterparts of the platform's type evaluators. They are used on every frame, so unlike
+ * {@code ValueAnimator.getAnimatedValue()} they never box their results.
+ */
+public final class Evaluators {
+
+    private Evaluators() {
+    }
+
+    /**
+     * Returns the value between start and end for the given fraction (between 0 and 1).
+     */
+    public static float evaluate(float fraction, float start, float end) {
+        return start + (end - start) * fraction;
+    }
+
+    /**
+     * Returns the value between start and end for the given fraction (between 0 and 1), truncated to an int.
+     */
+    public static int evaluate(float fraction, int start, int end) {
+        return (int) (start + (end - start) * fraction);
+    }
+}
@@ -0,0 +1,411 @@
+package net.ghetu.customviews.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Groups the points of a route which are close to each other at a given zoom into clusters, so that dense point
+ * sets can be drawn as a few markers with a count instead of a blob of overlapping circles. Points are clustered
+ * by the cell of a grid they fall in; each cluster knows its number of points, their centroid and its first point.
+ * </p>
+ * <p>
+ * Levels are numbered by zoom: level k has cells of {@code clusterSize / 2^k}, so that it is meant for a scale
+ * between {@code 2^k} and {@code 2^(k+1)}. Cells are aligned from one level to the next (each cell is made of 4 cells
+ * of the finer level), so a level is computed by merging the clusters of the finer one rather than by going through
+ * the points again. Levels are computed the first time they are needed and kept, and points appended to the route
+ * are added to every level which was computed, so a change of zoom only costs the clusters of one level.
+ * </p>
+ * <p>
+ * The first level is computed from the points, which is the only step going over all of them. A renderer computes
+ * it off the UI thread with {@link #computeLevel(float[], float[], int, int)} and hands it over with
+ * {@link #setFirstLevel(Level)}. For large routes, the computation is split across the threads of an
+ * {@link ExecutorService} (see {@link #setExecutor(ExecutorService, int)}), each one clustering a range of points,
+ * after which their clusters are merged. Clusters are numbered in the order of their first point either way.
+ * </p>
+ */
+public class PointClusters {
+    /**
+     * Finest level, for a zoom of 2^12
+     */
+    public static final int MAX_LEVEL = 12;
+
+    private static final long FREE = Long.MIN_VALUE;
+    // Below this, splitting the work costs more than it saves
+    private static final int PARALLEL_MIN_POINTS = 20000;
+
+    // Converts coordinates into columns (or rows) of the finest level
+    private final double mFinestScale;
+
+    private final Level[] mLevels = new Level[MAX_LEVEL + 1];
+    // Number of points of the route in every computed level
+    private int mIndexed;
+    private Level mSelected;
+
+    private ExecutorService mExecutor;
+    private int mParallelism = 1;
+
+    /**
+     * @param clusterSize width and height of the cells of level 0, in route coordinates
+     */
+    public PointClusters(float clusterSize) {
+        if (clusterSize <= 0) {
+            throw new IllegalArgumentException("The cells must not be empty");
+        }
+
+        mFinestScale = (1 << MAX_LEVEL) / (double) clusterSize;
+    }
+
+    /**
+     * Lets {@link #computeLevel(float[], float[], int, int)} cluster large routes with several threads at once.
+     *
+     * @param executor    runs the parts, or null to cluster on the calling thread only
+     * @param parallelism number of parts the points are split into, e.g. the number of cores
+     */
+    public void setExecutor(ExecutorService executor, int parallelism) {
+        mExecutor = executor;
+        mParallelism = Math.max(parallelism, 1);
+    }
+
+    /**
+     * @param scale of the view
+     * @return the level meant for the given scale
+     */
+    public static int getLevel(float scale) {
+        int level = 0;
+        while (level < MAX_LEVEL && scale >= 2 << level) {
+            level++;
+        }
+
+        return level;
+    }
+
+    /**
+     * Makes the given level the one returned by the getters, computing it if needed. The points which were appended
+     * to the route since the last call are clustered first. If the route got shorter, every level is computed again
+     * from scratch; {@link #clear()} must be called when existing points change.
+     * <p>
+     * A level coarser than one which is computed already is merged from it, in time proportional to its number of
+     * clusters. Otherwise the level is computed from the points, on the calling thread: to avoid this, select
+     * levels up to {@link #getFinestLevel()} only.
+     * </p>
+     *
+     * @param route
+     * @param level       see {@link #getLevel(float)}
+     * @param finestLevel when no level is computed yet, the one computed from the points, from which the coarser
+     *                    ones are then merged. Usually the level of the maximum zoom
+     * @return the number of clusters of the level
+     */
+    public int select(RouteStore route, int level, int finestLevel) {
+        int count = route.size();
+        if (count < mIndexed) {
+            clear();
+        }
+
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+
+        for (int k = 0; k <= MAX_LEVEL; k++) {
+            if (mLevels[k] == null) continue;
+
+            for (int i = mIndexed; i < count; i++) {
+                mLevels[k].add(key(xs[i], ys[i], k), 1, xs[i], ys[i], i);
+            }
+        }
+        mIndexed = count;
+
+        if (mLevels[level] == null) {
+            int finer = level + 1;
+            while (finer <= MAX_LEVEL && mLevels[finer] == null) {
+                finer++;
+            }
+
+            if (finer > MAX_LEVEL) {
+                finer = Math.max(level, Math.min(finestLevel, MAX_LEVEL));
+                mLevels[finer] = cluster(xs, ys, 0, count, finer);
+            }
+
+            for (int k = finer - 1; k >= level; k--) {
+                mLevels[k] = mLevels[k + 1].coarsen();
+            }
+        }
+
+        mSelected = mLevels[level];
+        return mSelected.mCount;
+    }
+
+    /**
+     * Clusters the first points of a route at the given level, in parallel when worth it. Only the given arrays are
+     * read, so this may run on any thread, e.g. on a copy of the points; it waits for the parts given to the
+     * executor, so it should not run on the UI thread.
+     *
+     * @param xs
+     * @param ys
+     * @param count number of points to cluster
+     * @param level see {@link #getLevel(float)}
+     * @return the level, to give to {@link #setFirstLevel(Level)}
+     */
+    public Level computeLevel(final float[] xs, final float[] ys, int count, final int level) {
+        if (mExecutor == null || mParallelism < 2 || count < PARALLEL_MIN_POINTS) {
+            return cluster(xs, ys, 0, count, level);
+        }
+
+        int partSize = (count + mParallelism - 1) / mParallelism;
+        List<Future<Level>> parts = new ArrayList<Future<Level>>(mParallelism);
+
+        for (int from = 0; from < count; from += partSize) {
+            final int start = from;
+            final int end = Math.min(from + partSize, count);
+
+            parts.add(mExecutor.submit(new Callable<Level>() {
+                @Override
+                public Level call() {
+                    return cluster(xs, ys, start, end, level);
+                }
+            }));
+        }
+
+        try {
+            // Parts are merged in order, so clusters stay numbered by their first point
+            Level merged = parts.get(0).get();
+            for (int i = 1; i < parts.size(); i++) {
+                merged.merge(parts.get(i).get(), 0);
+            }
+
+            merged.mPoints = count;
+            return merged;
+        } catch (InterruptedException e) {
+            for (Future<Level> part : parts) {
+                part.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+
+            return cluster(xs, ys, 0, count, level);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Clustering failed", e.getCause());
+        }
+    }
+
+    /**
+     * Replaces every level with one computed by {@link #computeLevel(float[], float[], int, int)}. The points
+     * appended to the route after the ones it was computed from are clustered by the next call to
+     * {@link #select(RouteStore, int, int)}.
+     *
+     * @param level
+     */
+    public void setFirstLevel(Level level) {
+        clear();
+        mLevels[level.mLevel] = level;
+        mIndexed = level.mPoints;
+    }
+
+    /**
+     * @return the finest level which is computed, from which any coarser one can be merged, or -1 if none is
+     */
+    public int getFinestLevel() {
+        for (int k = MAX_LEVEL; k >= 0; k--) {
+            if (mLevels[k] != null) return k;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Forgets every level, e.g. because the points of the route changed.
+     */
+    public void clear() {
+        Arrays.fill(mLevels, null);
+        mIndexed = 0;
+        mSelected = null;
+    }
+
+    /**
+     * @return the number of points in the given cluster of the selected level
+     */
+    public int getSize(int cluster) {
+        return mSelected.mSizes[cluster];
+    }
+
+    /**
+     * @return the X coordinate of the centroid of the points of the given cluster
+     */
+    public float getX(int cluster) {
+        return (float) (mSelected.mSumXs[cluster] / mSelected.mSizes[cluster]);
+    }
+
+    /**
+     * @return the Y coordinate of the centroid of the points of the given cluster
+     */
+    public float getY(int cluster) {
+        return (float) (mSelected.mSumYs[cluster] / mSelected.mSizes[cluster]);
+    }
+
+    /**
+     * @return the index of the first point of the given cluster
+     */
+    public int getFirst(int cluster) {
+        return mSelected.mFirsts[cluster];
+    }
+
+    /**
+     * Finds the cluster of the selected level which a point at the given position belongs to.
+     *
+     * @param x
+     * @param y
+     * @return the cluster, or -1 if no point of the route falls in the same cell
+     */
+    public int indexOf(float x, float y) {
+        int slot = mSelected.find(key(x, y, mSelected.mLevel));
+        return slot < 0 ? -1 : mSelected.mClusters[slot];
+    }
+
+    private Level cluster(float[] xs, float[] ys, int from, int to, int level) {
+        Level clusters = new Level(level);
+
+        for (int i = from; i < to; i++) {
+            clusters.add(key(xs[i], ys[i], level), 1, xs[i], ys[i], i);
+        }
+
+        clusters.mPoints = to;
+        return clusters;
+    }
+
+    private long key(float x, float y, int level) {
+        int shift = MAX_LEVEL - level;
+        // Columns of the coarser levels are derived from the ones of the finest, so the cells always line up
+        int column = (int) ((long) Math.floor(x * mFinestScale) >> shift);
+        int row = (int) ((long) Math.floor(y * mFinestScale) >> shift);
+
+        return key(column, row);
+    }
+
+    private static long key(int column, int row) {
+        return (long) column << 32 | (row & 0xffffffffL);
+    }
+
+    private static int hash(long key) {
+        // Mix the bits so that neighbouring cells don't end up in neighbouring slots
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Clusters of one level: an open addressing table from cell keys to clusters, and the clusters themselves.
+     */
+    public static final class Level {
+        private final int mLevel;
+        // Number of points of the route it was computed from
+        private int mPoints;
+
+        private long[] mKeys = new long[64];
+        private int[] mClusters = new int[64];
+
+        private long[] mCells = new long[16];
+        private int[] mSizes = new int[16];
+        private double[] mSumXs = new double[16];
+        private double[] mSumYs = new double[16];
+        private int[] mFirsts = new int[16];
+        private int mCount;
+
+        Level(int level) {
+            mLevel = level;
+            Arrays.fill(mKeys, FREE);
+        }
+
+        void add(long cell, int size, double sumX, double sumY, int first) {
+            int slot = find(cell);
+
+            if (slot >= 0) {
+                int cluster = mClusters[slot];
+                mSizes[cluster] += size;
+                mSumXs[cluster] += sumX;
+                mSumYs[cluster] += sumY;
+                mFirsts[cluster] = Math.min(mFirsts[cluster], first);
+                return;
+            }
+
+            // Keep the table at most half full so that probing stays short
+            if ((mCount + 1) * 2 > mKeys.length) {
+                rehash(mKeys.length * 2);
+            }
+
+            if (mCount == mSizes.length) {
+                int capacity = mCount * 2;
+                mCells = Arrays.copyOf(mCells, capacity);
+                mSizes = Arrays.copyOf(mSizes, capacity);
+                mSumXs = Arrays.copyOf(mSumXs, capacity);
+                mSumYs = Arrays.copyOf(mSumYs, capacity);
+                mFirsts = Arrays.copyOf(mFirsts, capacity);
+            }
+
+            slot = ~find(cell);
+            mKeys[slot] = cell;
+            mClusters[slot] = mCount;
+
+            mCells[mCount] = cell;
+            mSizes[mCount] = size;
+            mSumXs[mCount] = sumX;
+            mSumYs[mCount] = sumY;
+            mFirsts[mCount] = first;
+            mCount++;
+        }
+
+        /**
+         * Adds the clusters of another level, with their cells shifted by the given number of levels.
+         */
+        void merge(Level other, int shift) {
+            for (int i = 0; i < other.mCount; i++) {
+                long cell = other.mCells[i];
+                long shifted = shift == 0 ? cell : key((int) (cell >> 32) >> shift, (int) cell >> shift);
+
+                add(shifted, other.mSizes[i], other.mSumXs[i], other.mSumYs[i], other.mFirsts[i]);
+            }
+        }
+
+        /**
+         * @return the next coarser level, whose cells are made of 4 cells of this one
+         */
+        Level coarsen() {
+            Level coarser = new Level(mLevel - 1);
+            coarser.merge(this, 1);
+            return coarser;
+        }
+
+        /**
+         * Returns the slot of the given key, or the complement of the free slot it would be stored in.
+         */
+        int find(long key) {
+            int mask = mKeys.length - 1;
+            int slot = hash(key) & mask;
+
+            while (mKeys[slot] != FREE) {
+                if (mKeys[slot] == key) return slot;
+                slot = (slot + 1) & mask;
+            }
+
+            return ~slot;
+        }
+
+        private void rehash(int capacity) {
+            long[] keys = mKeys;
+            int[] clusters = mClusters;
+
+            mKeys = new long[capacity];
+            mClusters = new int[capacity];
+            Arrays.fill(mKeys, FREE);
+
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE) {
+                    int slot = ~find(keys[i]);
+                    mKeys[slot] = keys[i];
+                    mClusters[slot] = clusters[i];
+                }
+            }
+        }
+    }
+}
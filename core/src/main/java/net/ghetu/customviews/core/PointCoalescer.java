@@ -0,0 +1,201 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * Reduces the samples of a high rate source (e.g. sensor fusion at 50 to 100 Hz) to what can actually be animated,
+ * once per frame. The samples which arrived since the last frame are coalesced according to a policy:
+ * </p>
+ * <ul>
+ * <li>{@link #POLICY_ALL} keeps every sample;</li>
+ * <li>{@link #POLICY_LATEST} keeps the latest sample of the frame and drops the others;</li>
+ * <li>{@link #POLICY_DISTANCE} keeps a sample once it is at least a given distance away from the last kept one;</li>
+ * <li>{@link #POLICY_ANGLE} keeps the samples where the direction turns by at least a given angle, and the latest
+ * sample of the frame, so that straight stretches don't lag behind;</li>
+ * <li>{@link #POLICY_BATCH} keeps every sample, but the samples of a frame are meant to be animated as a single
+ * step.</li>
+ * </ul>
+ * <p>
+ * Samples dropped by {@link #POLICY_LATEST} are counted as dropped; samples folded into their neighbours by the
+ * other policies are counted as merged. Samples are coalesced in place, without allocating.
+ * </p>
+ */
+public class PointCoalescer {
+    public static final int POLICY_ALL = 0;
+    public static final int POLICY_LATEST = 1;
+    public static final int POLICY_DISTANCE = 2;
+    public static final int POLICY_ANGLE = 3;
+    public static final int POLICY_BATCH = 4;
+
+    private int mPolicy = POLICY_ALL;
+    private float mDistance;
+    // Cosine of the angle threshold: a turn is sharp enough when the cosine of its angle is at most this
+    private float mMaxCosine = 1;
+
+    // Last sample kept, which the next ones are compared to
+    private boolean mHasLast;
+    private float mLastX, mLastY;
+
+    private long mDropped;
+    private long mMerged;
+
+    /**
+     * @param policy one of the POLICY_ constants
+     */
+    public void setPolicy(int policy) {
+        if (policy < POLICY_ALL || policy > POLICY_BATCH) {
+            throw new IllegalArgumentException("Unknown policy " + policy);
+        }
+
+        mPolicy = policy;
+    }
+
+    public int getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @param distance minimum distance between kept samples with {@link #POLICY_DISTANCE}, in the units of the
+     *                 coordinates
+     */
+    public void setDistance(float distance) {
+        mDistance = Math.max(distance, 0);
+    }
+
+    public float getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * @param degrees minimum turn for a sample to be kept with {@link #POLICY_ANGLE}
+     */
+    public void setAngle(float degrees) {
+        mMaxCosine = (float) Math.cos(Math.toRadians(Math.max(0, Math.min(180, degrees))));
+    }
+
+    public float getAngle() {
+        return (float) Math.toDegrees(Math.acos(mMaxCosine));
+    }
+
+    /**
+     * Coalesces the samples of one frame. The kept samples are moved to the start of the array, in order.
+     *
+     * @param samples X and Y coordinates, interleaved
+     * @param count   number of samples
+     * @return the number of samples kept
+     */
+    public int coalesce(float[] samples, int count) {
+        if (count == 0) return 0;
+
+        int kept;
+        switch (mPolicy) {
+            case POLICY_LATEST:
+                samples[0] = samples[(count - 1) * 2];
+                samples[1] = samples[(count - 1) * 2 + 1];
+                kept = 1;
+                mDropped += count - 1;
+                break;
+            case POLICY_DISTANCE:
+                kept = decimateByDistance(samples, count);
+                mMerged += count - kept;
+                break;
+            case POLICY_ANGLE:
+                kept = decimateByAngle(samples, count);
+                mMerged += count - kept;
+                break;
+            case POLICY_BATCH:
+                kept = count;
+                mMerged += count - 1;
+                break;
+            default:
+                kept = count;
+                break;
+        }
+
+        if (kept > 0) {
+            mHasLast = true;
+            mLastX = samples[(kept - 1) * 2];
+            mLastY = samples[(kept - 1) * 2 + 1];
+        }
+
+        return kept;
+    }
+
+    private int decimateByDistance(float[] samples, int count) {
+        float squaredDistance = mDistance * mDistance;
+        boolean hasLast = mHasLast;
+        float lastX = mLastX, lastY = mLastY;
+        int kept = 0;
+
+        for (int i = 0; i < count; i++) {
+            float x = samples[i * 2];
+            float y = samples[i * 2 + 1];
+            float dx = x - lastX, dy = y - lastY;
+
+            if (!hasLast || dx * dx + dy * dy >= squaredDistance) {
+                samples[kept * 2] = x;
+                samples[kept * 2 + 1] = y;
+                kept++;
+
+                hasLast = true;
+                lastX = x;
+                lastY = y;
+            }
+        }
+
+        return kept;
+    }
+
+    private int decimateByAngle(float[] samples, int count) {
+        boolean hasLast = mHasLast;
+        float lastX = mLastX, lastY = mLastY;
+        int kept = 0;
+
+        for (int i = 0; i < count; i++) {
+            float x = samples[i * 2];
+            float y = samples[i * 2 + 1];
+            boolean keep = !hasLast || i == count - 1;
+
+            if (!keep) {
+                // Direction towards this sample, against the direction leaving it
+                float ax = x - lastX, ay = y - lastY;
+                float bx = samples[i * 2 + 2] - x, by = samples[i * 2 + 3] - y;
+                float lengths = (float) Math.sqrt((ax * ax + ay * ay) * (bx * bx + by * by));
+
+                keep = lengths > 0 && (ax * bx + ay * by) <= mMaxCosine * lengths;
+            }
+
+            if (keep) {
+                samples[kept * 2] = x;
+                samples[kept * 2 + 1] = y;
+                kept++;
+
+                hasLast = true;
+                lastX = x;
+                lastY = y;
+            }
+        }
+
+        return kept;
+    }
+
+    /**
+     * Forgets the last kept sample, e.g. because the points of the route were replaced.
+     */
+    public void reset() {
+        mHasLast = false;
+    }
+
+    /**
+     * @return the number of samples dropped so far
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * @return the number of samples merged into their neighbours so far
+     */
+    public long getMergedCount() {
+        return mMerged;
+    }
+}
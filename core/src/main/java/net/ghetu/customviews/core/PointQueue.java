@@ -0,0 +1,171 @@
+package net.ghetu.customviews.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Lock-free single-producer / single-consumer queue of points, to hand coordinates from a background thread (e.g. a
+ * live GPS feed) over to the UI thread. The points are stored in a ring of interleaved coordinates; the producer and
+ * the consumer each own one counter, which the other one only reads. Publishing a point is a store of the producer's
+ * counter with release semantics ({@link AtomicLong#lazySet(long)}), so neither side ever waits for the other.
+ * </p>
+ * <p>
+ * {@link #offer(float, float)} and {@link #offer(float[], int, int)} must only be called by one thread at a time,
+ * and the drainTo methods by one (other) thread. The queue is bounded: when it is full, points are refused
+ * rather than blocking the producer.
+ * </p>
+ */
+public class PointQueue {
+    private final float[] mBuffer;
+    private final int mCapacity;
+    private final int mMask;
+
+    // Number of points read by the consumer so far
+    private final AtomicLong mHead = new AtomicLong();
+    // Number of points published by the producer so far
+    private final AtomicLong mTail = new AtomicLong();
+
+    // Last value of mHead seen by the producer, so that it only reads the consumer's counter when the ring looks full
+    private long mHeadCache;
+    // Number of points refused because the queue was full. Only written by the producer
+    private volatile long mRefused;
+
+    /**
+     * @param capacity maximum number of points waiting to be drained, rounded up to a power of two
+     */
+    public PointQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The queue must hold at least one point");
+        }
+
+        int rounded = 1;
+        while (rounded < capacity) {
+            rounded <<= 1;
+        }
+
+        mCapacity = rounded;
+        mMask = mCapacity - 1;
+        mBuffer = new float[mCapacity * 2];
+    }
+
+    /**
+     * Appends a point. Must only be called from the producer thread.
+     *
+     * @param x
+     * @param y
+     * @return false if the queue is full, in which case the point is dropped
+     */
+    public boolean offer(float x, float y) {
+        long tail = mTail.get();
+
+        if (tail - mHeadCache >= mCapacity) {
+            mHeadCache = mHead.get();
+            if (tail - mHeadCache >= mCapacity) {
+                mRefused++;
+                return false;
+            }
+        }
+
+        int i = (int) (tail & mMask) * 2;
+        mBuffer[i] = x;
+        mBuffer[i + 1] = y;
+
+        // Publishes the coordinates written above along with the new tail
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Appends points, publishing them all at once. Must only be called from the producer thread.
+     *
+     * @param points X and Y coordinates, interleaved
+     * @param offset index of the first point in the array
+     * @param count  number of points
+     * @return the number of points appended, fewer than count if the queue got full
+     */
+    public int offer(float[] points, int offset, int count) {
+        long tail = mTail.get();
+        long free = mCapacity - (tail - mHeadCache);
+
+        if (free < count) {
+            mHeadCache = mHead.get();
+            free = mCapacity - (tail - mHeadCache);
+        }
+
+        int accepted = (int) Math.min(count, free);
+        for (int k = 0; k < accepted; k++) {
+            int i = (int) ((tail + k) & mMask) * 2;
+            mBuffer[i] = points[(offset + k) * 2];
+            mBuffer[i + 1] = points[(offset + k) * 2 + 1];
+        }
+
+        if (accepted > 0) {
+            mTail.lazySet(tail + accepted);
+        }
+        if (accepted < count) {
+            mRefused += count - accepted;
+        }
+
+        return accepted;
+    }
+
+    /**
+     * Appends every point published so far to the route, in order. Must only be called from the consumer thread.
+     *
+     * @param route
+     * @return the number of points drained
+     */
+    public int drainTo(RouteStore route) {
+        long head = mHead.get();
+        long tail = mTail.get();
+
+        for (long p = head; p < tail; p++) {
+            int i = (int) (p & mMask) * 2;
+            route.add(mBuffer[i], mBuffer[i + 1]);
+        }
+
+        // Lets the producer reuse the slots which were just read
+        mHead.lazySet(tail);
+        return (int) (tail - head);
+    }
+
+    /**
+     * Copies the points published so far into the given array, in order, e.g. to coalesce them before they get
+     * appended. Must only be called from the consumer thread.
+     *
+     * @param points receives the X and Y coordinates, interleaved. Holding {@link #getCapacity()} points is enough
+     *               to always drain the whole queue
+     * @return the number of points drained
+     */
+    public int drainTo(float[] points) {
+        long head = mHead.get();
+        long tail = Math.min(mTail.get(), head + points.length / 2);
+
+        for (long p = head, j = 0; p < tail; p++, j += 2) {
+            int i = (int) (p & mMask) * 2;
+            points[(int) j] = mBuffer[i];
+            points[(int) j + 1] = mBuffer[i + 1];
+        }
+
+        mHead.lazySet(tail);
+        return (int) (tail - head);
+    }
+
+    /**
+     * @return the number of points waiting to be drained. Only an estimate while the producer is appending
+     */
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * @return the number of points refused so far because the queue was full
+     */
+    public long getRefusedCount() {
+        return mRefused;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+}
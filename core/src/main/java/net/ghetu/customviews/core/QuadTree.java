@@ -0,0 +1,301 @@
+package net.ghetu.customviews.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Loose quadtree of axis-aligned boxes, identified by an int. Each node covers its square, extended by half its size
+ * on every side, so that the nodes of a level overlap. A box goes down to the child holding its center for as long as
+ * it fits within the extended square of that child, i.e. as long as it is no larger than the child. The depth of a
+ * box thus only depends on its size: small boxes crossing the center lines of the nodes, like the segments of a route,
+ * don't pile up in the upper nodes. Leaves are split once they hold more than a few boxes, which keeps the depth
+ * logarithmic in the number of boxes for any reasonable distribution.
+ * </p>
+ * <p>
+ * The tree doesn't need to know the extent of the boxes in advance: when a box falls outside of the root, the root
+ * is doubled towards it (and becomes a child of the new root) until the box fits.
+ * </p>
+ * <p>
+ * Nodes, boxes and the lists of boxes of the nodes are all stored in primitive arrays, so that a tree of 100k boxes
+ * is a handful of arrays rather than 100k objects, and queries don't allocate.
+ * </p>
+ */
+public class QuadTree {
+    private static final int MAX_ITEMS_PER_LEAF = 8;
+    private static final float INITIAL_SIZE = 256;
+    // Below this size nodes aren't split anymore, e.g. when many boxes are at the exact same position
+    private static final float MIN_SIZE = 1e-3f;
+
+    // Nodes are squares: left, top and size, their 4 children (or -1) and the first link of their list of boxes
+    private float[] mNodeLeft = new float[16];
+    private float[] mNodeTop = new float[16];
+    private float[] mNodeSize = new float[16];
+    private int[] mNodeChildren = new int[64];
+    private int[] mNodeItemCount = new int[16];
+    private int[] mNodeHead = new int[16];
+    private int mNodeCount;
+    private int mRoot = -1;
+
+    // Boxes, by item
+    private float[] mLeft = new float[16];
+    private float[] mTop = new float[16];
+    private float[] mRight = new float[16];
+    private float[] mBottom = new float[16];
+    private int mSize;
+
+    // Lists of the boxes of the nodes: the next item in the list of the node of each item, or -1
+    private int[] mNext = new int[16];
+
+    private int[] mStack = new int[64];
+    private int[] mResults = new int[16];
+    private int mResultCount;
+    // Number of boxes the last query compared against its rectangle
+    private int mCandidateCount;
+
+    /**
+     * Adds a box to the tree. Items are numbered in the order they are inserted, starting from 0.
+     *
+     * @param left
+     * @param top
+     * @param right
+     * @param bottom
+     * @return the item of the box
+     */
+    public int insert(float left, float top, float right, float bottom) {
+        int item = mSize;
+        ensureItemCapacity(item + 1);
+
+        mLeft[item] = left;
+        mTop[item] = top;
+        mRight[item] = right;
+        mBottom[item] = bottom;
+        mSize++;
+
+        if (mRoot < 0) {
+            mRoot = newNode(left - INITIAL_SIZE / 2, top - INITIAL_SIZE / 2, INITIAL_SIZE);
+        }
+
+        while (!contains(mRoot, item)) {
+            growRoot(item);
+        }
+
+        int node = mRoot;
+        while (true) {
+            if (mNodeChildren[node * 4] >= 0) {
+                int quadrant = getQuadrant(node, item);
+
+                if (quadrant >= 0) {
+                    node = mNodeChildren[node * 4 + quadrant];
+                    continue;
+                }
+            }
+
+            link(node, item);
+
+            if (mNodeChildren[node * 4] < 0 && mNodeItemCount[node] > MAX_ITEMS_PER_LEAF
+                    && mNodeSize[node] > MIN_SIZE) {
+                split(node);
+            }
+
+            return item;
+        }
+    }
+
+    /**
+     * Removes every box.
+     */
+    public void clear() {
+        mNodeCount = 0;
+        mRoot = -1;
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Finds the boxes which intersect the given rectangle. Their items are then returned by {@link #getResults()},
+     * in no particular order.
+     *
+     * @param left
+     * @param top
+     * @param right
+     * @param bottom
+     * @return the number of boxes found
+     */
+    public int query(float left, float top, float right, float bottom) {
+        mResultCount = 0;
+        mCandidateCount = 0;
+        if (mRoot < 0) return 0;
+
+        int depth = 0;
+        mStack[depth++] = mRoot;
+
+        while (depth > 0) {
+            int node = mStack[--depth];
+            // The boxes of a node may exceed its square by half its size
+            float margin = mNodeSize[node] / 2;
+            float nodeLeft = mNodeLeft[node] - margin;
+            float nodeTop = mNodeTop[node] - margin;
+            float nodeSize = mNodeSize[node] + margin * 2;
+
+            if (nodeLeft > right || nodeTop > bottom || nodeLeft + nodeSize < left || nodeTop + nodeSize < top) {
+                continue;
+            }
+
+            mCandidateCount += mNodeItemCount[node];
+            for (int item = mNodeHead[node]; item >= 0; item = mNext[item]) {
+                if (mLeft[item] <= right && mTop[item] <= bottom && mRight[item] >= left && mBottom[item] >= top) {
+                    if (mResultCount == mResults.length) {
+                        mResults = Arrays.copyOf(mResults, mResultCount * 2);
+                    }
+                    mResults[mResultCount++] = item;
+                }
+            }
+
+            if (mNodeChildren[node * 4] >= 0) {
+                if (depth + 4 > mStack.length) {
+                    mStack = Arrays.copyOf(mStack, mStack.length * 2);
+                }
+
+                for (int i = 0; i < 4; i++) {
+                    mStack[depth++] = mNodeChildren[node * 4 + i];
+                }
+            }
+        }
+
+        return mResultCount;
+    }
+
+    /**
+     * @return the items found by the last query. Only as many values as it returned are meaningful
+     */
+    public int[] getResults() {
+        return mResults;
+    }
+
+    /**
+     * @return the number of boxes the last query compared against its rectangle, found or not
+     */
+    public int getCandidateCount() {
+        return mCandidateCount;
+    }
+
+    /**
+     * @return the quadrant of the node (0 to 3, in reading order) which holds the center of the box, or -1 if the box
+     * is larger than the quadrants and thus stays in the node. The center of the box being within the node, a box
+     * which is no larger than a quadrant fits within its extended square
+     */
+    private int getQuadrant(int node, int item) {
+        float half = mNodeSize[node] / 2;
+        if (mRight[item] - mLeft[item] > half || mBottom[item] - mTop[item] > half) {
+            return -1;
+        }
+
+        int column = (mLeft[item] + mRight[item]) / 2 < mNodeLeft[node] + half ? 0 : 1;
+        int row = (mTop[item] + mBottom[item]) / 2 < mNodeTop[node] + half ? 0 : 1;
+
+        return row * 2 + column;
+    }
+
+    private boolean contains(int node, int item) {
+        float left = mNodeLeft[node];
+        float top = mNodeTop[node];
+        float size = mNodeSize[node];
+
+        return mLeft[item] >= left && mTop[item] >= top && mRight[item] < left + size && mBottom[item] < top + size;
+    }
+
+    /**
+     * Doubles the root towards the given box. The old root becomes one of the children of the new one.
+     */
+    private void growRoot(int item) {
+        int oldRoot = mRoot;
+        float left = mNodeLeft[oldRoot];
+        float top = mNodeTop[oldRoot];
+        float size = mNodeSize[oldRoot];
+
+        // Grow to the left (or up) if the box exceeds on that side, otherwise to the right (or down)
+        boolean growLeft = mLeft[item] < left;
+        boolean growUp = mTop[item] < top;
+
+        float newLeft = growLeft ? left - size : left;
+        float newTop = growUp ? top - size : top;
+        int root = newNode(newLeft, newTop, size * 2);
+
+        int oldQuadrant = (growUp ? 2 : 0) + (growLeft ? 1 : 0);
+
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int child = quadrant == oldQuadrant ? oldRoot
+                    : newNode(newLeft + (quadrant % 2) * size, newTop + (quadrant / 2) * size, size);
+
+            mNodeChildren[root * 4 + quadrant] = child;
+        }
+
+        mRoot = root;
+    }
+
+    /**
+     * Gives 4 children to a leaf, and moves down the boxes which fit in one of them.
+     */
+    private void split(int node) {
+        float half = mNodeSize[node] / 2;
+
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int child = newNode(mNodeLeft[node] + (quadrant % 2) * half, mNodeTop[node] + (quadrant / 2) * half, half);
+            mNodeChildren[node * 4 + quadrant] = child;
+        }
+
+        int item = mNodeHead[node];
+        mNodeHead[node] = -1;
+        mNodeItemCount[node] = 0;
+
+        while (item >= 0) {
+            int next = mNext[item];
+            int quadrant = getQuadrant(node, item);
+
+            link(quadrant >= 0 ? mNodeChildren[node * 4 + quadrant] : node, item);
+            item = next;
+        }
+    }
+
+    private void link(int node, int item) {
+        mNext[item] = mNodeHead[node];
+        mNodeHead[node] = item;
+        mNodeItemCount[node]++;
+    }
+
+    private int newNode(float left, float top, float size) {
+        if (mNodeCount == mNodeLeft.length) {
+            int capacity = mNodeCount * 2;
+            mNodeLeft = Arrays.copyOf(mNodeLeft, capacity);
+            mNodeTop = Arrays.copyOf(mNodeTop, capacity);
+            mNodeSize = Arrays.copyOf(mNodeSize, capacity);
+            mNodeChildren = Arrays.copyOf(mNodeChildren, capacity * 4);
+            mNodeItemCount = Arrays.copyOf(mNodeItemCount, capacity);
+            mNodeHead = Arrays.copyOf(mNodeHead, capacity);
+        }
+
+        int node = mNodeCount++;
+        mNodeLeft[node] = left;
+        mNodeTop[node] = top;
+        mNodeSize[node] = size;
+        Arrays.fill(mNodeChildren, node * 4, node * 4 + 4, -1);
+        mNodeItemCount[node] = 0;
+        mNodeHead[node] = -1;
+
+        return node;
+    }
+
+    private void ensureItemCapacity(int capacity) {
+        if (capacity <= mLeft.length) return;
+
+        int newCapacity = Math.max(capacity, mLeft.length * 2);
+        mLeft = Arrays.copyOf(mLeft, newCapacity);
+        mTop = Arrays.copyOf(mTop, newCapacity);
+        mRight = Arrays.copyOf(mRight, newCapacity);
+        mBottom = Arrays.copyOf(mBottom, newCapacity);
+        mNext = Arrays.copyOf(mNext, newCapacity);
+    }
+}
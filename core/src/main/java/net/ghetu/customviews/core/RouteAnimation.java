@@ -0,0 +1,455 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * Animates a whole {@link RouteStore} from one start time. The sequencing matches the one of the original
+ * per-object animations: when a point starts pulsing, the line leaving it starts growing, and when that line reaches
+ * its destination, the destination starts pulsing in turn.
+ * </p>
+ * <p>
+ * Lines are timed in one of two ways:
+ * </p>
+ * <ul>
+ * <li>with a fixed duration per line (the default), point i and line i both start at {@code i * lineDuration};</li>
+ * <li>with a velocity, the growing extremity moves along the route at a constant speed, so point i is reached at
+ * {@code distance(i) / velocity}. Its position at a given time is found with a binary search over the cumulative
+ * distances of the route, in O(log n).</li>
+ * </ul>
+ * <p>
+ * Pathways appended as instant (see {@link RouteStore#add(float, float, int, boolean)}) take no time: they appear
+ * along with the point they leave, and the schedule goes by the number of animated pathways (or their length)
+ * before a point instead of its index, still with a binary search.
+ * </p>
+ * <p>
+ * Because the schedule only depends on the position of a point in the route, the state of the route at any frame
+ * (the growing line and the range of pulsing points) is computed directly, without keeping any per-point state. This
+ * also makes the playback seekable: {@link #seekTo(long)} and {@link #setProgress(float)} resolve any position of the
+ * route in O(log n), without replaying what comes before it.
+ * </p>
+ */
+public class RouteAnimation implements AnimationTimeline.Animation {
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private final RouteStore mRoute;
+
+    private int mLineDuration;
+    private int mPulseDuration;
+
+    // Speed of the growing extremity in units per second, or 0 to use mLineDuration for every line
+    private float mVelocity;
+
+    // Frame time at which the playback (virtually) started, or -1 if it should be anchored on the next frame
+    private long mStartTime = -1;
+    // Position the playback continues from when it gets anchored on the next frame
+    private long mStartElapsed;
+
+    // True once the route shows a position of the playback, i.e. after start() or a seek
+    private boolean mStarted = false;
+    // True while the position advances with the frames
+    private boolean mRunning = false;
+    // True if the playback was running when it got paused
+    private boolean mPaused = false;
+    // True while the route still changes at the evaluated position, i.e. before the end of the last pulse
+    private boolean mActive = false;
+
+    // State evaluated on the last frame
+    private long mElapsed;
+    private int mCompletedSegments;
+    private boolean mHeadGrowing;
+    private float mHeadX, mHeadY;
+    private int mFirstPulse, mLastPulse;
+
+    public RouteAnimation(RouteStore route, int lineDuration, int pulseDuration) {
+        mRoute = route;
+        setLineDuration(lineDuration);
+        setPulseDuration(pulseDuration);
+        reset();
+    }
+
+    /**
+     * Starts the playback from the first point, on the next frame.
+     */
+    public void start() {
+        mStartTime = -1;
+        mStartElapsed = 0;
+        mStarted = true;
+        mRunning = true;
+        mPaused = false;
+        evaluate(0);
+    }
+
+    /**
+     * Starts the playback from the given position, on the next frame. This is what {@link #start()} followed by
+     * {@link #seekTo(long)} does, without evaluating the first point in between.
+     *
+     * @param time since the start of the playback, in milliseconds
+     */
+    public void startAt(long time) {
+        mStarted = true;
+        mRunning = true;
+        mPaused = false;
+        seekTo(time);
+    }
+
+    /**
+     * Stops the position from advancing, e.g. because the view is not visible anymore. The route keeps showing the
+     * current position and {@link #resume()} continues exactly from it.
+     */
+    public void pause() {
+        if (mRunning) {
+            mRunning = false;
+            mPaused = true;
+        }
+    }
+
+    /**
+     * Continues a playback stopped by {@link #pause()} from the position it was paused at. The playback is anchored
+     * on the next frame, so the time spent paused is skipped.
+     */
+    public void resume() {
+        if (mPaused) {
+            mPaused = false;
+            mStartTime = -1;
+            mStartElapsed = mElapsed;
+            mRunning = mActive;
+        }
+    }
+
+    /**
+     * Jumps to the given position of the playback and evaluates the route there right away. If the playback is
+     * running, it continues from that position on the next frame; otherwise it stays there.
+     *
+     * @param time since the start of the playback, in milliseconds
+     */
+    public void seekTo(long time) {
+        mStarted = true;
+        evaluate(time);
+
+        if (mRunning) {
+            mStartTime = -1;
+            mStartElapsed = mElapsed;
+            mRunning = mActive;
+        }
+    }
+
+    /**
+     * <p>
+     * Continues the playback over points appended to the route, e.g. from a live feed. While the playback is still
+     * on its way to the previous last point, the new lines simply follow in the schedule. If it already got there
+     * and stopped, it goes back to the time that point was reached, so the first new line grows from there instead
+     * of appearing at once; like any line leaving a point, it starts along with the pulse of that point.
+     * </p>
+     * <p>
+     * A playback which is paused stays paused, and {@link #resume()} continues from the new position.
+     * </p>
+     *
+     * @param previousCount number of points of the route before the new ones were appended
+     * @return true if the playback was stopped and runs again, in which case it needs frames
+     */
+    public boolean onPointsAppended(int previousCount) {
+        if (!mStarted || previousCount == 0 || previousCount >= mRoute.size() || mRunning) return false;
+
+        double reached = getPointTime(previousCount - 1);
+        if (mElapsed < reached) {
+            // Not there yet, e.g. paused on the way
+            evaluate(mElapsed);
+            return false;
+        }
+
+        if (mPaused) {
+            seekTo((long) reached);
+            return false;
+        }
+
+        startAt((long) reached);
+        return mRunning;
+    }
+
+    /**
+     * Jumps to the given fraction of the whole playback, as {@link #seekTo(long)} does.
+     *
+     * @param progress between 0 (first point) and 1 (the end of the pulse of the last point)
+     */
+    public void setProgress(float progress) {
+        seekTo(Math.round(Math.max(0, Math.min(1, progress)) * getDuration()));
+    }
+
+    /**
+     * @return how far the playback got, between 0 and 1
+     */
+    public float getProgress() {
+        double duration = getDuration();
+        return duration > 0 ? (float) Math.min(1, mElapsed / duration) : 0;
+    }
+
+    /**
+     * @return the time since the start of the playback at which the route was last evaluated
+     */
+    public long getElapsed() {
+        return mElapsed;
+    }
+
+    /**
+     * @return the duration of the whole playback, up to the end of the pulse of the last point
+     */
+    public double getDuration() {
+        int count = mRoute.size();
+        return count == 0 ? 0 : getPointTime(count - 1) + mPulseDuration;
+    }
+
+    /**
+     * Stops the playback and goes back to the state in which no line has been drawn yet.
+     */
+    public void reset() {
+        mStarted = false;
+        mRunning = false;
+        mPaused = false;
+        mActive = false;
+        mElapsed = 0;
+        mCompletedSegments = 0;
+        mHeadGrowing = false;
+        mFirstPulse = 0;
+        mLastPulse = -1;
+    }
+
+    @Override
+    public boolean onFrame(long frameTime) {
+        if (!mRunning) return false;
+
+        if (mStartTime < 0) {
+            mStartTime = frameTime - mStartElapsed;
+        }
+
+        evaluate(frameTime - mStartTime);
+        mRunning = mActive;
+
+        return mRunning;
+    }
+
+    /**
+     * Computes which lines are complete, how far the growing line got and which points are pulsing after the given
+     * amount of time since the start of the playback.
+     *
+     * @param elapsed
+     */
+    private void evaluate(long elapsed) {
+        int count = mRoute.size();
+        int segments = Math.max(count - 1, 0);
+
+        mElapsed = Math.max(elapsed, 0);
+
+        if (count == 0) {
+            mCompletedSegments = 0;
+            mHeadGrowing = false;
+            mFirstPulse = 0;
+            mLastPulse = -1;
+            mActive = false;
+            return;
+        }
+
+        // Index of the last point which has been reached by the growing extremity
+        int reached;
+        float fraction;
+
+        if (mVelocity > 0) {
+            // Instant pathways have no length here, so they are skipped over like zero-length ones
+            double[] distances = mRoute.getAnimatedDistances();
+            double travelled = mElapsed * getSpeed();
+
+            // Point i is reached once the extremity travelled distances[i]. Zero-length segments are skipped over
+            reached = upperBound(distances, count, travelled) - 1;
+
+            int i = Math.min(reached, segments);
+            double length = i < segments ? distances[i + 1] - distances[i] : 0;
+            fraction = length > 0 ? (float) ((travelled - distances[i]) / length) : 1;
+
+            // Point i pulses while the extremity travels from distances[i] to distances[i] + pulseDuration * speed
+            mFirstPulse = upperBound(distances, count, (mElapsed - mPulseDuration) * getSpeed());
+        } else if (mRoute.hasInstantPathways()) {
+            // Point i is reached once steps[i] lines grew, the instant pathways between them taking no time
+            int[] steps = mRoute.getSteps();
+            long head = mElapsed / mLineDuration;
+
+            reached = upperBound(steps, count, head) - 1;
+            fraction = (float) (mElapsed - steps[reached] * (long) mLineDuration) / mLineDuration;
+
+            mFirstPulse = mElapsed < mPulseDuration ? 0
+                    : upperBound(steps, count, (mElapsed - mPulseDuration) / mLineDuration);
+        } else {
+            // Line i grows between i * lineDuration and (i + 1) * lineDuration
+            long head = mElapsed / mLineDuration;
+
+            reached = (int) Math.min(head, count - 1);
+            fraction = (float) (mElapsed - reached * (long) mLineDuration) / mLineDuration;
+
+            // Point i pulses between i * lineDuration and i * lineDuration + pulseDuration
+            mFirstPulse = mElapsed < mPulseDuration ? 0 : (int) ((mElapsed - mPulseDuration) / mLineDuration + 1);
+        }
+
+        mActive = mElapsed < getPointTime(count - 1) + mPulseDuration;
+
+        mCompletedSegments = Math.min(reached, segments);
+        mHeadGrowing = mCompletedSegments < segments;
+        mLastPulse = reached;
+
+        if (mHeadGrowing) {
+            int i = mCompletedSegments;
+            float[] xs = mRoute.getXs();
+            float[] ys = mRoute.getYs();
+
+            mHeadX = Evaluators.evaluate(fraction, xs[i], xs[i + 1]);
+            mHeadY = Evaluators.evaluate(fraction, ys[i], ys[i + 1]);
+        }
+    }
+
+    /**
+     * Returns the number of the first {@code count} values of the sorted array which are lower than or equal to the
+     * given value, i.e. the index of the first value greater than it.
+     */
+    static int upperBound(double[] values, int count, double value) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (values[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Same as {@link #upperBound(double[], int, double)}, over the sorted steps of a route.
+     */
+    static int upperBound(int[] values, int count, long value) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (values[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return the velocity converted to units per millisecond
+     */
+    private double getSpeed() {
+        return mVelocity / MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Returns the time (since the start of the playback) at which the growing extremity reaches the given point.
+     *
+     * @param point
+     * @return
+     */
+    public double getPointTime(int point) {
+        if (mVelocity > 0) {
+            return mRoute.getAnimatedDistances()[point] / getSpeed();
+        }
+
+        int[] steps = mRoute.getSteps();
+        return (steps != null ? steps[point] : point) * (double) mLineDuration;
+    }
+
+    /**
+     * Returns how far along (between 0 and 1) the pulse of the given point is.
+     *
+     * @param point
+     * @return
+     */
+    public float getPulseFraction(int point) {
+        if (mPulseDuration <= 0) return 1;
+
+        float fraction = (float) ((mElapsed - getPointTime(point)) / mPulseDuration);
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * @return true while the playback advances with the frames
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * @return the number of lines which have been fully drawn, starting from the first point
+     */
+    public int getCompletedSegments() {
+        return mCompletedSegments;
+    }
+
+    /**
+     * @return true if the line leaving point {@link #getCompletedSegments()} is currently growing
+     */
+    public boolean isHeadGrowing() {
+        return mStarted && mActive && mHeadGrowing;
+    }
+
+    public float getHeadX() {
+        return mHeadX;
+    }
+
+    public float getHeadY() {
+        return mHeadY;
+    }
+
+    /**
+     * @return the index of the first point whose circle is currently animated
+     */
+    public int getFirstPulse() {
+        return mStarted && mActive ? mFirstPulse : 0;
+    }
+
+    /**
+     * @return the index of the last point whose circle is currently animated. No point is animated if this is lower
+     * than {@link #getFirstPulse()}.
+     */
+    public int getLastPulse() {
+        return mStarted && mActive ? mLastPulse : -1;
+    }
+
+    public void setLineDuration(int lineDuration) {
+        // A duration of 0 would make every index coincide, so keep at least one millisecond per line
+        mLineDuration = Math.max(lineDuration, 1);
+    }
+
+    public void setPulseDuration(int pulseDuration) {
+        mPulseDuration = Math.max(pulseDuration, 0);
+    }
+
+    public float getVelocity() {
+        return mVelocity;
+    }
+
+    /**
+     * Makes the growing extremity move at a constant speed along the route, regardless of the length of the lines.
+     * A value of 0 (or lower) goes back to using the same duration for every line.
+     *
+     * @param velocity in units of the route coordinates per second
+     */
+    public void setVelocity(float velocity) {
+        mVelocity = Math.max(velocity, 0);
+    }
+}
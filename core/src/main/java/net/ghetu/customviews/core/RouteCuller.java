@@ -0,0 +1,188 @@
+package net.ghetu.customviews.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Skips the segments and points of a route which are outside of the visible area. The candidates are found with a
+ * {@link SegmentGrid}, then the visible ones are gathered from the draw buffers into buffers of their own, which can
+ * still be drawn with a single call each.
+ * </p>
+ * <p>
+ * When the visible area contains the whole route, nothing is gathered and the draw buffers should be used as they
+ * are.
+ * </p>
+ * <p>
+ * Along with the geometry, the index of the point each segment starts from (and of each point) is gathered, so that
+ * they can be drawn with the style of their point. When the route has several styles, they are gathered in the order
+ * of the route, which keeps the points of a style together.
+ * </p>
+ */
+public class RouteCuller {
+    private static final float[] EMPTY = new float[0];
+    private static final int[] NONE = new int[0];
+
+    private final SegmentGrid mGrid;
+
+    private float[] mSegments = EMPTY;
+    private int[] mSegmentOrigins = NONE;
+    private int mSegmentCount;
+    private float[] mPoints = EMPTY;
+    private int[] mPointOrigins = NONE;
+    private int mPointCount;
+
+    private int mCulled;
+
+    /**
+     * @param cellSize of the grid, in route coordinates
+     */
+    public RouteCuller(float cellSize) {
+        mGrid = new SegmentGrid(cellSize);
+    }
+
+    /**
+     * Finds which of the completed segments and fixed points intersect the visible area, and gathers them.
+     *
+     * @param route
+     * @param left       of the visible area, in route coordinates, including the margin taken by the strokes
+     * @param top
+     * @param right
+     * @param bottom
+     * @param segments   draw buffer of the segments (4 floats each), in any coordinates
+     * @param completed  number of segments to draw, starting from the first one
+     * @param points     draw buffer of the points (2 floats each), in any coordinates
+     * @param firstPoint first point to draw; the points up to the end of the route are drawn
+     * @return false if the whole route is visible, in which case nothing was gathered
+     */
+    public boolean cull(RouteStore route, float left, float top, float right, float bottom,
+                        float[] segments, int completed, float[] points, int firstPoint) {
+        int count = route.size();
+
+        mGrid.update(route);
+        mSegmentCount = 0;
+        mPointCount = 0;
+        mCulled = 0;
+
+        if (count == 0 || mGrid.isContainedIn(left, top, right, bottom) && contains(route, count - 1, left, top,
+                right, bottom)) {
+            return false;
+        }
+
+        ensureCapacity(count);
+
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+        int found = mGrid.query(left, top, right, bottom);
+        int[] results = mGrid.getResults();
+
+        if (route.getRunCount() > 1) {
+            Arrays.sort(results, 0, found);
+        }
+
+        for (int k = 0; k < found; k++) {
+            int i = results[k];
+
+            if (i < completed) {
+                System.arraycopy(segments, i * 4, mSegments, mSegmentCount * 4, 4);
+                mSegmentOrigins[mSegmentCount++] = i;
+            }
+
+            // Segment i starts at point i, so every visible point but the last one belongs to a segment found
+            if (i >= firstPoint && contains(xs[i], ys[i], left, top, right, bottom)) {
+                System.arraycopy(points, i * 2, mPoints, mPointCount * 2, 2);
+                mPointOrigins[mPointCount++] = i;
+            }
+        }
+
+        int last = count - 1;
+        if (last >= firstPoint && contains(xs[last], ys[last], left, top, right, bottom)) {
+            System.arraycopy(points, last * 2, mPoints, mPointCount * 2, 2);
+            mPointOrigins[mPointCount++] = last;
+        }
+
+        mCulled = completed - mSegmentCount + Math.max(count - firstPoint, 0) - mPointCount;
+        return true;
+    }
+
+    /**
+     * Forgets the indexed route, e.g. because its points changed.
+     */
+    public void invalidate() {
+        mGrid.clear();
+    }
+
+    /**
+     * Drops the gathered buffers to free their memory.
+     */
+    public void release() {
+        mSegments = EMPTY;
+        mSegmentOrigins = NONE;
+        mPoints = EMPTY;
+        mPointOrigins = NONE;
+        mSegmentCount = 0;
+        mPointCount = 0;
+    }
+
+    /**
+     * @return the gathered segments, 4 floats each. Only the first {@link #getSegmentCount()} are meaningful
+     */
+    public float[] getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * @return the index of the point each gathered segment starts from
+     */
+    public int[] getSegmentOrigins() {
+        return mSegmentOrigins;
+    }
+
+    public int getSegmentCount() {
+        return mSegmentCount;
+    }
+
+    /**
+     * @return the gathered points, 2 floats each. Only the first {@link #getPointCount()} are meaningful
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+
+    /**
+     * @return the index of each gathered point
+     */
+    public int[] getPointOrigins() {
+        return mPointOrigins;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @return the number of segments and points which were skipped by the last call to {@link #cull}
+     */
+    public int getCulledCount() {
+        return mCulled;
+    }
+
+    private void ensureCapacity(int points) {
+        if (mSegments.length < points * 4) {
+            mSegments = new float[points * 4];
+            mSegmentOrigins = new int[points];
+        }
+
+        if (mPoints.length < points * 2) {
+            mPoints = new float[points * 2];
+            mPointOrigins = new int[points];
+        }
+    }
+
+    private static boolean contains(RouteStore route, int i, float left, float top, float right, float bottom) {
+        return contains(route.getX(i), route.getY(i), left, top, right, bottom);
+    }
+
+    private static boolean contains(float x, float y, float left, float top, float right, float bottom) {
+        return x >= left && x <= right && y >= top && y <= bottom;
+    }
+}
@@ -0,0 +1,130 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * Spatial index of the points and segments of a {@link RouteStore}, to find what lies under a tap. Points and segments
+ * (by their bounding boxes) are kept in two {@link QuadTree}s, so that a lookup only measures the distance to the few
+ * candidates near the tapped position, in logarithmic time rather than going through the whole route.
+ * </p>
+ * <p>
+ * The index follows the route as points are appended, each new point costing O(log n).
+ * </p>
+ */
+public class RouteIndex {
+    private final QuadTree mPoints = new QuadTree();
+    private final QuadTree mSegments = new QuadTree();
+
+    /**
+     * Indexes the points which were appended to the route since the last call. If the route got shorter, it is
+     * indexed again from scratch; {@link #clear()} must be called when existing points change.
+     *
+     * @param route
+     */
+    public void update(RouteStore route) {
+        int count = route.size();
+
+        if (count < mPoints.size()) {
+            clear();
+        }
+
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+
+        for (int i = mPoints.size(); i < count; i++) {
+            mPoints.insert(xs[i], ys[i], xs[i], ys[i]);
+
+            if (i > 0) {
+                mSegments.insert(Math.min(xs[i - 1], xs[i]), Math.min(ys[i - 1], ys[i]),
+                        Math.max(xs[i - 1], xs[i]), Math.max(ys[i - 1], ys[i]));
+            }
+        }
+    }
+
+    public void clear() {
+        mPoints.clear();
+        mSegments.clear();
+    }
+
+    /**
+     * Finds the point closest to the given position, among the ones within the given radius.
+     *
+     * @param route the route which was indexed
+     * @param x
+     * @param y
+     * @param radius
+     * @return the index of the point, or -1 if there is none within the radius
+     */
+    public int findNearestPoint(RouteStore route, float x, float y, float radius) {
+        int found = mPoints.query(x - radius, y - radius, x + radius, y + radius);
+        int[] results = mPoints.getResults();
+
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+        int nearest = -1;
+        float nearestDistance = radius * radius;
+
+        for (int k = 0; k < found; k++) {
+            int i = results[k];
+            float dx = xs[i] - x;
+            float dy = ys[i] - y;
+            float distance = dx * dx + dy * dy;
+
+            // On a tie, the earliest point wins, whatever order the tree returned them in
+            if (distance < nearestDistance || distance == nearestDistance && (nearest < 0 || i < nearest)) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Finds the segment closest to the given position, among the ones within the given distance.
+     *
+     * @param route     the route which was indexed
+     * @param x
+     * @param y
+     * @param tolerance
+     * @return the index of the segment (the one from point i to point i + 1 has index i), or -1 if there is none
+     * within the tolerance
+     */
+    public int findNearestSegment(RouteStore route, float x, float y, float tolerance) {
+        int found = mSegments.query(x - tolerance, y - tolerance, x + tolerance, y + tolerance);
+        int[] results = mSegments.getResults();
+
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+        int nearest = -1;
+        float nearestDistance = tolerance * tolerance;
+
+        for (int k = 0; k < found; k++) {
+            int i = results[k];
+            float distance = getSquaredDistance(x, y, xs[i], ys[i], xs[i + 1], ys[i + 1]);
+
+            if (distance < nearestDistance || distance == nearestDistance && (nearest < 0 || i < nearest)) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * @return the squared distance between a point and the segment from (x0, y0) to (x1, y1)
+     */
+    static float getSquaredDistance(float x, float y, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+
+        // Position of the projection of the point on the segment, between 0 (x0, y0) and 1 (x1, y1)
+        float t = lengthSquared > 0 ? ((x - x0) * dx + (y - y0) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+
+        float px = x0 + t * dx - x;
+        float py = y0 + t * dy - y;
+        return px * px + py * py;
+    }
+}
@@ -0,0 +1,497 @@
+package net.ghetu.customviews.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Compact storage for the points of a pathway. Coordinates are kept in two primitive arrays (struct-of-arrays)
+ * instead of one object per point, so that routes with tens of thousands of points (e.g. GPS traces) cost 8 bytes
+ * per point and can be iterated without any indirection.
+ * </p>
+ * <p>
+ * Along with the coordinates, the store keeps the cumulative arc length of the route at every point (prefix sums of
+ * the segment lengths, 8 more bytes per point). They are updated as points are appended and let the animation find
+ * the position at a given distance along the route with a binary search.
+ * </p>
+ * <p>
+ * Every point also has a style id (see {@link StyleRegistry}), 0 unless specified. Consecutive points usually share
+ * their style, so styles are stored as runs: the index of the first point of each run and its style. A route of a
+ * single style costs nothing more, and the points of a run can be drawn in one batch.
+ * </p>
+ * <p>
+ * Pathways are animated one after the other, unless they are appended as instant: an instant pathway appears along
+ * with the point it leaves, e.g. inside a batch of points animated as a single step. Routes without instant pathways
+ * cost nothing more; once there is one, the number of animated pathways and their cumulative length up to every
+ * point are kept as well, so that the animation still finds its position with a binary search.
+ * </p>
+ * <p>
+ * The arrays returned by {@link #getXs()}, {@link #getYs()} and {@link #getDistances()} are the backing arrays
+ * themselves. They may be longer than {@link #size()} and are replaced whenever the store grows, so they should not
+ * be kept between calls.
+ * </p>
+ */
+public class RouteStore {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private float[] mXs;
+    private float[] mYs;
+    private double[] mDistances;
+    private int mSize;
+
+    // Runs of points with the same style: index of their first point, and their style
+    private int[] mRunStarts = new int[1];
+    private int[] mRunStyles = new int[1];
+    private int mRunCount;
+
+    // Only allocated once an instant pathway is appended: number of animated pathways up to each point, and their
+    // cumulative length
+    private boolean mHasInstantPathways;
+    private int[] mSteps;
+    private double[] mAnimatedDistances;
+
+    public RouteStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RouteStore(int capacity) {
+        mXs = new float[Math.max(capacity, 1)];
+        mYs = new float[Math.max(capacity, 1)];
+        mDistances = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends a point of style 0 at the end of the route.
+     *
+     * @param x
+     * @param y
+     */
+    public void add(float x, float y) {
+        add(x, y, 0);
+    }
+
+    /**
+     * Appends a point of the given style at the end of the route.
+     *
+     * @param x
+     * @param y
+     * @param style id of the style
+     */
+    public void add(float x, float y, int style) {
+        add(x, y, style, true);
+    }
+
+    /**
+     * Appends a point of the given style at the end of the route.
+     *
+     * @param x
+     * @param y
+     * @param style    id of the style
+     * @param animated false for the pathway towards the point to appear at once, along with the previous point
+     */
+    public void add(float x, float y, int style, boolean animated) {
+        ensureCapacity(mSize + 1);
+
+        if (!animated && !mHasInstantPathways && mSize > 0) {
+            startInstantPathways();
+        }
+
+        if (mRunCount == 0 || mRunStyles[mRunCount - 1] != style) {
+            addRun(mSize, style);
+        }
+
+        mXs[mSize] = x;
+        mYs[mSize] = y;
+        mDistances[mSize] = mSize == 0 ? 0 : mDistances[mSize - 1] + distance(mSize - 1, mSize);
+
+        if (mHasInstantPathways) {
+            boolean grows = animated && mSize > 0;
+            mSteps[mSize] = mSize == 0 ? 0 : mSteps[mSize - 1] + (grows ? 1 : 0);
+            mAnimatedDistances[mSize] = mSize == 0 ? 0 : mAnimatedDistances[mSize - 1]
+                    + (grows ? mDistances[mSize] - mDistances[mSize - 1] : 0);
+        }
+
+        mSize++;
+    }
+
+    /**
+     * Allocates the steps and animated distances of the points appended so far, whose pathways are all animated.
+     */
+    private void startInstantPathways() {
+        mHasInstantPathways = true;
+
+        // Kept once allocated, and grown along with the coordinates
+        if (mSteps == null) {
+            mSteps = new int[mXs.length];
+            mAnimatedDistances = new double[mXs.length];
+        }
+
+        for (int i = 0; i < mSize; i++) {
+            mSteps[i] = i;
+        }
+        System.arraycopy(mDistances, 0, mAnimatedDistances, 0, mSize);
+    }
+
+    /**
+     * Replaces the whole route with the given coordinates. The arrays are copied, so they can be reused by the
+     * caller afterwards.
+     *
+     * @param xs
+     * @param ys
+     */
+    public void set(float[] xs, float[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("The X and Y arrays must have the same length");
+        }
+
+        mSize = 0;
+        mHasInstantPathways = false;
+        ensureCapacity(xs.length);
+
+        System.arraycopy(xs, 0, mXs, 0, xs.length);
+        System.arraycopy(ys, 0, mYs, 0, ys.length);
+        mSize = xs.length;
+
+        for (int i = 0; i < mSize; i++) {
+            mDistances[i] = i == 0 ? 0 : mDistances[i - 1] + distance(i - 1, i);
+        }
+
+        mRunCount = 0;
+        if (mSize > 0) {
+            addRun(0, 0);
+        }
+    }
+
+    /**
+     * Replaces the whole route with the given coordinates and styles. The arrays are copied, so they can be reused
+     * by the caller afterwards.
+     *
+     * @param xs
+     * @param ys
+     * @param styles ids of the styles of the points, must have the same length as xs
+     */
+    public void set(float[] xs, float[] ys, int[] styles) {
+        if (styles.length != xs.length) {
+            throw new IllegalArgumentException("The styles and coordinates arrays must have the same length");
+        }
+
+        set(xs, ys);
+
+        mRunCount = 0;
+        for (int i = 0; i < styles.length; i++) {
+            if (mRunCount == 0 || mRunStyles[mRunCount - 1] != styles[i]) {
+                addRun(i, styles[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the whole route with the coordinates of an array produced by {@link #toPackedArray()}.
+     *
+     * @param packed X and Y coordinates, interleaved
+     */
+    public void setPacked(float[] packed) {
+        if (packed.length % 2 != 0) {
+            throw new IllegalArgumentException("The packed array must hold pairs of coordinates");
+        }
+
+        mSize = 0;
+        mHasInstantPathways = false;
+        ensureCapacity(packed.length / 2);
+
+        for (int i = 0, j = 0; j < packed.length; i++, j += 2) {
+            mXs[i] = packed[j];
+            mYs[i] = packed[j + 1];
+            mDistances[i] = i == 0 ? 0 : mDistances[i - 1] + distance(i - 1, i);
+        }
+
+        mSize = packed.length / 2;
+
+        mRunCount = 0;
+        if (mSize > 0) {
+            addRun(0, 0);
+        }
+    }
+
+    /**
+     * Replaces the styles of the points with the runs of an array produced by {@link #toPackedRuns()}.
+     *
+     * @param packed index of the first point and style of each run, interleaved
+     */
+    public void setPackedRuns(int[] packed) {
+        if (packed.length % 2 != 0 || packed.length == 0 && mSize > 0 || packed.length > 0 && packed[0] != 0) {
+            throw new IllegalArgumentException("The packed array must hold runs starting from the first point");
+        }
+
+        mRunCount = 0;
+        for (int j = 0; j < packed.length; j += 2) {
+            addRun(packed[j], packed[j + 1]);
+        }
+    }
+
+    /**
+     * Copies the runs of consecutive instant pathways into a single primitive array, the index of the point the
+     * first pathway of each run goes to and the number of pathways of the run being interleaved. A batch of points
+     * makes a single run, so this stays small even when most pathways are instant.
+     *
+     * @return
+     */
+    public int[] toPackedInstantRuns() {
+        if (!mHasInstantPathways) return new int[0];
+
+        int runs = 0;
+        for (int i = 1; i < mSize; i++) {
+            if (mSteps[i] == mSteps[i - 1] && (i == 1 || mSteps[i - 1] != mSteps[i - 2])) runs++;
+        }
+
+        int[] packed = new int[runs * 2];
+        int j = 0;
+        for (int i = 1; i < mSize; i++) {
+            if (mSteps[i] != mSteps[i - 1]) continue;
+
+            if (i == 1 || mSteps[i - 1] != mSteps[i - 2]) {
+                packed[j] = i;
+                packed[j + 1] = 0;
+                j += 2;
+            }
+            packed[j - 1]++;
+        }
+
+        return packed;
+    }
+
+    /**
+     * Makes the pathways of the runs of an array produced by {@link #toPackedInstantRuns()} instant, and every other
+     * pathway animated. The schedule is recomputed in one pass.
+     *
+     * @param packed index of the point the first pathway of each run goes to and number of pathways of the run,
+     *               interleaved
+     */
+    public void setPackedInstantRuns(int[] packed) {
+        if (packed.length % 2 != 0) {
+            throw new IllegalArgumentException("The packed array must hold pairs of values");
+        }
+
+        mHasInstantPathways = false;
+        if (packed.length == 0 || mSize == 0) return;
+
+        startInstantPathways();
+
+        for (int i = 1, j = 0; i < mSize; i++) {
+            while (j < packed.length && i >= packed[j] + packed[j + 1]) {
+                j += 2;
+            }
+
+            boolean grows = j >= packed.length || i < packed[j];
+            mSteps[i] = mSteps[i - 1] + (grows ? 1 : 0);
+            mAnimatedDistances[i] = mAnimatedDistances[i - 1] + (grows ? mDistances[i] - mDistances[i - 1] : 0);
+        }
+    }
+
+    /**
+     * Copies the runs of styles into a single primitive array, the index of the first point and the style of each
+     * run being interleaved.
+     *
+     * @return
+     */
+    public int[] toPackedRuns() {
+        int[] packed = new int[mRunCount * 2];
+
+        for (int r = 0, j = 0; r < mRunCount; r++, j += 2) {
+            packed[j] = mRunStarts[r];
+            packed[j + 1] = mRunStyles[r];
+        }
+
+        return packed;
+    }
+
+    /**
+     * Copies the route into a single primitive array of interleaved coordinates ({@code x0, y0, x1, y1, ...}), e.g.
+     * to write it into a {@code Parcel} with one call. The distances are not included since
+     * {@link #setPacked(float[])} recomputes them in one pass. Instant pathways are given by
+     * {@link #toPackedInstantRuns()}.
+     *
+     * @return
+     */
+    public float[] toPackedArray() {
+        float[] packed = new float[mSize * 2];
+
+        for (int i = 0, j = 0; i < mSize; i++, j += 2) {
+            packed[j] = mXs[i];
+            packed[j + 1] = mYs[i];
+        }
+
+        return packed;
+    }
+
+    public void clear() {
+        mSize = 0;
+        mRunCount = 0;
+        mHasInstantPathways = false;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public float getX(int index) {
+        return mXs[index];
+    }
+
+    public float getY(int index) {
+        return mYs[index];
+    }
+
+    /**
+     * @return the id of the style of the given point
+     */
+    public int getStyle(int index) {
+        return mRunStyles[getRunAt(index)];
+    }
+
+    /**
+     * @return the number of runs of points with the same style, i.e. 1 if all the points have the same style
+     */
+    public int getRunCount() {
+        return mRunCount;
+    }
+
+    /**
+     * @return the index of the first point of the given run
+     */
+    public int getRunStart(int run) {
+        return mRunStarts[run];
+    }
+
+    /**
+     * @return the index of the point after the last one of the given run
+     */
+    public int getRunEnd(int run) {
+        return run + 1 < mRunCount ? mRunStarts[run + 1] : mSize;
+    }
+
+    public int getRunStyle(int run) {
+        return mRunStyles[run];
+    }
+
+    /**
+     * Finds the run of the given point with a binary search over the starts of the runs.
+     *
+     * @param index of a point
+     * @return
+     */
+    public int getRunAt(int index) {
+        int low = 0;
+        int high = mRunCount - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (mRunStarts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return the backing array of the indices of the first points of the runs. Only the first
+     * {@link #getRunCount()} values are meaningful.
+     */
+    public int[] getRunStarts() {
+        return mRunStarts;
+    }
+
+    /**
+     * @return the length of the whole route, i.e. the sum of the lengths of its segments
+     */
+    public double getLength() {
+        return mSize == 0 ? 0 : mDistances[mSize - 1];
+    }
+
+    /**
+     * @return the backing array of X coordinates. Only the first {@link #size()} values are meaningful.
+     */
+    public float[] getXs() {
+        return mXs;
+    }
+
+    /**
+     * @return the backing array of Y coordinates. Only the first {@link #size()} values are meaningful.
+     */
+    public float[] getYs() {
+        return mYs;
+    }
+
+    /**
+     * @return the backing array of cumulative distances: the value at index i is the length of the route from the
+     * first point up to point i. Only the first {@link #size()} values are meaningful.
+     */
+    public double[] getDistances() {
+        return mDistances;
+    }
+
+    /**
+     * @return true if some pathways were appended as instant, in which case the schedule of the animation is given
+     * by {@link #getSteps()} and {@link #getAnimatedDistances()}
+     */
+    public boolean hasInstantPathways() {
+        return mHasInstantPathways;
+    }
+
+    /**
+     * @return the backing array of the number of animated pathways from the first point up to point i, or null if
+     * every pathway is animated (the value at index i then being i). Only the first {@link #size()} values are
+     * meaningful.
+     */
+    public int[] getSteps() {
+        return mHasInstantPathways ? mSteps : null;
+    }
+
+    /**
+     * @return the backing array of the cumulative length of the animated pathways from the first point up to point
+     * i, i.e. {@link #getDistances()} unless some pathways are instant. Only the first {@link #size()} values are
+     * meaningful.
+     */
+    public double[] getAnimatedDistances() {
+        return mHasInstantPathways ? mAnimatedDistances : mDistances;
+    }
+
+    private double distance(int from, int to) {
+        double dx = mXs[to] - mXs[from];
+        double dy = mYs[to] - mYs[from];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private void addRun(int start, int style) {
+        if (mRunCount == mRunStarts.length) {
+            mRunStarts = Arrays.copyOf(mRunStarts, mRunCount * 2);
+            mRunStyles = Arrays.copyOf(mRunStyles, mRunCount * 2);
+        }
+
+        mRunStarts[mRunCount] = start;
+        mRunStyles[mRunCount] = style;
+        mRunCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mXs.length) return;
+
+        // Grow geometrically so that appending point by point stays amortized O(1)
+        int newCapacity = Math.max(capacity, mXs.length + (mXs.length >> 1));
+        mXs = Arrays.copyOf(mXs, newCapacity);
+        mYs = Arrays.copyOf(mYs, newCapacity);
+        mDistances = Arrays.copyOf(mDistances, newCapacity);
+
+        if (mSteps != null) {
+            mSteps = Arrays.copyOf(mSteps, newCapacity);
+            mAnimatedDistances = Arrays.copyOf(mAnimatedDistances, newCapacity);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * The latest part of a route which grows forever, e.g. an always-on tracking screen: only the last points (up to a
+ * maximum count, and optionally no older than a maximum age) are kept, in a ring of primitive arrays. Appending a
+ * point evicts the oldest one in O(1) once the ring is full, and points which got too old are evicted from the tail
+ * as time passes, so memory and the cost of a frame stay constant however long the route runs.
+ * </p>
+ * <p>
+ * Points are played back as they arrive, with the sequencing of {@link RouteAnimation}: the pathway towards a new
+ * point starts growing when it arrives (or once the previous pathway is complete, if it is still growing), and the
+ * point pulses once it is reached. The time at which each point is reached is computed when it is appended, so a
+ * frame only advances over the points reached since the last one.
+ * </p>
+ * <p>
+ * Points may arrive faster than their pathways grow. The playback then falls behind, but at most by half of the
+ * window: the pathways towards older points appear at once, so that the points about to be evicted are always
+ * reached and the route keeps being drawn.
+ * </p>
+ * <p>
+ * The oldest part of the window fades out: the opacity of a point goes from 1 to 0 over the oldest
+ * {@link #FADE_FRACTION} of the window, by position for a window of points, or by age for a window of time. Either
+ * way opacity only grows from the oldest point to the newest, so points of similar opacity are consecutive.
+ * </p>
+ * <p>
+ * Positions given to the getters are relative to the window: 0 is the oldest point kept.
+ * </p>
+ */
+public class RouteWindow implements AnimationTimeline.Animation {
+    /**
+     * Part of the window over which the oldest points fade out
+     */
+    public static final float FADE_FRACTION = 0.25f;
+
+    private final int mCapacity;
+    private final long mMaxAge;
+
+    private final float[] mXs;
+    private final float[] mYs;
+    // Time at which the growing pathway reaches each point
+    private final long[] mReachTimes;
+    // Slot of the oldest point, and number of points kept
+    private int mTail;
+    private int mSize;
+
+    private int mLineDuration;
+    private int mPulseDuration;
+
+    // State evaluated on the last frame
+    private long mNow;
+    // Number of points reached, counted from the oldest one
+    private int mReached;
+
+    /**
+     * @param maxPoints number of points kept at most
+     * @param maxAge    in milliseconds, how long a point is kept after it was reached, or 0 to only bound the
+     *                  number of points
+     */
+    public RouteWindow(int maxPoints, long maxAge, int lineDuration, int pulseDuration) {
+        if (maxPoints < 2) {
+            throw new IllegalArgumentException("The window must hold at least one pathway");
+        }
+
+        mCapacity = maxPoints;
+        mMaxAge = Math.max(maxAge, 0);
+        mXs = new float[maxPoints];
+        mYs = new float[maxPoints];
+        mReachTimes = new long[maxPoints];
+
+        setLineDuration(lineDuration);
+        setPulseDuration(pulseDuration);
+    }
+
+    /**
+     * Appends a point, evicting the oldest one if the window is full.
+     *
+     * @param x
+     * @param y
+     * @param time at which the point arrived, in the time base of the frames
+     */
+    public void add(float x, float y, long time) {
+        add(x, y, time, true);
+    }
+
+    /**
+     * Appends a point, evicting the oldest one if the window is full.
+     *
+     * @param x
+     * @param y
+     * @param time     at which the point arrived, in the time base of the frames
+     * @param animated false for the pathway towards the point to appear at once, along with the previous point
+     */
+    public void add(float x, float y, long time, boolean animated) {
+        long reachTime = time;
+        if (mSize > 0) {
+            // The pathway towards the new point starts once the previous point is reached
+            reachTime = Math.max(time, mReachTimes[slot(mSize - 1)]) + (animated ? mLineDuration : 0);
+        }
+
+        if (mSize == mCapacity) {
+            evictOldest();
+        }
+
+        int slot = slot(mSize);
+        mXs[slot] = x;
+        mYs[slot] = y;
+        mReachTimes[slot] = reachTime;
+        mSize++;
+
+        catchUp(time);
+    }
+
+    /**
+     * Makes sure that the oldest half of the window is reached by the given time, by making the pathways towards the
+     * points of that half which are still waiting appear at once. Each point is caught up at most once, so this is
+     * O(1) amortized.
+     */
+    private void catchUp(long time) {
+        for (int position = mSize - 1 - mCapacity / 2; position >= 0; position--) {
+            int slot = slot(position);
+            if (mReachTimes[slot] <= time) break;
+
+            mReachTimes[slot] = time;
+        }
+    }
+
+    private void evictOldest() {
+        mTail = mTail + 1 == mCapacity ? 0 : mTail + 1;
+        mSize--;
+        mReached = Math.max(mReached - 1, 0);
+    }
+
+    /**
+     * Drops every point.
+     */
+    public void clear() {
+        mTail = 0;
+        mSize = 0;
+        mReached = 0;
+    }
+
+    @Override
+    public boolean onFrame(long frameTime) {
+        evaluate(frameTime);
+        return isActive();
+    }
+
+    /**
+     * Evicts the points which got too old and advances the playback to the given time.
+     *
+     * @param now frame time, in milliseconds
+     */
+    public void evaluate(long now) {
+        mNow = now;
+
+        while (mReached < mSize && mReachTimes[slot(mReached)] <= now) {
+            mReached++;
+        }
+
+        if (mMaxAge > 0) {
+            // Only reached points age. The newest of them is kept, as the origin of the next pathway
+            while (mReached > 1 && now - mReachTimes[mTail] > mMaxAge) {
+                evictOldest();
+            }
+        }
+    }
+
+    /**
+     * @return true while the window changes from one frame to the next, i.e. while pathways grow or points pulse.
+     * Points fading out by age only change now and then, see {@link #getNextChangeTime(int)}
+     */
+    public boolean isActive() {
+        if (mSize == 0) return false;
+
+        // Pathways still growing, or the last pulse
+        long newest = mReachTimes[slot(mSize - 1)];
+        return mReached < mSize || mNow < newest + mPulseDuration;
+    }
+
+    /**
+     * Returns when a window of time changes next once it is not active anymore: when a point fading out by age gets
+     * to its next step of opacity, or gets evicted. Only the points which are fading are visited, along with the
+     * first one which is not fading yet.
+     *
+     * @param opacitySteps number of steps the opacities are rounded down to when drawn
+     * @return the frame time, or {@link Long#MAX_VALUE} if the window doesn't change until points are appended
+     */
+    public long getNextChangeTime(int opacitySteps) {
+        if (mMaxAge <= 0) return Long.MAX_VALUE;
+
+        int steps = Math.max(opacitySteps, 1);
+        // The opacity of a point drops by a step every this many milliseconds, the last step being its eviction
+        double step = mMaxAge * (double) FADE_FRACTION / steps;
+        long next = Long.MAX_VALUE;
+
+        for (int i = 0; i < mReached; i++) {
+            long reachTime = mReachTimes[slot(i)];
+            double remaining = (mMaxAge - (mNow - reachTime)) / step;
+
+            // Transparent already, and kept as the origin of the next pathway
+            if (remaining < 0) continue;
+
+            int k = (int) Math.min(Math.floor(remaining), steps);
+            next = Math.min(next, (long) Math.floor(reachTime + mMaxAge - k * step) + 1);
+
+            // Newer points are opaque as well, and start fading later
+            if (k == steps) break;
+        }
+
+        return next;
+    }
+
+    private int slot(int position) {
+        int slot = mTail + position;
+        return slot >= mCapacity ? slot - mCapacity : slot;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public float getX(int position) {
+        return mXs[slot(position)];
+    }
+
+    public float getY(int position) {
+        return mYs[slot(position)];
+    }
+
+    /**
+     * @return the number of points reached by the growing pathway, from the oldest one. Every pathway between
+     * these is complete
+     */
+    public int getReached() {
+        return mReached;
+    }
+
+    /**
+     * @return true if the pathway leaving point {@link #getReached()} - 1 is currently growing
+     */
+    public boolean isHeadGrowing() {
+        return mReached > 0 && mReached < mSize;
+    }
+
+    /**
+     * @return how far the growing pathway got, between 0 and 1
+     */
+    public float getHeadFraction() {
+        long reachTime = mReachTimes[slot(mReached)];
+        return Math.max(0, Math.min(1, 1 - (float) (reachTime - mNow) / mLineDuration));
+    }
+
+    public float getHeadX() {
+        return Evaluators.evaluate(getHeadFraction(), getX(mReached - 1), getX(mReached));
+    }
+
+    public float getHeadY() {
+        return Evaluators.evaluate(getHeadFraction(), getY(mReached - 1), getY(mReached));
+    }
+
+    /**
+     * @return the position of the first point whose circle may still be animated
+     */
+    public int getFirstPulse() {
+        int first = mReached;
+        while (first > 0 && mNow < mReachTimes[slot(first - 1)] + mPulseDuration) {
+            first--;
+        }
+
+        return first;
+    }
+
+    /**
+     * @return how far along (between 0 and 1) the pulse of the given point is
+     */
+    public float getPulseFraction(int position) {
+        if (mPulseDuration <= 0) return 1;
+
+        float fraction = (float) (mNow - mReachTimes[slot(position)]) / mPulseDuration;
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    /**
+     * Returns the opacity of a point and of the pathway leaving it: 0 once it is about to be evicted, 1 outside of
+     * the oldest {@link #FADE_FRACTION} of the window.
+     *
+     * @param position
+     * @return
+     */
+    public float getOpacity(int position) {
+        // Points fade as they get closer to being evicted by the points appended after them
+        float opacity = Math.min(1, (position + 1 + mCapacity - mSize) / (mCapacity * FADE_FRACTION));
+
+        if (mMaxAge > 0 && position < mReached) {
+            long age = mNow - mReachTimes[slot(position)];
+            opacity = Math.min(opacity, (mMaxAge - age) / (mMaxAge * FADE_FRACTION));
+        }
+
+        return Math.max(0, opacity);
+    }
+
+    /**
+     * Copies the complete pathways (4 floats each), from the oldest, in the layout of {@link DrawBuffers}.
+     *
+     * @param segments must hold {@link #getCapacity()} - 1 segments
+     * @return the number of segments
+     */
+    public int packSegments(float[] segments) {
+        int count = Math.max(mReached - 1, 0);
+
+        for (int i = 0, j = 0; i < count; i++, j += 4) {
+            int from = slot(i);
+            int to = slot(i + 1);
+
+            segments[j] = mXs[from];
+            segments[j + 1] = mYs[from];
+            segments[j + 2] = mXs[to];
+            segments[j + 3] = mYs[to];
+        }
+
+        return count;
+    }
+
+    /**
+     * Copies every point (2 floats each), from the oldest.
+     *
+     * @param points must hold {@link #getCapacity()} points
+     * @return the number of points
+     */
+    public int packPoints(float[] points) {
+        for (int i = 0, j = 0; i < mSize; i++, j += 2) {
+            int slot = slot(i);
+
+            points[j] = mXs[slot];
+            points[j + 1] = mYs[slot];
+        }
+
+        return mSize;
+    }
+
+    public void setLineDuration(int lineDuration) {
+        mLineDuration = Math.max(lineDuration, 1);
+    }
+
+    public void setPulseDuration(int pulseDuration) {
+        mPulseDuration = Math.max(pulseDuration, 0);
+    }
+}
@@ -0,0 +1,285 @@
+package net.ghetu.customviews.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Bucketed grid over the segments of a {@link RouteStore}, used to find the segments (and points) which intersect a
+ * rectangle without going through the whole route. Segment i (from point i to point i + 1) is added to every cell
+ * its bounding box overlaps. A query then only visits the cells covered by the rectangle.
+ * </p>
+ * <p>
+ * Cells are stored in an open addressing hash table keyed by their column and row, so the grid doesn't need to know
+ * the extent of the route in advance and can grow as points are appended. The lists of segments of the cells are
+ * linked through primitive arrays: neither indexing nor querying allocates, once the arrays have grown.
+ * </p>
+ * <p>
+ * Segments whose bounding box covers too many cells (e.g. a line across the whole map) are not bucketed. They are
+ * kept in a separate list which is tested on every query.
+ * </p>
+ */
+public class SegmentGrid {
+    private static final long FREE = Long.MIN_VALUE;
+    private static final int MAX_CELLS_PER_SEGMENT = 64;
+
+    private final float mCellSize;
+
+    // Open addressing table from cell keys to the first node of their list
+    private long[] mKeys = new long[64];
+    private int[] mHeads = new int[64];
+    private int mCells;
+
+    // Nodes of the lists of the cells: the segment they hold and the next node, or -1
+    private int[] mNodeSegments = new int[64];
+    private int[] mNodeNext = new int[64];
+    private int mNodes;
+
+    // Segments which are too large to be bucketed
+    private int[] mLarge = new int[8];
+    private int mLargeCount;
+
+    // Number of segments which are indexed, and the bounds of their points
+    private int mIndexed;
+    private float mMinX, mMinY, mMaxX, mMaxY;
+
+    // Last query each segment was returned by, so that segments spanning several cells are only returned once
+    private int[] mStamps = new int[64];
+    private int mStamp;
+
+    private int[] mResults = new int[64];
+    private int mResultCount;
+
+    /**
+     * @param cellSize width and height of the cells, in route coordinates
+     */
+    public SegmentGrid(float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("The cells must not be empty");
+        }
+
+        mCellSize = cellSize;
+        clear();
+    }
+
+    /**
+     * Indexes the segments which were appended to the route since the last call. If the route got shorter, e.g.
+     * because it was replaced, it is indexed again from scratch; {@link #clear()} must be called when existing points
+     * change.
+     *
+     * @param route
+     */
+    public void update(RouteStore route) {
+        int segments = Math.max(route.size() - 1, 0);
+
+        if (segments < mIndexed) {
+            clear();
+        }
+
+        if (segments == mIndexed) return;
+
+        float[] xs = route.getXs();
+        float[] ys = route.getYs();
+
+        if (mStamps.length < segments) {
+            mStamps = Arrays.copyOf(mStamps, Math.max(segments, mStamps.length * 2));
+        }
+
+        for (int i = mIndexed; i < segments; i++) {
+            add(i, xs[i], ys[i], xs[i + 1], ys[i + 1]);
+        }
+
+        mIndexed = segments;
+    }
+
+    /**
+     * Forgets every segment.
+     */
+    public void clear() {
+        Arrays.fill(mKeys, FREE);
+        mCells = 0;
+        mNodes = 0;
+        mLargeCount = 0;
+        mIndexed = 0;
+        mMinX = mMinY = Float.POSITIVE_INFINITY;
+        mMaxX = mMaxY = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return the number of segments which are indexed
+     */
+    public int size() {
+        return mIndexed;
+    }
+
+    /**
+     * Returns true if the given rectangle contains every indexed segment, in which case querying it is pointless.
+     */
+    public boolean isContainedIn(float left, float top, float right, float bottom) {
+        return left <= mMinX && top <= mMinY && right >= mMaxX && bottom >= mMaxY;
+    }
+
+    /**
+     * Finds the segments whose bounding box intersects the given rectangle. Their indices are then returned by
+     * {@link #getResults()}, in no particular order.
+     *
+     * @param left
+     * @param top
+     * @param right
+     * @param bottom
+     * @return the number of segments found
+     */
+    public int query(float left, float top, float right, float bottom) {
+        mResultCount = 0;
+        if (mIndexed == 0) return 0;
+
+        mStamp++;
+        if (mStamp == 0) {
+            // Wrapped around, older stamps could match again
+            Arrays.fill(mStamps, 0);
+            mStamp = 1;
+        }
+
+        // Only the cells which hold something can match
+        int firstColumn = cell(Math.max(left, mMinX));
+        int firstRow = cell(Math.max(top, mMinY));
+        int lastColumn = cell(Math.min(right, mMaxX));
+        int lastRow = cell(Math.min(bottom, mMaxY));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int slot = find(key(column, row));
+                if (slot < 0) continue;
+
+                for (int node = mHeads[slot]; node >= 0; node = mNodeNext[node]) {
+                    addResult(mNodeSegments[node]);
+                }
+            }
+        }
+
+        for (int i = 0; i < mLargeCount; i++) {
+            addResult(mLarge[i]);
+        }
+
+        return mResultCount;
+    }
+
+    /**
+     * @return the indices of the segments found by the last query. Only as many values as it returned are
+     * meaningful
+     */
+    public int[] getResults() {
+        return mResults;
+    }
+
+    private void addResult(int segment) {
+        if (mStamps[segment] == mStamp) return;
+        mStamps[segment] = mStamp;
+
+        if (mResultCount == mResults.length) {
+            mResults = Arrays.copyOf(mResults, mResultCount * 2);
+        }
+        mResults[mResultCount++] = segment;
+    }
+
+    private void add(int segment, float x0, float y0, float x1, float y1) {
+        float left = Math.min(x0, x1);
+        float top = Math.min(y0, y1);
+        float right = Math.max(x0, x1);
+        float bottom = Math.max(y0, y1);
+
+        mMinX = Math.min(mMinX, left);
+        mMinY = Math.min(mMinY, top);
+        mMaxX = Math.max(mMaxX, right);
+        mMaxY = Math.max(mMaxY, bottom);
+
+        int firstColumn = cell(left);
+        int firstRow = cell(top);
+        int lastColumn = cell(right);
+        int lastRow = cell(bottom);
+
+        if ((long) (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > MAX_CELLS_PER_SEGMENT) {
+            if (mLargeCount == mLarge.length) {
+                mLarge = Arrays.copyOf(mLarge, mLargeCount * 2);
+            }
+            mLarge[mLargeCount++] = segment;
+            return;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                addToCell(key(column, row), segment);
+            }
+        }
+    }
+
+    private void addToCell(long key, int segment) {
+        if (mNodes == mNodeSegments.length) {
+            mNodeSegments = Arrays.copyOf(mNodeSegments, mNodes * 2);
+            mNodeNext = Arrays.copyOf(mNodeNext, mNodes * 2);
+        }
+
+        int slot = find(key);
+        if (slot < 0) {
+            // Keep the table at most half full so that probing stays short
+            if ((mCells + 1) * 2 > mKeys.length) {
+                rehash(mKeys.length * 2);
+            }
+
+            slot = ~find(key);
+            mKeys[slot] = key;
+            mHeads[slot] = -1;
+            mCells++;
+        }
+
+        mNodeSegments[mNodes] = segment;
+        mNodeNext[mNodes] = mHeads[slot];
+        mHeads[slot] = mNodes;
+        mNodes++;
+    }
+
+    /**
+     * Returns the slot of the given key, or the complement of the free slot it would be stored in.
+     */
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+
+        while (mKeys[slot] != FREE) {
+            if (mKeys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        return ~slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] heads = mHeads;
+
+        mKeys = new long[capacity];
+        mHeads = new int[capacity];
+        Arrays.fill(mKeys, FREE);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                int slot = ~find(keys[i]);
+                mKeys[slot] = keys[i];
+                mHeads[slot] = heads[i];
+            }
+        }
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / mCellSize);
+    }
+
+    private static long key(int column, int row) {
+        return (long) column << 32 | (row & 0xffffffffL);
+    }
+
+    private static int hash(long key) {
+        // Mix the bits so that neighbouring cells don't end up in neighbouring slots
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
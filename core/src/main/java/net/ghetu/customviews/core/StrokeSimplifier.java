@@ -0,0 +1,166 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * Simplifies a freehand stroke while it is being drawn, one sample at a time, so that a drag only produces the
+ * points needed to follow its shape within a tolerance. Two streaming passes are chained:
+ * </p>
+ * <ul>
+ * <li>radial distance: a sample closer than the tolerance to the previous accepted sample is skipped, which removes
+ * the jitter of a finger resting or moving slowly;</li>
+ * <li>Reumann-Witkam: the last key point and the sample following it define a strip twice the tolerance wide.
+ * Samples are skipped as long as they stay within the strip; when one leaves it, the sample before it becomes the
+ * next key point and a new strip starts from there. Moving back along the strip ends it as well, so that the
+ * stroke may double back on itself.</li>
+ * </ul>
+ * <p>
+ * Only the last key point, the direction of the strip and the last accepted sample are kept, so memory and the cost
+ * of a sample are constant however long the stroke is. Key points are delivered as they are found: after
+ * {@link #begin(float, float)}, {@link #add(float, float)} or {@link #end()} returned true, they are given by
+ * {@link #getKeyX()} and {@link #getKeyY()}.
+ * </p>
+ */
+public class StrokeSimplifier {
+    private float mTolerance;
+
+    private boolean mCapturing;
+    // Last key point
+    private float mKeyX, mKeyY;
+    // Point which, with the key point, sets the direction of the strip
+    private boolean mHasDirection;
+    private float mDirectionX, mDirectionY;
+    // Last sample accepted by the radial distance pass, which becomes the next key point when the strip is left
+    private float mLastX, mLastY;
+    private boolean mLastIsKey;
+
+    /**
+     * @param tolerance distance by which the key points may stray from the stroke, in the units of the samples
+     */
+    public StrokeSimplifier(float tolerance) {
+        setTolerance(tolerance);
+    }
+
+    public void setTolerance(float tolerance) {
+        mTolerance = Math.max(tolerance, 0);
+    }
+
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * Starts a stroke. Its first sample is always the first key point.
+     *
+     * @param x
+     * @param y
+     * @return true, the first sample being available as key point
+     */
+    public boolean begin(float x, float y) {
+        mCapturing = true;
+        mHasDirection = false;
+        mKeyX = mLastX = x;
+        mKeyY = mLastY = y;
+        mLastIsKey = true;
+
+        return true;
+    }
+
+    /**
+     * Adds the next sample of the stroke.
+     *
+     * @param x
+     * @param y
+     * @return true if a new key point was found
+     */
+    public boolean add(float x, float y) {
+        if (!mCapturing) return false;
+
+        float dx = x - mLastX, dy = y - mLastY;
+        if (dx * dx + dy * dy < mTolerance * mTolerance) return false;
+
+        boolean found = false;
+
+        if (!mHasDirection) {
+            mHasDirection = true;
+            mDirectionX = x;
+            mDirectionY = y;
+        } else if (getSquaredDistanceToLine(x, y) > mTolerance * mTolerance || isTurningBack(dx, dy)) {
+            // The sample left the strip: the last one within it is the next key point, the new strip heads here
+            mKeyX = mLastX;
+            mKeyY = mLastY;
+            mDirectionX = x;
+            mDirectionY = y;
+            found = true;
+        }
+
+        mLastX = x;
+        mLastY = y;
+        mLastIsKey = false;
+        return found;
+    }
+
+    /**
+     * @return the squared distance from the given point to the line going through the key point and the direction
+     * point, which are at least the tolerance apart
+     */
+    private float getSquaredDistanceToLine(float x, float y) {
+        float lineX = mDirectionX - mKeyX, lineY = mDirectionY - mKeyY;
+        float squaredLength = lineX * lineX + lineY * lineY;
+
+        if (squaredLength == 0) {
+            return (x - mKeyX) * (x - mKeyX) + (y - mKeyY) * (y - mKeyY);
+        }
+
+        float cross = lineX * (y - mKeyY) - lineY * (x - mKeyX);
+        return cross * cross / squaredLength;
+    }
+
+    /**
+     * A stroke which doubles back on itself stays within the strip, so the turn is detected from the direction of
+     * the movement instead.
+     */
+    private boolean isTurningBack(float dx, float dy) {
+        return dx * (mDirectionX - mKeyX) + dy * (mDirectionY - mKeyY) < 0;
+    }
+
+    /**
+     * Ends the stroke. Its last accepted sample is the last key point, unless it already is one.
+     *
+     * @return true if a last key point was found
+     */
+    public boolean end() {
+        if (!mCapturing) return false;
+        mCapturing = false;
+
+        if (mLastIsKey) return false;
+
+        mKeyX = mLastX;
+        mKeyY = mLastY;
+        mLastIsKey = true;
+        return true;
+    }
+
+    public boolean isCapturing() {
+        return mCapturing;
+    }
+
+    public float getKeyX() {
+        return mKeyX;
+    }
+
+    public float getKeyY() {
+        return mKeyY;
+    }
+
+    /**
+     * @return the X coordinate of the last sample accepted, e.g. to preview the part of the stroke which doesn't
+     * have key points yet
+     */
+    public float getLastX() {
+        return mLastX;
+    }
+
+    public float getLastY() {
+        return mLastY;
+    }
+}
@@ -0,0 +1,58 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * Colors of the points of a route and of the pathways leaving them. Styles are immutable values, interned by a
+ * {@link StyleRegistry}: points only hold the id of their style, and everything drawn with the same style shares the
+ * same paints.
+ * </p>
+ * <p>
+ * Sizes (thickness of the pathways, radius of the circles) are not part of a style; they apply to the whole view.
+ * </p>
+ */
+public final class Style {
+    private final int mLineColor;
+    private final int mStaticCircleColor;
+    private final int mAnimatedCircleColor;
+
+    /**
+     * @param lineColor           of the pathways leaving the points, as ARGB
+     * @param staticCircleColor   of the points
+     * @param animatedCircleColor of the circles pulsing around the points. Their alpha is animated on top of it
+     */
+    public Style(int lineColor, int staticCircleColor, int animatedCircleColor) {
+        mLineColor = lineColor;
+        mStaticCircleColor = staticCircleColor;
+        mAnimatedCircleColor = animatedCircleColor;
+    }
+
+    public int getLineColor() {
+        return mLineColor;
+    }
+
+    public int getStaticCircleColor() {
+        return mStaticCircleColor;
+    }
+
+    public int getAnimatedCircleColor() {
+        return mAnimatedCircleColor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Style)) return false;
+
+        Style style = (Style) o;
+        return mLineColor == style.mLineColor && mStaticCircleColor == style.mStaticCircleColor
+                && mAnimatedCircleColor == style.mAnimatedCircleColor;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mLineColor;
+        result = 31 * result + mStaticCircleColor;
+        result = 31 * result + mAnimatedCircleColor;
+        return result;
+    }
+}
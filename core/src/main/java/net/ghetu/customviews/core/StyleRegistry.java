@@ -0,0 +1,91 @@
+package net.ghetu.customviews.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Interns the {@link Style}s of a route: each distinct style gets an id, the same one every time an equal style is
+ * registered, so that points can refer to their style with an int and any number of points with identical colors
+ * share a single style (and a single set of paints).
+ * </p>
+ * <p>
+ * Ids are given in the order styles are first registered, starting from {@link #DEFAULT} which is the style of
+ * points added without one. Styles are never removed, so ids stay valid for the lifetime of the registry.
+ * </p>
+ */
+public class StyleRegistry {
+    public static final int DEFAULT = 0;
+
+    private static final int INTS_PER_STYLE = 3;
+
+    private final List<Style> mStyles = new ArrayList<Style>();
+    private final Map<Style, Integer> mIds = new HashMap<Style, Integer>();
+
+    /**
+     * @param defaultStyle style of the points which don't have one
+     */
+    public StyleRegistry(Style defaultStyle) {
+        intern(defaultStyle);
+    }
+
+    /**
+     * @param style
+     * @return the id of the given style, registering it if no equal style was registered before
+     */
+    public int intern(Style style) {
+        Integer id = mIds.get(style);
+        if (id != null) return id;
+
+        mStyles.add(style);
+        mIds.put(style, mStyles.size() - 1);
+        return mStyles.size() - 1;
+    }
+
+    /**
+     * @param id
+     * @return the style with the given id
+     */
+    public Style get(int id) {
+        return mStyles.get(id);
+    }
+
+    /**
+     * @return the number of distinct styles, i.e. the largest id plus one
+     */
+    public int size() {
+        return mStyles.size();
+    }
+
+    /**
+     * Copies the styles into a primitive array, in the order of their ids, e.g. to save them along with the route.
+     *
+     * @return
+     */
+    public int[] toPackedArray() {
+        int[] packed = new int[mStyles.size() * INTS_PER_STYLE];
+
+        for (int i = 0, j = 0; i < mStyles.size(); i++, j += INTS_PER_STYLE) {
+            Style style = mStyles.get(i);
+            packed[j] = style.getLineColor();
+            packed[j + 1] = style.getStaticCircleColor();
+            packed[j + 2] = style.getAnimatedCircleColor();
+        }
+
+        return packed;
+    }
+
+    /**
+     * Registers the styles of an array produced by {@link #toPackedArray()}. They get back the ids they had as long
+     * as the registry only holds the same default style so far.
+     *
+     * @param packed
+     */
+    public void addPacked(int[] packed) {
+        for (int j = 0; j + INTS_PER_STYLE <= packed.length; j += INTS_PER_STYLE) {
+            intern(new Style(packed[j], packed[j + 1], packed[j + 2]));
+        }
+    }
+}
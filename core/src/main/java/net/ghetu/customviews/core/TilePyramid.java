@@ -0,0 +1,142 @@
+package net.ghetu.customviews.core;
+
+/**
+ * <p>
+ * Splits a large image into square tiles at several resolutions. Level 0 is the native resolution; every further
+ * level halves it (the image is subsampled by {@code 2^level}), up to the first level at which the whole image fits in
+ * a single tile.
+ * </p>
+ * <p>
+ * A tile of level l covers {@code tileSize << l} pixels of the image in each direction, so that once decoded it is
+ * always about {@code tileSize} pixels wide. Tiles on the right and bottom edges are cut at the bounds of the image.
+ * </p>
+ * <p>
+ * Coordinates are in pixels of the full resolution image.
+ * </p>
+ */
+public class TilePyramid {
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final int mTileSize;
+    private final int mMaxLevel;
+
+    public TilePyramid(int imageWidth, int imageHeight, int tileSize) {
+        if (imageWidth <= 0 || imageHeight <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("The image and the tiles must not be empty");
+        }
+
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+        mTileSize = tileSize;
+
+        int level = 0;
+        while ((long) tileSize << level < Math.max(imageWidth, imageHeight)) {
+            level++;
+        }
+        mMaxLevel = level;
+    }
+
+    /**
+     * Returns the level to draw the image with at the given scale: the coarsest one which still has at least one
+     * image pixel per screen pixel.
+     *
+     * @param scale screen pixels per pixel of the full resolution image
+     * @return
+     */
+    public int getLevel(float scale) {
+        int level = 0;
+
+        while (level < mMaxLevel && scale * (1 << (level + 1)) <= 1) {
+            level++;
+        }
+
+        return level;
+    }
+
+    public int getMaxLevel() {
+        return mMaxLevel;
+    }
+
+    /**
+     * @return the factor by which the image is subsampled at the given level
+     */
+    public int getSampleSize(int level) {
+        return 1 << level;
+    }
+
+    /**
+     * @return the number of pixels of the image covered by a tile of the given level, in each direction
+     */
+    public int getTileExtent(int level) {
+        return mTileSize << level;
+    }
+
+    public int getColumns(int level) {
+        int extent = getTileExtent(level);
+        return (mImageWidth + extent - 1) / extent;
+    }
+
+    public int getRows(int level) {
+        int extent = getTileExtent(level);
+        return (mImageHeight + extent - 1) / extent;
+    }
+
+    public int getTileLeft(int level, int column) {
+        return column * getTileExtent(level);
+    }
+
+    public int getTileTop(int level, int row) {
+        return row * getTileExtent(level);
+    }
+
+    public int getTileRight(int level, int column) {
+        return Math.min((column + 1) * getTileExtent(level), mImageWidth);
+    }
+
+    public int getTileBottom(int level, int row) {
+        return Math.min((row + 1) * getTileExtent(level), mImageHeight);
+    }
+
+    /**
+     * Finds the tiles of the given level which intersect a region of the image.
+     *
+     * @param level
+     * @param left
+     * @param top
+     * @param right
+     * @param bottom
+     * @param range  receives the first column, first row, last column and last row, in this order. The last column
+     *               is lower than the first one if no tile is visible.
+     */
+    public void getVisibleTiles(int level, float left, float top, float right, float bottom, int[] range) {
+        int extent = getTileExtent(level);
+
+        range[0] = Math.max(0, (int) Math.floor(left / extent));
+        range[1] = Math.max(0, (int) Math.floor(top / extent));
+        range[2] = Math.min(getColumns(level) - 1, (int) Math.ceil(right / extent) - 1);
+        range[3] = Math.min(getRows(level) - 1, (int) Math.ceil(bottom / extent) - 1);
+
+        if (range[3] < range[1]) {
+            range[2] = range[0] - 1;
+        }
+    }
+
+    /**
+     * Packs the position of a tile into a single key, e.g. for caches.
+     */
+    public static long getKey(int level, int column, int row) {
+        return (long) level << 56 | (long) column << 28 | row;
+    }
+
+    public int getImageWidth() {
+        return mImageWidth;
+    }
+
+    public int getImageHeight() {
+        return mImageHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+}
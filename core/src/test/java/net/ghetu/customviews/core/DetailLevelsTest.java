@@ -0,0 +1,96 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that every level of {@link DetailLevels} stays within its tolerance of the route.
+ */
+public class DetailLevelsTest {
+
+    @Test
+    public void droppedPointsAreWithinTheToleranceOfTheLevel() throws Exception {
+        RouteStore route = createRoute(20000);
+        DetailLevels levels = DetailLevels.build(route.getXs(), route.getYs(), route.size(), 4);
+
+        assertTrue(levels.getLevelCount() > 1);
+
+        for (int level = 0; level < levels.getLevelCount(); level++) {
+            int[] indices = levels.getIndices(level);
+            float tolerance = levels.getTolerance(level);
+
+            assertEquals(0, indices[0]);
+            assertEquals(route.size() - 1, indices[indices.length - 1]);
+            assertTrue(indices.length * 2 <= route.size());
+
+            for (int j = 1; j < indices.length; j++) {
+                int from = indices[j - 1];
+                int to = indices[j];
+
+                for (int i = from + 1; i < to; i++) {
+                    float distance = RouteIndex.getSquaredDistance(route.getX(i), route.getY(i), route.getX(from),
+                            route.getY(from), route.getX(to), route.getY(to));
+                    assertTrue("Point " + i + " strays from level " + level, distance <= tolerance * tolerance);
+                }
+            }
+
+            // Finer levels keep more points
+            if (level > 0) {
+                assertTrue(indices.length >= levels.getIndices(level - 1).length);
+            }
+        }
+    }
+
+    @Test
+    public void levelMatchesTheTolerance() throws Exception {
+        RouteStore route = createRoute(20000);
+        DetailLevels levels = DetailLevels.build(route.getXs(), route.getYs(), route.size(), 1);
+
+        assertEquals(0, levels.getLevel(1));
+        assertEquals(0, levels.getLevel(3));
+        assertEquals(1, levels.getLevel(0.7f));
+        assertEquals(-1, levels.getLevel(0));
+    }
+
+    @Test
+    public void gatherReachesTheCompletedPoint() throws Exception {
+        RouteStore route = new RouteStore();
+        for (int i = 0; i <= 10; i++) {
+            route.add(i * 10, 0);
+        }
+
+        // Straight line: only the ends are kept
+        DetailLevels levels = DetailLevels.build(route.getXs(), route.getYs(), route.size(), 1);
+        assertArrayEquals(new int[]{0, 10}, levels.getIndices(0));
+
+        assertEquals(1, levels.gather(0, route, 4, -1000, -1000, 1000, 1000));
+        assertEquals(40, levels.getSegments()[2], 0);
+
+        // Appended points are drawn in full after the last point of the level
+        route.add(100, 50);
+        route.add(100, 100);
+        assertEquals(3, levels.gather(0, route, 12, -1000, -1000, 1000, 1000));
+        float[] segments = levels.getSegments();
+        assertEquals(100, segments[4 * 2 + 3], 0);
+
+        // Outside of the visible area
+        assertEquals(0, levels.gather(0, route, 10, -1000, 10, 1000, 1000));
+    }
+
+    private static RouteStore createRoute(int count) {
+        Random random = new Random(17);
+        RouteStore route = new RouteStore(count);
+        float x = 0, y = 0;
+
+        for (int i = 0; i < count; i++) {
+            route.add(x, y);
+            x += random.nextFloat() * 2 - 0.8f;
+            y += random.nextFloat() * 2 - 1;
+        }
+
+        return route;
+    }
+}
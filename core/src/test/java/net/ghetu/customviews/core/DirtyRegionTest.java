@@ -0,0 +1,55 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link DirtyRegion} only covers what changes around the head of the playback, however long the route.
+ */
+public class DirtyRegionTest {
+    private static final int POINTS = 100;
+    private static final float SPACING = 10;
+    private static final int LINE_DURATION = 60;
+    private static final int PULSE_DURATION = 500;
+    private static final float POINT_MARGIN = 5;
+    private static final float PULSE_RADIUS = 20;
+
+    @Test
+    public void regionFollowsTheHead() throws Exception {
+        RouteStore route = new RouteStore(POINTS);
+        for (int i = 0; i < POINTS; i++) {
+            route.add(i * SPACING, 0);
+        }
+
+        RouteAnimation animation = new RouteAnimation(route, LINE_DURATION, PULSE_DURATION);
+        DirtyRegion region = new DirtyRegion();
+        region.reset();
+        animation.start();
+        animation.onFrame(0);
+        assertFalse("The first frame redraws the whole view", region.update(route, animation, POINT_MARGIN,
+                PULSE_RADIUS));
+
+        // The pulses of the points reached over the last pulse duration, and the pathways of the last two frames
+        float maxWidth = (PULSE_DURATION / LINE_DURATION + 2) * SPACING + 2 * PULSE_RADIUS;
+
+        for (long time = 16; time <= POINTS * LINE_DURATION; time += 16) {
+            animation.onFrame(time);
+            assertTrue(region.update(route, animation, POINT_MARGIN, PULSE_RADIUS));
+
+            assertTrue("Width at " + time, region.getRight() - region.getLeft() <= maxWidth);
+            assertEquals(-PULSE_RADIUS, region.getTop(), 0f);
+            assertEquals(PULSE_RADIUS, region.getBottom(), 0f);
+
+            // Pathways whose pulses ended are left behind
+            int completed = animation.getCompletedSegments();
+            float finished = (completed - PULSE_DURATION / LINE_DURATION - 2) * SPACING;
+            assertTrue("Left at " + time, region.getLeft() >= finished - PULSE_RADIUS);
+        }
+
+        // Halfway, the region is far from the start of the route
+        animation.onFrame(POINTS * LINE_DURATION / 2);
+        region.update(route, animation, POINT_MARGIN, PULSE_RADIUS);
+        assertTrue(region.getLeft() > POINTS * SPACING / 4);
+    }
+}
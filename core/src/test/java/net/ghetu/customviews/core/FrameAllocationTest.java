@@ -0,0 +1,158 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>
+ * Makes sure that evaluating a frame (ticking the timeline, evaluating the route, computing the dirty region,
+ * preparing the draw buffers, gathering the simplified route, selecting the clusters, culling, and evaluating the
+ * window of streamed points) does not allocate, so long playbacks never trigger garbage collections.
+ * </p>
+ * <p>
+ * Only the helpers of this module are covered. MapPointsView.onDraw itself, the Viewport which maps the buffers to
+ * view coordinates and the Canvas calls need the Android framework, which these JVM tests don't have: allocations
+ * there are not checked.
+ * </p>
+ */
+public class FrameAllocationTest {
+    private static final int POINTS = 10000;
+    private static final int FRAMES = 10000;
+    private static final int FRAME_DURATION = 16;
+    private static final int WINDOW_POINTS = 256;
+    private static final int WINDOW_FADE_STEPS = 8;
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 3;
+
+    private RouteStore mRoute;
+    private AnimationTimeline mTimeline;
+    private RouteAnimation mAnimation;
+    private DrawBuffers mBuffers;
+    private DirtyRegion mRegion;
+    private RouteCuller mCuller;
+    private DetailLevels mDetailLevels;
+    private PointClusters mClusters;
+    private RouteWindow mWindow;
+    private float[] mWindowSegments;
+    private float[] mWindowPoints;
+
+    @Test
+    public void framesDoNotAllocate() throws Exception {
+        assertFramesDoNotAllocate(0);
+    }
+
+    @Test
+    public void constantVelocityFramesDoNotAllocate() throws Exception {
+        assertFramesDoNotAllocate(200);
+    }
+
+    private void assertFramesDoNotAllocate(float velocity) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        mRoute = new RouteStore(POINTS);
+        for (int i = 0; i < POINTS; i++) {
+            mRoute.add(i, i % 7);
+        }
+
+        mTimeline = new AnimationTimeline();
+        mAnimation = new RouteAnimation(mRoute, 32, 500);
+        mAnimation.setVelocity(velocity);
+        mBuffers = new DrawBuffers();
+        mBuffers.ensureCapacity(mRoute.size());
+        mRegion = new DirtyRegion();
+        mCuller = new RouteCuller(128);
+        mDetailLevels = DetailLevels.build(mRoute.getXs(), mRoute.getYs(), mRoute.size(), 64);
+        mClusters = new PointClusters(40);
+        mClusters.setFirstLevel(mClusters.computeLevel(mRoute.getXs(), mRoute.getYs(), mRoute.size(),
+                PointClusters.MAX_LEVEL));
+        mWindow = new RouteWindow(WINDOW_POINTS, 10000, 32, 500);
+        mWindowSegments = new float[(WINDOW_POINTS - 1) * 4];
+        mWindowPoints = new float[WINDOW_POINTS * 2];
+
+        // Run the path a few times first, so that class initialisation, the buffers which grow once (e.g. the coarser
+        // levels of clusters, merged when first selected) and the JIT, which allocates a few bytes while it still
+        // recompiles the path, don't count as frame allocations
+        long frameTime = 0;
+        for (int run = 0; run < WARM_UP_RUNS; run++) {
+            simulate(frameTime);
+            frameTime += FRAMES * FRAME_DURATION;
+        }
+
+        // Any allocation left in the frame path has to show up on every run, so every run has to be clean
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            float checksum = simulate(frameTime);
+            frameTime += FRAMES * FRAME_DURATION;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            assertTrue(checksum != 0);
+            assertEquals("Bytes allocated across " + FRAMES + " frames of run " + run, 0, allocated);
+        }
+    }
+
+    /**
+     * Plays the route for {@link #FRAMES} frames, doing on each frame the same work as the view (except for the
+     * actual drawing calls). The zoom changes on every frame, so that every level of detail and of clusters is used.
+     */
+    private float simulate(long frameTime) {
+        RouteStore route = mRoute;
+        RouteAnimation animation = mAnimation;
+        float checksum = 0;
+
+        mBuffers.invalidate();
+        animation.start();
+        mTimeline.start(animation);
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            mTimeline.tick(frameTime);
+
+            if (mRegion.update(route, animation, 10, 61)) {
+                checksum += mRegion.getRight() - mRegion.getLeft();
+            }
+
+            int completed = animation.getCompletedSegments();
+            float[] segments = mBuffers.packSegments(route, completed);
+            float[] points = mBuffers.packPoints(route, route.size());
+            checksum += segments[0] + points[completed * 2];
+
+            // A visible area which follows the head, so that most of the route is culled
+            float x = route.getX(completed);
+            if (mCuller.cull(route, x - 500, -100, x + 500, 100, segments, completed, points, 0)) {
+                checksum += mCuller.getSegmentCount() + mCuller.getPointCount();
+            }
+
+            int level = frame % mDetailLevels.getLevelCount();
+            int gathered = mDetailLevels.gather(level, route, completed, x - 500, -100, x + 500, 100);
+            checksum += gathered + mDetailLevels.getSegments()[0] + mDetailLevels.getOrigins()[0];
+            checksum += mDetailLevels.getLevel(frame % 100);
+
+            checksum += mClusters.select(route, frame % (PointClusters.MAX_LEVEL + 1), PointClusters.MAX_LEVEL);
+
+            if (animation.isHeadGrowing()) {
+                checksum += animation.getHeadX() + animation.getHeadY();
+            }
+
+            for (int i = animation.getFirstPulse(); i <= animation.getLastPulse(); i++) {
+                float fraction = animation.getPulseFraction(i);
+                checksum += Evaluators.evaluate(fraction, 16f, 120f) + Evaluators.evaluate(fraction, 100, 0);
+            }
+
+            // A point streamed every other frame, as a live feed would
+            if (frame % 2 == 0) {
+                mWindow.add(frame, frame % 7, frameTime);
+            }
+            mWindow.evaluate(frameTime);
+            checksum += mWindow.packSegments(mWindowSegments) + mWindow.packPoints(mWindowPoints);
+            checksum += mWindow.getOpacity(0) + mWindow.getNextChangeTime(WINDOW_FADE_STEPS) - frameTime;
+
+            frameTime += FRAME_DURATION;
+        }
+
+        return checksum;
+    }
+}
@@ -0,0 +1,106 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link PointClusters} gives the same clusters whichever way a level is computed.
+ */
+public class PointClustersTest {
+
+    @Test
+    public void mergedLevelsMatchTheOnesComputedFromThePoints() throws Exception {
+        RouteStore route = createRoute(30000);
+
+        for (int level = 0; level <= 3; level++) {
+            PointClusters merged = new PointClusters(48);
+            merged.select(route, 3, 3);
+            merged.select(route, level, 3);
+
+            PointClusters direct = new PointClusters(48);
+            direct.select(route, level, level);
+
+            assertSameClusters(route, direct, merged, level);
+        }
+    }
+
+    @Test
+    public void parallelClusteringMatchesSequentialClustering() throws Exception {
+        RouteStore route = createRoute(100000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            // Computed from the points known at the time, as a background thread would
+            PointClusters parallel = new PointClusters(48);
+            parallel.setExecutor(executor, 4);
+            parallel.setFirstLevel(parallel.computeLevel(route.getXs(), route.getYs(), 90000, 2));
+            assertEquals(2, parallel.getFinestLevel());
+
+            PointClusters sequential = new PointClusters(48);
+            sequential.select(route, 2, 2);
+
+            // The points appended since are clustered when the level is selected
+            assertSameClusters(route, sequential, parallel, 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void appendedPointsJoinTheirCluster() throws Exception {
+        RouteStore route = new RouteStore();
+        route.add(10, 10);
+        route.add(200, 200);
+
+        PointClusters clusters = new PointClusters(100);
+        assertEquals(2, clusters.select(route, 0, 1));
+
+        route.add(20, 30);
+        route.add(-5, 10);
+        assertEquals(3, clusters.select(route, 0, 1));
+        assertEquals(2, clusters.getSize(clusters.indexOf(20, 30)));
+        assertEquals(15, clusters.getX(0), 1e-4);
+        assertEquals(20, clusters.getY(0), 1e-4);
+        assertEquals(3, clusters.getFirst(2));
+
+        // The finer level, computed first, got the points as well. Its cells are half as large
+        route.add(60, 10);
+        assertEquals(3, clusters.select(route, 0, 1));
+        assertEquals(3, clusters.getSize(0));
+        assertEquals(4, clusters.select(route, 1, 1));
+        assertEquals(2, clusters.getSize(clusters.indexOf(20, 30)));
+        assertEquals(-1, clusters.indexOf(1000, 1000));
+    }
+
+    private static void assertSameClusters(RouteStore route, PointClusters expected, PointClusters actual,
+                                           int level) {
+        int count = expected.select(route, level, level);
+        assertEquals(count, actual.select(route, level, level));
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.getSize(i), actual.getSize(i));
+            assertEquals(expected.getFirst(i), actual.getFirst(i));
+            assertEquals(expected.getX(i), actual.getX(i), 1e-2);
+            assertEquals(expected.getY(i), actual.getY(i), 1e-2);
+        }
+    }
+
+    private static RouteStore createRoute(int count) {
+        Random random = new Random(23);
+        RouteStore route = new RouteStore(count);
+        float x = 0, y = 0;
+
+        for (int i = 0; i < count; i++) {
+            route.add(x, y);
+            x = Math.max(-3000, Math.min(3000, x + random.nextFloat() * 20 - 10));
+            y = Math.max(-3000, Math.min(3000, y + random.nextFloat() * 20 - 10));
+        }
+
+        return route;
+    }
+}
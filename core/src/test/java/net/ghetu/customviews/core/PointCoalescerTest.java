@@ -0,0 +1,70 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the samples kept by each policy of {@link PointCoalescer}, and the counts it reports.
+ */
+public class PointCoalescerTest {
+
+    @Test
+    public void latestKeepsOneSamplePerFrame() throws Exception {
+        PointCoalescer coalescer = new PointCoalescer();
+        coalescer.setPolicy(PointCoalescer.POLICY_LATEST);
+
+        float[] samples = {0, 0, 1, 1, 2, 2};
+        assertEquals(1, coalescer.coalesce(samples, 3));
+        assertEquals(2f, samples[0], 0f);
+        assertEquals(2f, samples[1], 0f);
+
+        assertEquals(0, coalescer.coalesce(samples, 0));
+        assertEquals(2, coalescer.getDroppedCount());
+        assertEquals(0, coalescer.getMergedCount());
+    }
+
+    @Test
+    public void distanceIsMeasuredFromTheLastKeptSample() throws Exception {
+        PointCoalescer coalescer = new PointCoalescer();
+        coalescer.setPolicy(PointCoalescer.POLICY_DISTANCE);
+        coalescer.setDistance(10);
+
+        float[] samples = {0, 0, 4, 0, 8, 0, 12, 0, 16, 0};
+        assertEquals(2, coalescer.coalesce(samples, 5));
+        assertEquals(12f, samples[2], 0f);
+
+        // Still too close to the sample kept on the previous frame
+        samples = new float[]{20, 0, 22, 0};
+        assertEquals(1, coalescer.coalesce(samples, 2));
+        assertEquals(22f, samples[0], 0f);
+        assertEquals(4, coalescer.getMergedCount());
+    }
+
+    @Test
+    public void angleKeepsTurnsAndTheLatestSample() throws Exception {
+        PointCoalescer coalescer = new PointCoalescer();
+        coalescer.setPolicy(PointCoalescer.POLICY_ANGLE);
+        coalescer.setAngle(30);
+
+        // Straight to the right, a right angle at (3, 0), then up
+        float[] samples = {0, 0, 1, 0, 2, 0, 3, 0, 3, 1, 3, 2};
+        assertEquals(3, coalescer.coalesce(samples, 6));
+        assertEquals(0f, samples[0], 0f);
+        assertEquals(3f, samples[2], 0f);
+        assertEquals(0f, samples[3], 0f);
+        assertEquals(2f, samples[5], 0f);
+        assertEquals(3, coalescer.getMergedCount());
+    }
+
+    @Test
+    public void batchKeepsEverySample() throws Exception {
+        PointCoalescer coalescer = new PointCoalescer();
+        coalescer.setPolicy(PointCoalescer.POLICY_BATCH);
+
+        float[] samples = {0, 0, 1, 1, 2, 2};
+        assertEquals(3, coalescer.coalesce(samples, 3));
+        assertEquals(2, coalescer.getMergedCount());
+        assertEquals(0, coalescer.getDroppedCount());
+    }
+}
@@ -0,0 +1,81 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link PointQueue} hands points over from one thread to another in order, without losing any.
+ */
+public class PointQueueTest {
+    private static final int POINTS = 100000;
+
+    @Test
+    public void fullQueueRefusesPoints() throws Exception {
+        PointQueue queue = new PointQueue(3);
+        assertEquals(4, queue.getCapacity());
+
+        assertEquals(3, queue.offer(new float[]{0, 0, 1, 1, 2, 2}, 0, 3));
+        assertTrue(queue.offer(3, 3));
+        assertFalse(queue.offer(4, 4));
+        assertEquals(0, queue.offer(new float[]{5, 5}, 0, 1));
+        assertEquals(2, queue.getRefusedCount());
+
+        RouteStore route = new RouteStore();
+        assertEquals(4, queue.drainTo(route));
+        assertEquals(3f, route.getX(3), 0f);
+
+        // The slots are reused once drained
+        assertEquals(2, queue.offer(new float[]{4, 4, 5, 5, 6, 6}, 1, 2));
+        assertEquals(2, queue.drainTo(route));
+        assertEquals(6f, route.getY(5), 0f);
+    }
+
+    @Test(timeout = 10000)
+    public void pointsArriveInOrderAcrossThreads() throws Exception {
+        final PointQueue queue = new PointQueue(256);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] batch = new float[16];
+
+                for (int i = 0; i < POINTS; ) {
+                    int offered;
+                    if (i % 3 == 0) {
+                        offered = queue.offer(i, -i) ? 1 : 0;
+                    } else {
+                        int count = Math.min(8, POINTS - i);
+                        for (int k = 0; k < count; k++) {
+                            batch[k * 2] = i + k;
+                            batch[k * 2 + 1] = -(i + k);
+                        }
+                        offered = queue.offer(batch, 0, count);
+                    }
+
+                    // Let the consumer run when the queue is full, rather than spinning on a single core
+                    if (offered == 0) {
+                        Thread.yield();
+                    }
+                    i += offered;
+                }
+            }
+        });
+
+        RouteStore route = new RouteStore(POINTS);
+        producer.start();
+
+        while (route.size() < POINTS) {
+            if (queue.drainTo(route) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+
+        for (int i = 0; i < POINTS; i++) {
+            assertEquals(i, route.getX(i), 0f);
+            assertEquals(-i, route.getY(i), 0f);
+        }
+        assertEquals(0, queue.size());
+    }
+}
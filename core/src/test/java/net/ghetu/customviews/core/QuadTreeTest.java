@@ -0,0 +1,39 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that queries of {@link QuadTree} only go through the boxes around the queried rectangle.
+ */
+public class QuadTreeTest {
+    private static final int SEGMENTS = 20000;
+
+    @Test
+    public void boxesAcrossCenterLinesAreNotVisitedByEveryQuery() throws Exception {
+        QuadTree tree = new QuadTree();
+
+        // The first root is centered on the first box, so y = 0 is the center line of a whole row of nodes as the
+        // tree grows. Then a route zigzags across it
+        tree.insert(0, 0, 0, 0);
+        for (int i = 0; i < SEGMENTS; i++) {
+            tree.insert(i, -1, i + 1, 1);
+        }
+
+        for (int x = 0; x < SEGMENTS; x += 997) {
+            int found = tree.query(x + 0.25f, -0.25f, x + 0.75f, 0.25f);
+
+            assertEquals(1, found);
+            assertEquals(x + 1, tree.getResults()[0]);
+            assertTrue("Candidates visited around " + x + ": " + tree.getCandidateCount(),
+                    tree.getCandidateCount() <= 32);
+        }
+
+        // Large boxes stay high in the tree, but are still found
+        int large = tree.insert(-5000, -5000, 5000, 5000);
+        assertEquals(2, tree.query(4000.25f, -0.25f, 4000.75f, 0.25f));
+        int[] results = tree.getResults();
+        assertTrue(results[0] == large || results[1] == large);
+    }
+}
@@ -0,0 +1,270 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the sequencing of {@link RouteAnimation}. The cost of a whole playback is measured by PlaybackBenchmark.
+ */
+public class RouteAnimationTest {
+
+    @Test
+    public void lineStartsWithItsOriginPulse() throws Exception {
+        RouteAnimation animation = new RouteAnimation(createRoute(4), 100, 50);
+        animation.start();
+
+        animation.onFrame(1000);
+        assertEquals(0, animation.getCompletedSegments());
+        assertTrue(animation.isHeadGrowing());
+        assertEquals(0, animation.getFirstPulse());
+        assertEquals(0, animation.getLastPulse());
+
+        // Line 1 and the pulse of point 1 start together, the pulse of point 0 is over by then
+        animation.onFrame(1100);
+        assertEquals(1, animation.getCompletedSegments());
+        assertEquals(1, animation.getFirstPulse());
+        assertEquals(1, animation.getLastPulse());
+        assertEquals(0f, animation.getPulseFraction(1), 0f);
+
+        // Half way through line 2
+        animation.onFrame(1250);
+        assertEquals(2, animation.getCompletedSegments());
+        assertEquals(2.5f, animation.getHeadX(), 0.001f);
+
+        // The pulse of the last point outlives the last line
+        animation.onFrame(1320);
+        assertTrue(animation.isRunning());
+        assertFalse(animation.isHeadGrowing());
+        assertEquals(3, animation.getCompletedSegments());
+        assertEquals(3, animation.getLastPulse());
+
+        assertFalse(animation.onFrame(1350));
+    }
+
+    @Test
+    public void velocityMovesHeadAtConstantSpeed() throws Exception {
+        // A vertical line of length 10 followed by a diagonal one of length 30
+        RouteStore route = new RouteStore();
+        route.add(0, 0);
+        route.add(0, 10);
+        route.add(18, 34);
+
+        RouteAnimation animation = new RouteAnimation(route, 100, 50);
+        animation.setVelocity(10);
+        animation.start();
+
+        animation.onFrame(0);
+        animation.onFrame(500);
+        assertEquals(0, animation.getCompletedSegments());
+        assertEquals(0f, animation.getHeadX(), 0.001f);
+        assertEquals(5f, animation.getHeadY(), 0.001f);
+
+        // The second line is three times longer, so it takes three times as long
+        animation.onFrame(2000);
+        assertEquals(1, animation.getCompletedSegments());
+        assertEquals(6f, animation.getHeadX(), 0.001f);
+        assertEquals(18f, animation.getHeadY(), 0.001f);
+        assertEquals(1, animation.getLastPulse());
+        assertEquals(1000.0, animation.getPointTime(1), 0.001);
+
+        animation.onFrame(4000);
+        assertEquals(2, animation.getCompletedSegments());
+        assertEquals(2, animation.getFirstPulse());
+        assertFalse(animation.isHeadGrowing());
+
+        assertFalse(animation.onFrame(4050));
+    }
+
+    @Test
+    public void seekResolvesPositionWithoutPlaying() throws Exception {
+        RouteAnimation animation = new RouteAnimation(createRoute(1000), 100, 50);
+
+        animation.seekTo(25025);
+        assertFalse(animation.isRunning());
+        assertEquals(250, animation.getCompletedSegments());
+        assertTrue(animation.isHeadGrowing());
+        assertEquals(250.25f, animation.getHeadX(), 0.001f);
+        assertEquals(250, animation.getFirstPulse());
+        assertEquals(250, animation.getLastPulse());
+
+        animation.setProgress(1);
+        assertEquals(999, animation.getCompletedSegments());
+        assertFalse(animation.isHeadGrowing());
+        assertEquals(1f, animation.getProgress(), 0f);
+
+        // Seeking backwards restores the earlier state
+        animation.setProgress(0.5f);
+        assertEquals(499, animation.getCompletedSegments());
+    }
+
+    @Test
+    public void runningPlaybackContinuesFromSeekPosition() throws Exception {
+        RouteAnimation animation = new RouteAnimation(createRoute(100), 100, 50);
+        animation.start();
+        animation.onFrame(5000);
+        animation.onFrame(5100);
+        assertEquals(1, animation.getCompletedSegments());
+
+        animation.seekTo(4000);
+        assertEquals(40, animation.getCompletedSegments());
+
+        // The next frame anchors the playback at the seek position, the following ones advance from it
+        assertTrue(animation.onFrame(5116));
+        assertEquals(4000, animation.getElapsed());
+        animation.onFrame(5216);
+        assertEquals(41, animation.getCompletedSegments());
+    }
+
+    @Test
+    public void upperBoundSkipsEqualValues() throws Exception {
+        double[] distances = {0, 5, 5, 5, 12, 0};
+
+        assertEquals(0, RouteAnimation.upperBound(distances, 5, -1));
+        assertEquals(1, RouteAnimation.upperBound(distances, 5, 0));
+        assertEquals(4, RouteAnimation.upperBound(distances, 5, 5));
+        assertEquals(4, RouteAnimation.upperBound(distances, 5, 11.9));
+        assertEquals(5, RouteAnimation.upperBound(distances, 5, 100));
+    }
+
+    @Test
+    public void resumeSkipsTheTimeSpentPaused() throws Exception {
+        RouteAnimation animation = new RouteAnimation(createRoute(4), 100, 50);
+        animation.start();
+
+        animation.onFrame(1000);
+        animation.onFrame(1150);
+        animation.pause();
+        assertTrue(animation.isPaused());
+        assertFalse(animation.onFrame(1200));
+        assertEquals(150, animation.getElapsed());
+
+        // The playback continues from where it was paused, whenever the next frame arrives
+        animation.resume();
+        assertTrue(animation.onFrame(60000));
+        assertEquals(150, animation.getElapsed());
+        animation.onFrame(60050);
+        assertEquals(200, animation.getElapsed());
+        assertEquals(2, animation.getCompletedSegments());
+    }
+
+    @Test
+    public void restoredPlaybackContinuesMidRoute() throws Exception {
+        RouteStore route = createRoute(5);
+        RouteStore restored = new RouteStore();
+        restored.setPacked(route.toPackedArray());
+
+        assertEquals(route.size(), restored.size());
+        assertEquals(route.getLength(), restored.getLength(), 0);
+        assertEquals(route.getY(3), restored.getY(3), 0);
+
+        RouteAnimation animation = new RouteAnimation(restored, 100, 50);
+        animation.startAt(250);
+        assertEquals(2, animation.getCompletedSegments());
+
+        // The playback is anchored on the next frame, at the restored position
+        assertTrue(animation.onFrame(5000));
+        assertEquals(250, animation.getElapsed());
+        animation.onFrame(5100);
+        assertEquals(3, animation.getCompletedSegments());
+    }
+
+    @Test
+    public void restoredBatchesKeepTheirSchedule() throws Exception {
+        RouteStore route = new RouteStore();
+        for (int i = 0; i < 30; i++) {
+            // Batches of 4 points, then single points
+            route.add(i, i % 2, 0, i >= 20 || i % 4 == 0);
+        }
+
+        RouteStore restored = new RouteStore();
+        restored.setPacked(route.toPackedArray());
+        restored.setPackedInstantRuns(route.toPackedInstantRuns());
+
+        RouteAnimation animation = new RouteAnimation(route, 100, 50);
+        RouteAnimation restoredAnimation = new RouteAnimation(restored, 100, 50);
+        for (int i = 0; i < route.size(); i++) {
+            assertEquals(animation.getPointTime(i), restoredAnimation.getPointTime(i), 0);
+        }
+
+        // The same time lands on the same point
+        animation.seekTo(1250);
+        restoredAnimation.seekTo(1250);
+        assertEquals(animation.getCompletedSegments(), restoredAnimation.getCompletedSegments());
+        assertArrayEquals(new int[]{1, 3, 5, 3, 9, 3, 13, 3, 17, 3}, route.toPackedInstantRuns());
+    }
+
+    @Test
+    public void appendedPointsGrowFromTheLastOne() throws Exception {
+        RouteStore route = createRoute(3);
+        RouteAnimation animation = new RouteAnimation(route, 100, 50);
+        animation.start();
+
+        animation.onFrame(1000);
+        assertFalse(animation.onFrame(5000));
+        assertEquals(2, animation.getCompletedSegments());
+
+        route.add(3, 1);
+        assertTrue(animation.onPointsAppended(3));
+
+        // Anchored on the next frame, at the time point 2 was reached
+        animation.onFrame(9000);
+        assertEquals(200, animation.getElapsed());
+        assertTrue(animation.isHeadGrowing());
+        assertEquals(2, animation.getCompletedSegments());
+
+        animation.onFrame(9050);
+        assertEquals(2.5f, animation.getHeadX(), 0.001f);
+
+        // While the head is still on its way, new points simply extend the schedule
+        route.add(4, 0);
+        assertFalse(animation.onPointsAppended(4));
+        animation.onFrame(9150);
+        assertEquals(3, animation.getCompletedSegments());
+        assertTrue(animation.isHeadGrowing());
+    }
+
+    @Test
+    public void batchesDoNotDelayThePlayback() throws Exception {
+        RouteStore route = new RouteStore();
+        RouteAnimation animation = new RouteAnimation(route, 100, 50);
+        route.add(0, 0);
+        animation.start();
+        animation.onFrame(0);
+
+        // A batch of 10 points arrives every 100 ms, while each animated pathway takes 100 ms as well
+        float x = 0;
+        for (long frameTime = 100; frameTime <= 100000; frameTime += 100) {
+            int previousCount = route.size();
+            for (int i = 0; i < 10; i++) {
+                route.add(++x, 0, 0, i == 9);
+            }
+
+            animation.onPointsAppended(previousCount);
+            animation.onFrame(frameTime);
+
+            double lag = animation.getPointTime(route.size() - 1) - animation.getElapsed();
+            assertTrue("Lag after " + frameTime + " ms: " + lag, lag <= 200);
+        }
+
+        // The instant pathways of a batch appear at once, along with the point they leave
+        assertEquals(5000, animation.getPointTime(500), 0);
+        assertEquals(5000, animation.getPointTime(509), 0);
+        assertEquals(5100, animation.getPointTime(510), 0);
+
+        // The same goes with a velocity, instant pathways having no length
+        animation.setVelocity(10);
+        assertEquals(5000, animation.getPointTime(509), 0.001);
+        assertEquals(5100, animation.getPointTime(510), 0.001);
+    }
+
+    private static RouteStore createRoute(int count) {
+        RouteStore route = new RouteStore(count);
+
+        for (int i = 0; i < count; i++) {
+            route.add(i, i % 2);
+        }
+
+        return route;
+    }
+}
@@ -0,0 +1,111 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the lookups of {@link RouteIndex} against a linear scan of a 100k-point route.
+ */
+public class RouteIndexTest {
+    private static final int POINTS = 100000;
+
+    @Test
+    public void nearestPointMatchesALinearScan() throws Exception {
+        RouteStore route = createRoute();
+        RouteIndex index = new RouteIndex();
+        index.update(route);
+
+        Random random = new Random(3);
+        for (int q = 0; q < 200; q++) {
+            float x = random.nextFloat() * 4000 - 2000;
+            float y = random.nextFloat() * 4000 - 2000;
+
+            assertEquals(scanPoints(route, x, y, 20), index.findNearestPoint(route, x, y, 20));
+        }
+    }
+
+    @Test
+    public void nearestSegmentMatchesALinearScan() throws Exception {
+        RouteStore route = createRoute();
+        RouteIndex index = new RouteIndex();
+        index.update(route);
+
+        Random random = new Random(5);
+        for (int q = 0; q < 200; q++) {
+            float x = random.nextFloat() * 4000 - 2000;
+            float y = random.nextFloat() * 4000 - 2000;
+
+            assertEquals(scanSegments(route, x, y, 8), index.findNearestSegment(route, x, y, 8));
+        }
+    }
+
+    @Test
+    public void appendedPointsAreFound() throws Exception {
+        RouteStore route = new RouteStore();
+        RouteIndex index = new RouteIndex();
+
+        route.add(0, 0);
+        route.add(100, 0);
+        index.update(route);
+        assertEquals(0, index.findNearestSegment(route, 50, 3, 5));
+        assertEquals(-1, index.findNearestPoint(route, 50, 3, 5));
+
+        // Far outside of what was indexed so far
+        route.add(100000, -50000);
+        index.update(route);
+        assertEquals(2, index.findNearestPoint(route, 99999, -50001, 5));
+        assertEquals(1, index.findNearestSegment(route, 50050, -25000, 5));
+    }
+
+    private static int scanPoints(RouteStore route, float x, float y, float radius) {
+        int nearest = -1;
+        float nearestDistance = radius * radius;
+
+        for (int i = 0; i < route.size(); i++) {
+            float dx = route.getX(i) - x;
+            float dy = route.getY(i) - y;
+            float distance = dx * dx + dy * dy;
+
+            if (distance < nearestDistance || distance == nearestDistance && nearest < 0) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+
+    private static int scanSegments(RouteStore route, float x, float y, float tolerance) {
+        int nearest = -1;
+        float nearestDistance = tolerance * tolerance;
+
+        for (int i = 0; i < route.size() - 1; i++) {
+            float distance = RouteIndex.getSquaredDistance(x, y, route.getX(i), route.getY(i), route.getX(i + 1),
+                    route.getY(i + 1));
+
+            if (distance < nearestDistance || distance == nearestDistance && nearest < 0) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearest;
+    }
+
+    private static RouteStore createRoute() {
+        Random random = new Random(11);
+        RouteStore route = new RouteStore(POINTS);
+        float x = 0, y = 0;
+
+        for (int i = 0; i < POINTS; i++) {
+            route.add(x, y);
+            x = Math.max(-2000, Math.min(2000, x + random.nextFloat() * 40 - 20));
+            y = Math.max(-2000, Math.min(2000, y + random.nextFloat() * 40 - 20));
+        }
+
+        return route;
+    }
+}
@@ -0,0 +1,133 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link RouteWindow} keeps the latest points only, plays them back as they arrive and fades out the
+ * oldest ones.
+ */
+public class RouteWindowTest {
+
+    @Test
+    public void oldestPointsAreEvictedOnceFull() throws Exception {
+        RouteWindow window = new RouteWindow(8, 0, 100, 50);
+
+        for (int i = 0; i < 1000; i++) {
+            window.add(i, -i, 0);
+        }
+
+        assertEquals(8, window.size());
+        assertEquals(992f, window.getX(0), 0f);
+        assertEquals(-999f, window.getY(7), 0f);
+
+        // Points about to be evicted are transparent, the newest ones opaque
+        window.evaluate(1000000);
+        assertEquals(0.5f, window.getOpacity(0), 0.001f);
+        assertEquals(1f, window.getOpacity(1), 0.001f);
+        assertEquals(7, window.packSegments(new float[7 * 4]));
+    }
+
+    @Test
+    public void newPointsAreReachedOneAfterTheOther() throws Exception {
+        RouteWindow window = new RouteWindow(16, 0, 100, 50);
+        window.add(0, 0, 1000);
+        window.add(10, 0, 1000);
+        window.add(20, 0, 1000);
+
+        window.evaluate(1000);
+        assertEquals(1, window.getReached());
+        assertTrue(window.isHeadGrowing());
+
+        window.evaluate(1050);
+        assertEquals(5f, window.getHeadX(), 0.001f);
+
+        window.evaluate(1140);
+        assertEquals(2, window.getReached());
+        assertEquals(14f, window.getHeadX(), 0.001f);
+        assertEquals(1, window.getFirstPulse());
+
+        window.evaluate(1220);
+        assertEquals(3, window.getReached());
+        assertFalse(window.isHeadGrowing());
+        assertTrue(window.isActive());
+
+        window.evaluate(1400);
+        assertFalse(window.isActive());
+
+        // A point arriving later grows from the last one from its arrival on
+        window.add(30, 0, 5000);
+        window.evaluate(5050);
+        assertTrue(window.isHeadGrowing());
+        assertEquals(25f, window.getHeadX(), 0.001f);
+    }
+
+    @Test
+    public void pointsAreEvictedOnceTooOld() throws Exception {
+        RouteWindow window = new RouteWindow(1000, 1000, 100, 50);
+
+        for (int i = 0; i < 20; i++) {
+            window.add(i, 0, i * 100);
+        }
+
+        // Point i is reached at (i + 1) * 100, except for the first one
+        window.evaluate(2100);
+        assertEquals(10, window.getReached());
+        assertEquals(10f, window.getX(0), 0f);
+        assertEquals(0f, window.getOpacity(0), 0.001f);
+        assertEquals(0.4f, window.getOpacity(1), 0.001f);
+        assertEquals(1f, window.getOpacity(window.size() - 1), 0.001f);
+
+        // The last point reached is kept as the origin of the next pathway
+        window.evaluate(100000);
+        assertEquals(1, window.size());
+        assertFalse(window.isActive());
+    }
+
+    @Test
+    public void playbackKeepsUpWithAFastFeed() throws Exception {
+        RouteWindow window = new RouteWindow(16, 0, 100, 50);
+        float[] segments = new float[15 * 4];
+
+        // A point every 10 ms, while a pathway takes 100 ms to grow
+        for (int i = 0; i < 1000; i++) {
+            window.add(i, 0, i * 10);
+            window.evaluate(i * 10);
+
+            if (i >= 16) {
+                assertTrue("Reached " + window.getReached() + " at " + i, window.getReached() >= 8);
+                assertTrue(window.packSegments(segments) >= 7);
+            }
+        }
+
+        // The newest points still grow one after the other
+        assertTrue(window.isHeadGrowing());
+        assertEquals(window.getReached() - 1, window.packSegments(segments));
+    }
+
+    @Test
+    public void fadingOnlyChangesOnceAStep() throws Exception {
+        RouteWindow window = new RouteWindow(16, 1000, 100, 50);
+        window.add(0, 0, 0);
+        window.add(10, 0, 0);
+
+        // Nothing grows or pulses anymore, the points only age
+        window.evaluate(500);
+        assertFalse(window.isActive());
+
+        // The oldest point starts fading after 750 ms, then drops by a step every 31.25 ms
+        assertEquals(751, window.getNextChangeTime(8));
+        window.evaluate(751);
+        assertEquals(782, window.getNextChangeTime(8));
+        window.evaluate(990);
+        assertEquals(1001, window.getNextChangeTime(8));
+
+        // Evicted then, while the newest point, reached at 100, goes on fading from 3 steps out of 8
+        window.evaluate(1001);
+        assertEquals(1, window.size());
+        assertEquals(1007, window.getNextChangeTime(8));
+
+        assertEquals(Long.MAX_VALUE, new RouteWindow(16, 0, 100, 50).getNextChangeTime(8));
+    }
+}
@@ -0,0 +1,110 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link SegmentGrid} and {@link RouteCuller} against a linear scan of the route.
+ */
+public class SegmentGridTest {
+
+    @Test
+    public void queryFindsTheSameSegmentsAsALinearScan() throws Exception {
+        RouteStore route = createRoute(5000, 42);
+        SegmentGrid grid = new SegmentGrid(64);
+        grid.update(route);
+
+        Random random = new Random(7);
+        for (int q = 0; q < 100; q++) {
+            float left = random.nextFloat() * 3000 - 1500;
+            float top = random.nextFloat() * 3000 - 1500;
+            float right = left + random.nextFloat() * 500;
+            float bottom = top + random.nextFloat() * 500;
+
+            int found = grid.query(left, top, right, bottom);
+            int[] results = Arrays.copyOf(grid.getResults(), found);
+            Arrays.sort(results);
+
+            int[] expected = scan(route, left, top, right, bottom);
+
+            // Other segments of the same cells may be returned as well, but none of the intersecting ones is missed
+            for (int segment : expected) {
+                assertTrue("Segment " + segment + " was not found", Arrays.binarySearch(results, segment) >= 0);
+            }
+        }
+    }
+
+    @Test
+    public void appendedPointsAreIndexed() throws Exception {
+        RouteStore route = new RouteStore();
+        SegmentGrid grid = new SegmentGrid(10);
+
+        route.add(0, 0);
+        route.add(5, 5);
+        grid.update(route);
+        assertEquals(1, grid.query(0, 0, 1, 1));
+
+        route.add(100, 100);
+        grid.update(route);
+        assertEquals(2, grid.size());
+        assertEquals(1, grid.query(90, 90, 95, 95));
+        assertEquals(1, grid.getResults()[0]);
+    }
+
+    @Test
+    public void cullerSkipsWhatIsOutside() throws Exception {
+        RouteStore route = new RouteStore();
+        for (int i = 0; i < 10; i++) {
+            route.add(i * 100, 0);
+        }
+
+        DrawBuffers buffers = new DrawBuffers();
+        RouteCuller culler = new RouteCuller(50);
+
+        // Points 2 to 4 and the segments between 1 and 4 are visible
+        assertTrue(culler.cull(route, 150, -10, 450, 10, buffers.packSegments(route, 9), 9,
+                buffers.packPoints(route, 10), 0));
+        assertEquals(3, culler.getPointCount());
+        assertEquals(4, culler.getSegmentCount());
+        assertEquals(9 - 4 + 10 - 3, culler.getCulledCount());
+
+        // Everything is visible
+        assertFalse(culler.cull(route, -10, -10, 1000, 10, buffers.packSegments(route, 9), 9,
+                buffers.packPoints(route, 10), 0));
+        assertEquals(0, culler.getCulledCount());
+    }
+
+    private static int[] scan(RouteStore route, float left, float top, float right, float bottom) {
+        int[] found = new int[route.size()];
+        int count = 0;
+
+        for (int i = 0; i < route.size() - 1; i++) {
+            float x0 = route.getX(i), y0 = route.getY(i), x1 = route.getX(i + 1), y1 = route.getY(i + 1);
+
+            if (Math.max(x0, x1) >= left && Math.min(x0, x1) <= right
+                    && Math.max(y0, y1) >= top && Math.min(y0, y1) <= bottom) {
+                found[count++] = i;
+            }
+        }
+
+        return Arrays.copyOf(found, count);
+    }
+
+    private static RouteStore createRoute(int count, long seed) {
+        Random random = new Random(seed);
+        RouteStore route = new RouteStore(count);
+        float x = 0, y = 0;
+
+        for (int i = 0; i < count; i++) {
+            route.add(x, y);
+            x += random.nextFloat() * 60 - 30;
+            y += random.nextFloat() * 60 - 30;
+        }
+
+        return route;
+    }
+}
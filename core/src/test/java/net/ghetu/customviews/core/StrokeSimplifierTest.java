@@ -0,0 +1,91 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StrokeSimplifier} keeps the corners of a stroke and nothing of its jitter.
+ */
+public class StrokeSimplifierTest {
+
+    @Test
+    public void straightStrokeKeepsItsEnds() throws Exception {
+        StrokeSimplifier simplifier = new StrokeSimplifier(2);
+        RouteStore kept = new RouteStore();
+
+        add(kept, simplifier.begin(0, 0), simplifier);
+        for (int i = 1; i <= 1000; i++) {
+            add(kept, simplifier.add(i * 0.5f, i * 0.25f), simplifier);
+        }
+        add(kept, simplifier.end(), simplifier);
+
+        assertEquals(2, kept.size());
+        assertEquals(500f, kept.getX(1), 0f);
+    }
+
+    @Test
+    public void jitterIsWithinTolerance() throws Exception {
+        Random random = new Random(3);
+        StrokeSimplifier simplifier = new StrokeSimplifier(2);
+        RouteStore kept = new RouteStore();
+
+        add(kept, simplifier.begin(0, 0), simplifier);
+        for (int i = 1; i <= 1000; i++) {
+            add(kept, simplifier.add(i * 0.5f, random.nextFloat() * 0.2f - 0.1f), simplifier);
+        }
+        add(kept, simplifier.end(), simplifier);
+
+        // The strip follows the direction of the first samples, so the jitter only costs a few points
+        assertTrue(kept.size() < 50);
+        for (int i = 0; i < kept.size(); i++) {
+            assertEquals(0f, kept.getY(i), 0.1f);
+        }
+    }
+
+    @Test
+    public void cornersAreKept() throws Exception {
+        StrokeSimplifier simplifier = new StrokeSimplifier(1);
+        RouteStore kept = new RouteStore();
+
+        // Right, then down, then back up along the same line
+        add(kept, simplifier.begin(0, 0), simplifier);
+        for (int i = 1; i <= 100; i++) {
+            add(kept, simplifier.add(i, 0), simplifier);
+        }
+        for (int i = 1; i <= 100; i++) {
+            add(kept, simplifier.add(100, i), simplifier);
+        }
+        for (int i = 99; i >= 50; i--) {
+            add(kept, simplifier.add(100, i), simplifier);
+        }
+        add(kept, simplifier.end(), simplifier);
+
+        assertEquals(4, kept.size());
+        // The last sample within the tolerance of the first stretch
+        assertEquals(100f, kept.getX(1), 0f);
+        assertEquals(0f, kept.getY(1), 1f);
+        assertEquals(100f, kept.getY(2), 0f);
+        assertEquals(50f, kept.getY(3), 0f);
+        assertFalse(simplifier.end());
+    }
+
+    @Test
+    public void restingFingerAddsNothing() throws Exception {
+        StrokeSimplifier simplifier = new StrokeSimplifier(2);
+
+        assertTrue(simplifier.begin(10, 10));
+        for (int i = 0; i < 100; i++) {
+            assertFalse(simplifier.add(10.5f, 9.5f));
+        }
+        assertFalse(simplifier.end());
+    }
+
+    private static void add(RouteStore kept, boolean found, StrokeSimplifier simplifier) {
+        if (found) {
+            kept.add(simplifier.getKeyX(), simplifier.getKeyY());
+        }
+    }
+}
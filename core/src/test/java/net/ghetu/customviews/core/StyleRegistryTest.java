@@ -0,0 +1,78 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the interning of {@link Style}s and the runs of styles kept by {@link RouteStore}.
+ */
+public class StyleRegistryTest {
+
+    @Test
+    public void equalStylesShareTheirId() throws Exception {
+        StyleRegistry registry = new StyleRegistry(new Style(1, 2, 3));
+
+        assertEquals(StyleRegistry.DEFAULT, registry.intern(new Style(1, 2, 3)));
+        int red = registry.intern(new Style(0xffff0000, 0xffff0000, 0xffff0000));
+        assertEquals(1, red);
+        assertEquals(red, registry.intern(new Style(0xffff0000, 0xffff0000, 0xffff0000)));
+        assertEquals(2, registry.size());
+
+        StyleRegistry restored = new StyleRegistry(new Style(1, 2, 3));
+        restored.addPacked(registry.toPackedArray());
+        assertEquals(2, restored.size());
+        assertEquals(registry.get(red), restored.get(red));
+    }
+
+    @Test
+    public void routeKeepsRunsOfStyles() throws Exception {
+        RouteStore route = new RouteStore();
+        route.set(new float[]{0, 1, 2, 3, 4, 5}, new float[6], new int[]{0, 0, 2, 2, 2, 1});
+
+        assertEquals(3, route.getRunCount());
+        assertEquals(0, route.getStyle(1));
+        assertEquals(2, route.getStyle(2));
+        assertEquals(2, route.getStyle(4));
+        assertEquals(1, route.getStyle(5));
+        assertEquals(5, route.getRunEnd(1));
+
+        route.add(6, 0, 1);
+        route.add(7, 0);
+        assertEquals(4, route.getRunCount());
+        assertEquals(1, route.getStyle(6));
+        assertEquals(0, route.getStyle(7));
+
+        RouteStore restored = new RouteStore();
+        restored.setPacked(route.toPackedArray());
+        assertEquals(1, restored.getRunCount());
+        restored.setPackedRuns(route.toPackedRuns());
+        assertEquals(2, restored.getStyle(3));
+        assertEquals(8, restored.getRunEnd(3));
+    }
+
+    @Test
+    public void culledSegmentsStayInOrder() throws Exception {
+        RouteStore route = new RouteStore();
+        int[] styles = new int[400];
+        float[] xs = new float[400];
+        float[] ys = new float[400];
+        for (int i = 0; i < 400; i++) {
+            // Back and forth over the same area, so that cells hold segments far apart in the route
+            xs[i] = (i % 40) * 10;
+            ys[i] = (i / 40) % 2 * 5;
+            styles[i] = i / 100;
+        }
+        route.set(xs, ys, styles);
+
+        DrawBuffers buffers = new DrawBuffers();
+        RouteCuller culler = new RouteCuller(50);
+        assertTrue(culler.cull(route, 0, -1, 100, 6, buffers.packSegments(route, 399), 399,
+                buffers.packPoints(route, 400), 0));
+
+        int[] origins = culler.getSegmentOrigins();
+        for (int k = 1; k < culler.getSegmentCount(); k++) {
+            assertTrue(origins[k - 1] < origins[k]);
+        }
+    }
+}
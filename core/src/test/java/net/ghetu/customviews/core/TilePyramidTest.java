@@ -0,0 +1,51 @@
+package net.ghetu.customviews.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the choice of levels and the visible tiles of {@link TilePyramid}.
+ */
+public class TilePyramidTest {
+
+    @Test
+    public void coarsestLevelFitsInOneTile() throws Exception {
+        TilePyramid pyramid = new TilePyramid(40000, 20000, 256);
+
+        int max = pyramid.getMaxLevel();
+        assertEquals(1, pyramid.getColumns(max));
+        assertEquals(1, pyramid.getRows(max));
+        assertTrue(pyramid.getColumns(max - 1) > 1);
+    }
+
+    @Test
+    public void levelKeepsOneImagePixelPerScreenPixel() throws Exception {
+        TilePyramid pyramid = new TilePyramid(40000, 20000, 256);
+
+        assertEquals(0, pyramid.getLevel(2f));
+        assertEquals(0, pyramid.getLevel(0.6f));
+        assertEquals(1, pyramid.getLevel(0.5f));
+        assertEquals(1, pyramid.getLevel(0.3f));
+        assertEquals(2, pyramid.getLevel(0.25f));
+        assertEquals(pyramid.getMaxLevel(), pyramid.getLevel(0.00001f));
+    }
+
+    @Test
+    public void visibleTilesAreClampedToTheImage() throws Exception {
+        TilePyramid pyramid = new TilePyramid(1000, 600, 256);
+        int[] range = new int[4];
+
+        pyramid.getVisibleTiles(0, 300, -50, 520, 200, range);
+        assertArrayEquals(new int[]{1, 0, 2, 0}, range);
+
+        pyramid.getVisibleTiles(0, -100, -100, 5000, 5000, range);
+        assertArrayEquals(new int[]{0, 0, 3, 2}, range);
+        assertEquals(1000, pyramid.getTileRight(0, 3));
+        assertEquals(600, pyramid.getTileBottom(0, 2));
+
+        // Outside of the image
+        pyramid.getVisibleTiles(0, 2000, 2000, 3000, 3000, range);
+        assertTrue(range[2] < range[0]);
+    }
+}